@@ -0,0 +1,123 @@
+package monitoring.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+
+import monitoring.beans.GeoPoint;
+import monitoring.utility.DistanceCalculator;
+import monitoring.utility.GeoPointBatch;
+
+/**
+ * Distance between two positions, single threaded and with the concurrency
+ * of a busy report endpoint, compared to the former synchronized law of
+ * cosines. The batch benchmarks measure one position against 1024 points,
+ * scores are per point.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class DistanceBenchmark {
+
+	private static final int POINTS = 1024;
+
+	private GeoPoint[] points;
+	private double[] latitudes;
+	private double[] longitudes;
+	private double[] distances;
+	private GeoPointBatch batch;
+	private int index;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		points = new GeoPoint[POINTS];
+		latitudes = new double[POINTS];
+		longitudes = new double[POINTS];
+		for (int i = 0; i < POINTS; i++) {
+			latitudes[i] = 50.9 + random.nextDouble() * 0.3;
+			longitudes[i] = 13.6 + random.nextDouble() * 0.3;
+			points[i] = new GeoPoint(latitudes[i], longitudes[i]);
+		}
+		distances = new double[POINTS];
+		batch = GeoPointBatch.of(latitudes, longitudes);
+	}
+
+	@Benchmark
+	public double legacyDistance() {
+		index = (index + 1) & (POINTS - 1);
+		return getLegacyDistance(points[index], points[(index + 1) & (POINTS - 1)]);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public double legacyDistanceConcurrent() {
+		return legacyDistance();
+	}
+
+	@Benchmark
+	public double getDistance() {
+		index = (index + 1) & (POINTS - 1);
+		return DistanceCalculator.getDistance(points[index], points[(index + 1) & (POINTS - 1)]);
+	}
+
+	@Benchmark
+	@Threads(8)
+	public double getDistanceConcurrent() {
+		return getDistance();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public double[] legacyBatch() {
+		GeoPoint position = points[index = (index + 1) & (POINTS - 1)];
+		for (int i = 0; i < POINTS; i++)
+			distances[i] = getLegacyDistance(position, points[i]);
+		return distances;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public double[] haversineBatch() {
+		index = (index + 1) & (POINTS - 1);
+		DistanceCalculator.getDistances(latitudes[index], longitudes[index], latitudes, longitudes, distances);
+		return distances;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public double[] chordBatch() {
+		index = (index + 1) & (POINTS - 1);
+		batch.getDistances(latitudes[index], longitudes[index], distances);
+		return distances;
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(POINTS)
+	public int countWithin() {
+		index = (index + 1) & (POINTS - 1);
+		return batch.countWithin(latitudes[index], longitudes[index], 5000);
+	}
+
+	// DistanceCalculator.getDistance before the haversine rewrite
+	private static synchronized double getLegacyDistance(GeoPoint pointA, GeoPoint pointB) {
+		double lonDelta = pointA.getLongitude() - pointB.getLongitude();
+		return (Math.acos(
+				Math.sin(pointA.getLatitude() * Math.PI / 180.0) *
+				Math.sin(pointB.getLatitude() * Math.PI / 180.0) +
+				Math.cos(pointA.getLatitude() * Math.PI / 180.0) *
+				Math.cos(pointB.getLatitude() * Math.PI / 180.0) *
+				Math.cos(lonDelta * Math.PI / 180.0)) * 180 / Math.PI) *
+				60 * 1.1515 * 1609.344;
+	}
+
+}
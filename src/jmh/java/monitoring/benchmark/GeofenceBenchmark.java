@@ -0,0 +1,60 @@
+package monitoring.benchmark;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import monitoring.beans.Geofence;
+import monitoring.beans.GeofenceEvent;
+import monitoring.beans.TrackedPosition;
+import monitoring.geofence.GeofenceService;
+
+/**
+ * Positions of a fleet matched against appointments spread over a city,
+ * the score should not depend on the number of geofences.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeofenceBenchmark {
+
+	private static final int POSITIONS = 4096;
+
+	@Param({ "1000", "100000" })
+	private int geofences;
+
+	private GeofenceService service;
+	private TrackedPosition[] positions;
+	private int index;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(42);
+		service = new GeofenceService(500, 100, 5000, 10000, 600);
+		for (int i = 0; i < geofences; i++) {
+			service.register(new Geofence("appointment-" + i, "device-" + (i % 1000),
+					50.9 + random.nextDouble() * 0.3, 13.6 + random.nextDouble() * 0.3, 100));
+		}
+		positions = new TrackedPosition[POSITIONS];
+		for (int i = 0; i < POSITIONS; i++) {
+			positions[i] = new TrackedPosition("device-" + (i % 1000),
+					50.9 + random.nextDouble() * 0.3, 13.6 + random.nextDouble() * 0.3, i);
+		}
+	}
+
+	@Benchmark
+	public List<GeofenceEvent> update() {
+		index = (index + 1) & (POSITIONS - 1);
+		return service.update(positions[index]);
+	}
+
+}
@@ -0,0 +1,65 @@
+package monitoring.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import monitoring.beans.RouteGeometry;
+import monitoring.connector.RouteResultReader;
+import monitoring.utility.PolylineEncoder;
+import monitoring.utility.RouteSimplifier;
+
+/**
+ * CPU cost of the route output formats per route: points as JSON, encoded
+ * polyline and polyline after simplification.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PolylineBenchmark {
+
+	@Param({"100", "1000", "10000"})
+	public int routePoints;
+
+	@Param({"5"})
+	public double simplifyMeters;
+
+	private ObjectMapper objectMapper;
+	private RouteGeometry route;
+
+	@Setup
+	public void setup() throws IOException {
+		objectMapper = new ObjectMapper();
+		byte[] response = StubHttpConnector.createRouteResponse(routePoints).getBytes(StandardCharsets.UTF_8);
+		route = new RouteResultReader().handle(new ByteArrayInputStream(response)).getPointList();
+	}
+
+	@Benchmark
+	public byte[] writePoints() throws JsonProcessingException {
+		return objectMapper.writeValueAsBytes(route);
+	}
+
+	@Benchmark
+	public String encodePolyline() {
+		return PolylineEncoder.encode(route, PolylineEncoder.DEFAULT_PRECISION);
+	}
+
+	@Benchmark
+	public String simplifyAndEncodePolyline() {
+		return PolylineEncoder.encode(RouteSimplifier.simplify(route, simplifyMeters), PolylineEncoder.DEFAULT_PRECISION);
+	}
+
+}
@@ -0,0 +1,71 @@
+package monitoring.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import monitoring.cache.DeviceSessionStore;
+import monitoring.cache.PositionStore;
+import monitoring.cache.RouteCache;
+import monitoring.component.MonitoringService;
+import monitoring.connector.RoutingConnector;
+import monitoring.connector.TrackingConnector;
+import monitoring.exceptions.InternalMonitoringErrorException;
+
+/**
+ * Whole report for a tracked device with stubbed routing and tracking
+ * responses. "cold" parses both responses on every call, "warm" serves
+ * position and route from the in-memory stores and the device session,
+ * "local" has a fresh position and an appointment close enough for the
+ * local estimate.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class ReportBenchmark {
+
+	@Param({"cold", "warm", "local"})
+	public String lookup;
+
+	@Param({"500"})
+	public int routePoints;
+
+	private MonitoringService monitoringService;
+	private long appointmentTime;
+	private double appointmentLatitude;
+	private double appointmentLongitude;
+
+	@Setup
+	public void setup() {
+		StubHttpConnector connector = new StubHttpConnector(routePoints);
+		boolean warm = !lookup.equals("cold");
+		// a ttl of zero disables the stores
+		RouteCache routeCache = new RouteCache(25, warm ? 120 : 0, 2000000);
+		PositionStore positionStore = new PositionStore(warm ? 3600 : 0, 3600);
+		DeviceSessionStore sessionStore = new DeviceSessionStore(50, warm ? 300 : 0, 3600);
+		monitoringService = new MonitoringService(
+				new RoutingConnector(connector, routeCache),
+				new TrackingConnector(connector),
+				positionStore,
+				sessionStore);
+		appointmentTime = System.currentTimeMillis() + TimeUnit.HOURS.toMillis(1);
+		// about 300 m from the tracked position
+		boolean local = lookup.equals("local");
+		appointmentLatitude = local ? 51.0439 : 51.029;
+		appointmentLongitude = local ? 13.7318 : 13.736;
+	}
+
+	@Benchmark
+	public JSONObject getReport() throws InternalMonitoringErrorException {
+		return monitoringService.getReport("benchmark", appointmentTime, appointmentLatitude, appointmentLongitude, 0);
+	}
+
+}
@@ -0,0 +1,82 @@
+package monitoring.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.google.common.io.CharStreams;
+
+import monitoring.beans.GeoPoint;
+import monitoring.beans.RouteGeometry;
+import monitoring.beans.RouteResult;
+import monitoring.cache.RouteCache;
+import monitoring.connector.RouteResultReader;
+import monitoring.connector.RoutingConnector;
+
+/**
+ * Parsing of routing responses with growing point lists, the route cache
+ * is disabled so every call parses the full payload. parseTree is the
+ * former way of buffering the response and building an org.json tree.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RouteParsingBenchmark {
+
+	@Param({"100", "1000", "10000"})
+	public int routePoints;
+
+	private RoutingConnector routingConnector;
+	private RouteResultReader routeReader;
+	private byte[] response;
+	private GeoPoint start;
+	private GeoPoint end;
+
+	@Setup
+	public void setup() {
+		StubHttpConnector connector = new StubHttpConnector(routePoints);
+		routingConnector = new RoutingConnector(connector, new RouteCache(25, 0, 2000000));
+		routeReader = new RouteResultReader();
+		response = connector.getRouteResponse().getBytes(StandardCharsets.UTF_8);
+		start = new GeoPoint(51.04, 13.73);
+		end = new GeoPoint(51.029, 13.736);
+	}
+
+	@Benchmark
+	public RouteGeometry getGPSCoordinates() {
+		return routingConnector.getGPSCoordinates(start, end);
+	}
+
+	@Benchmark
+	public RouteResult parseStream() throws IOException {
+		return routeReader.handle(new ByteArrayInputStream(response));
+	}
+
+	@Benchmark
+	public RouteResult parseTree() throws IOException {
+		Reader reader = new InputStreamReader(new ByteArrayInputStream(response), StandardCharsets.UTF_8);
+		JSONObject jsonResult = new JSONObject(CharStreams.toString(reader));
+		JSONArray jsonArray = jsonResult.getJSONArray("pointList");
+		RouteGeometry.Builder pointList = new RouteGeometry.Builder(jsonArray.length());
+		for (int index = 0; index < jsonArray.length(); index++) {
+			JSONArray point = jsonArray.getJSONArray(index);
+			pointList.add(point.getDouble(0), point.getDouble(1));
+		}
+		return new RouteResult(pointList.build(), jsonResult.getInt("timeInMs"), jsonResult.getDouble("distance"));
+	}
+
+}
@@ -0,0 +1,55 @@
+package monitoring.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.json.simple.JSONObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import monitoring.cache.PositionStore;
+import monitoring.cache.RouteCache;
+import monitoring.component.MonitoringService;
+import monitoring.connector.RoutingConnector;
+import monitoring.connector.TrackingConnector;
+import monitoring.exceptions.InternalMonitoringErrorException;
+
+/**
+ * Writing a finished report with Jackson, as the controller response does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class SerializationBenchmark {
+
+	@Param({"100", "1000", "10000"})
+	public int routePoints;
+
+	private ObjectMapper objectMapper;
+	private JSONObject report;
+
+	@Setup
+	public void setup() throws InternalMonitoringErrorException {
+		StubHttpConnector connector = new StubHttpConnector(routePoints);
+		MonitoringService monitoringService = new MonitoringService(
+				new RoutingConnector(connector, new RouteCache(25, 120, 2000000)),
+				new TrackingConnector(connector),
+				new PositionStore(30, 600));
+		objectMapper = new ObjectMapper();
+		report = monitoringService.getReport("benchmark", System.currentTimeMillis(), 51.029, 13.736, 0);
+	}
+
+	@Benchmark
+	public byte[] writeReport() throws JsonProcessingException {
+		return objectMapper.writeValueAsBytes(report);
+	}
+
+}
@@ -0,0 +1,103 @@
+package monitoring.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Random;
+
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+import monitoring.connector.HttpConnectorInterface;
+
+/**
+ * Answers routing and tracking requests with canned responses, so benchmarks
+ * measure the service code without any network in between.
+ */
+public class StubHttpConnector implements HttpConnectorInterface {
+
+	private final String routeResponse;
+	private final String positionResponse;
+
+	public StubHttpConnector(int routePoints) {
+		this.routeResponse = createRouteResponse(routePoints);
+		this.positionResponse = createPositionResponse();
+	}
+
+	public String getRouteResponse() {
+		return routeResponse;
+	}
+
+	@Override
+	public String sendMessage(String urlStr, String channel, String contactId, String content) {
+		return "";
+	}
+
+	@Override
+	public String getConnectionString(String urlStr, String urlParameters, RestRequestType restRequestType) {
+		return getConnectionString(urlStr);
+	}
+
+	@Override
+	public String getConnectionString(String urlStr) {
+		return urlStr.contains("PositionData") ? positionResponse : routeResponse;
+	}
+
+	@Override
+	public String getConnectionStringWithToken(String urlStr, String token) {
+		return getConnectionString(urlStr);
+	}
+
+	@Override
+	public String getConnectionAuthenticationString(String urlStr, String authenticationJSON) {
+		return "{\"token\": \"benchmark\"}";
+	}
+
+	@Override
+	public <T> T getConnectionStream(String urlStr, String token, StreamHandler<T> handler) throws IOException {
+		return handler.handle(new ByteArrayInputStream(getConnectionString(urlStr).getBytes(StandardCharsets.UTF_8)));
+	}
+
+	@Override
+	public JSONObject getJSONObjectResult(String result) {
+		return new JSONObject(result);
+	}
+
+	@Override
+	public JSONArray getJSONArrayResult(String result) {
+		return new JSONArray(result);
+	}
+
+	/**
+	 * Route from the demo position towards the south east, in the format
+	 * of the routing service.
+	 */
+	static String createRouteResponse(int routePoints) {
+		Random random = new Random(42);
+		StringBuilder response = new StringBuilder(routePoints * 40);
+		response.append("{\"timeInMs\": 1260000, \"distance\": 12874.5, \"pointList\": [");
+		double latitude = 51.04;
+		double longitude = 13.73;
+		for (int index = 0; index < routePoints; index++) {
+			if (index > 0)
+				response.append(',');
+			// seven decimals like the routing service
+			response.append(String.format(Locale.ROOT, "[%.7f,%.7f]", latitude, longitude));
+			latitude -= random.nextDouble() * 0.0002;
+			longitude += random.nextDouble() * 0.0002;
+		}
+		return response.append("]}").toString();
+	}
+
+	private static String createPositionResponse() {
+		// a recent fix, older positions are ignored by the tracking connector
+		String date = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'"));
+		return "[{\"id\": \"benchmark\", \"accuracy\": 10, \"altitude\": 0, \"bearing\": 0, "
+				+ "\"date\": \"" + date + "\", \"latitude\": 51.0412, \"longitude\": 13.7318, "
+				+ "\"locationProvider\": \"ExCELL\", \"speed\": 8.5, \"tmode\": \"car\"}]";
+	}
+
+}
@@ -1,121 +1,93 @@
 package monitoring;
 
-import java.util.ArrayList;
-import java.util.List;
-
-import javax.servlet.ServletContext;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.ComponentScan;
-import org.springframework.http.ResponseEntity;
+import org.springframework.context.annotation.Import;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
-import com.google.common.collect.Lists;
-import com.google.common.collect.Sets;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import monitoring.cache.RouteCache;
 import monitoring.component.MonitoringService;
 import monitoring.connector.RoutingConnector;
 import monitoring.connector.TrackingConnector;
 import monitoring.controller.MonitoringController;
-import springfox.documentation.builders.PathSelectors;
-import springfox.documentation.builders.RequestHandlerSelectors;
-import springfox.documentation.service.ApiInfo;
-import springfox.documentation.service.ApiKey;
-import springfox.documentation.service.AuthorizationScope;
-import springfox.documentation.service.Contact;
-import springfox.documentation.service.SecurityReference;
-import springfox.documentation.service.VendorExtension;
-import springfox.documentation.spi.DocumentationType;
-import springfox.documentation.spi.service.contexts.SecurityContext;
-import springfox.documentation.spring.web.paths.RelativePathProvider;
-import springfox.documentation.spring.web.plugins.Docket;
-import springfox.documentation.swagger.web.ApiKeyVehicle;
-import springfox.documentation.swagger.web.SecurityConfiguration;
-import springfox.documentation.swagger2.annotations.EnableSwagger2;
+import monitoring.eta.EtaEstimator;
+import monitoring.geofence.GeofenceService;
+import monitoring.metrics.MetricsRegistry;
+import monitoring.metrics.TimedJsonConverter;
+import monitoring.prefetch.TourPrefetcher;
+import monitoring.resilience.UpstreamGuard;
 
 @SpringBootApplication
-@EnableSwagger2
+@EnableScheduling
 @ComponentScan(basePackageClasses = {
 		MonitoringController.class,
 		MonitoringService.class,
 		RoutingConnector.class,
-		TrackingConnector.class
+		TrackingConnector.class,
+		RouteCache.class,
+		MetricsRegistry.class,
+		EtaEstimator.class,
+		GeofenceService.class,
+		TourPrefetcher.class
 	})
+@Import(SwaggerConfig.class)
 public class Application {
 
     public static void main(String[] args) {
         SpringApplication.run(Application.class, args);
     }
     
-    @Bean
-    public Docket monitoringApi(ServletContext servletContext) { 
-        return new Docket(DocumentationType.SWAGGER_2)
-          .groupName("excell-monitoring-api")
-          .select()
-          	.apis(RequestHandlerSelectors.any())
-          	.paths(PathSelectors.regex("/v1/monitoring"))
-          	.build()
-          .genericModelSubstitutes(ResponseEntity.class)
-          .protocols(Sets.newHashSet("https"))
-          .host("excell-mobility.de")
-          .securitySchemes(Lists.newArrayList(apiKey()))
-          .securityContexts(Lists.newArrayList(securityContext()))
-          .apiInfo(apiInfo())
-          .pathProvider(new RelativePathProvider(servletContext) {
-                @Override
-                public String getApplicationBasePath() {
-                    return "/integration/api/v1/service-request/monitoringservice";
-                }
-            })
-          ;
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService upstreamExecutor(@Value("${monitoring.upstream.threads:64}") int threads) {
+        // runs the blocking calls to tracking and routing service, so servlet threads are not parked
+        return Executors.newFixedThreadPool(threads,
+                new ThreadFactoryBuilder().setNameFormat("upstream-%d").setDaemon(true).build());
     }
     
-	private ApiKey apiKey() {
-		return new ApiKey("api_key", "Authorization", "header");
-	}
-	
-    private SecurityContext securityContext() {
-        return SecurityContext.builder()
-            .securityReferences(defaultAuth())
-            .forPaths(PathSelectors.regex("/*.*"))
-            .build();
+    @Bean(destroyMethod = "shutdown")
+    public ExecutorService routingHedgeExecutor(@Value("${upstream.routing.maxconcurrent:32}") int maxConcurrent) {
+        // hedged calls get their own threads, waiting on the upstream executor could exhaust it,
+        // every running call holds a permit of the bulkhead, so it never needs more threads
+        return Executors.newFixedThreadPool(maxConcurrent,
+                new ThreadFactoryBuilder().setNameFormat("routing-hedge-%d").setDaemon(true).build());
     }
-
-    private List<SecurityReference> defaultAuth() {
-    	List<SecurityReference> ls = new ArrayList<>();
-    	AuthorizationScope[] authorizationScopes = new AuthorizationScope[0];
-    	SecurityReference s = new SecurityReference("api_key", authorizationScopes);
-    	ls.add(s);
-    	return ls;
+    
+    @Bean
+    public UpstreamGuard routingGuard(
+            @Value("${upstream.routing.maxconcurrent:32}") int maxConcurrent,
+            @Value("${upstream.routing.maxwait:1000}") long maxWaitMs,
+            @Value("${upstream.routing.circuit.failures:5}") int failureThreshold,
+            @Value("${upstream.routing.circuit.open:30000}") long openMs,
+            @Value("${upstream.routing.hedge:false}") boolean hedge,
+            @Qualifier("routingHedgeExecutor") ExecutorService hedgeExecutor,
+            MetricsRegistry metrics) {
+        return new UpstreamGuard("routing", maxConcurrent, maxWaitMs, failureThreshold, openMs, hedge ? hedgeExecutor : null, metrics);
     }
-
-	@Bean
-	public SecurityConfiguration security() {
-		return new SecurityConfiguration(null, null, null, null, "Token", ApiKeyVehicle.HEADER, "Authorization", ",");
-	}
     
-    private ApiInfo apiInfo() {
-		ApiInfo apiInfo = new ApiInfo(
-          "ExCELL Monitoring API",
-          "Diese API liefert einen Status-Report für ein getracktes Gerät A in Hinblick auf das Erreichen eines Ortes B."
-          + " Der Report besteht aus mehreren Elementen: Die Koordinaten der aktuellen Position, die vorgeschlagene Route zum Ziel, die errechnete Verspätung und eine Meldung ob B erreicht ist."
-          + " Intern fragt der Monitoring Service die aktuelle Postion des Gerätes über den ExCELL Tracking Service ab."
-          + " Die verwendete deviceID muss dafür im Tracking Service hinterlegt sein."
-          + "\n"
-          + "\nThis API provides a status report for a monitored device A with regards to a target location B."
-          + " It returns the coordinates of locations A and B, the proposed route between them, calculates the delay and tells you when B is reached."
-          + " Internally the Monitoring Service queries the ExCELL Tracking Service for the current position."
-          + " Please, make sure that the ID used here as first parameter also exists in the Tracking Service.\n",
-          "1.0",
-          "Use only for testing",
-          new Contact(
-        		  "Beuth Hochschule für Technik Berlin - Labor für Rechner- und Informationssysteme - MAGDa Gruppe",
-        		  "https://projekt.beuth-hochschule.de/magda/poeple",
-        		  "fkunde@beuth-hochschule"),
-          "Link to source code",
-          "https://github.com/excell-mobility/monitoring_service",
-          new ArrayList<VendorExtension>());
-        return apiInfo;
+    @Bean
+    public UpstreamGuard trackingGuard(
+            @Value("${upstream.tracking.maxconcurrent:32}") int maxConcurrent,
+            @Value("${upstream.tracking.maxwait:1000}") long maxWaitMs,
+            @Value("${upstream.tracking.circuit.failures:5}") int failureThreshold,
+            @Value("${upstream.tracking.circuit.open:30000}") long openMs,
+            MetricsRegistry metrics) {
+        return new UpstreamGuard("tracking", maxConcurrent, maxWaitMs, failureThreshold, openMs, null, metrics);
+    }
+    
+    @Bean
+    public MappingJackson2HttpMessageConverter mappingJackson2HttpMessageConverter(ObjectMapper objectMapper, MetricsRegistry metrics) {
+        // replaces the default converter to measure serialization of the responses
+        return new TimedJsonConverter(objectMapper, metrics);
     }
-}
\ No newline at end of file
+}
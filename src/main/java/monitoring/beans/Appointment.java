@@ -0,0 +1,84 @@
+package monitoring.beans;
+
+import java.io.Serializable;
+
+import io.swagger.annotations.ApiModelProperty;
+
+public class Appointment implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@ApiModelProperty(notes = "Unix timestamp in milliseconds of the appointment (Note: GMT time zone required!)", required = true)
+	private long timestamp;
+	@ApiModelProperty(notes = "Latitude of the appointment", required = true)
+	private double latitude;
+	@ApiModelProperty(notes = "Longitude of the appointment", required = true)
+	private double longitude;
+	@ApiModelProperty(notes = "Expected duration of the appointment in minutes, the device leaves for the next one afterwards", required = false)
+	private int serviceDuration;
+
+	public Appointment() {
+
+	}
+
+	public Appointment(
+			long timestamp,
+			double latitude,
+			double longitude) {
+		this.timestamp = timestamp;
+		this.latitude = latitude;
+		this.longitude = longitude;
+	}
+
+	public Appointment(
+			long timestamp,
+			double latitude,
+			double longitude,
+			int serviceDuration) {
+		this(timestamp, latitude, longitude);
+		this.serviceDuration = serviceDuration;
+	}
+
+	public GeoPoint toGeoPoint() {
+		return new GeoPoint(latitude, longitude);
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public void setLatitude(double latitude) {
+		this.latitude = latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	public void setLongitude(double longitude) {
+		this.longitude = longitude;
+	}
+
+	public int getServiceDuration() {
+		return serviceDuration;
+	}
+
+	public void setServiceDuration(int serviceDuration) {
+		this.serviceDuration = serviceDuration;
+	}
+
+	@Override
+	public String toString() {
+		return "Appointment [timestamp=" + timestamp + ", latitude=" + latitude + ", longitude=" + longitude
+				+ ", serviceDuration=" + serviceDuration + "]";
+	}
+
+}
@@ -0,0 +1,67 @@
+package monitoring.beans;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import io.swagger.annotations.ApiModelProperty;
+
+public class AppointmentReport implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@ApiModelProperty(notes = "Location of the appointment", required = true)
+	private GeoPoint location;
+	@ApiModelProperty(notes = "Start of the appointment", required = true)
+	private Date appointmentTime;
+	@ApiModelProperty(notes = "Timestamp for expected arrival, after all appointments before", required = true)
+	private Date expectedTimeOfArrival;
+	@ApiModelProperty(notes = "Calculated delay in minutes including the delay carried over from appointments before", required = true)
+	private int delayInMin;
+	@ApiModelProperty(notes = "If delay is bigger than 5min, the appointment is classified as delayed. Unknown if a stage could only be estimated", required = true)
+	private Report.TimeStatus timeStatus;
+
+	public AppointmentReport() {
+
+	}
+
+	public GeoPoint getLocation() {
+		return location;
+	}
+
+	public void setLocation(GeoPoint location) {
+		this.location = location;
+	}
+
+	public Date getAppointmentTime() {
+		return appointmentTime;
+	}
+
+	public void setAppointmentTime(Date appointmentTime) {
+		this.appointmentTime = appointmentTime;
+	}
+
+	public Date getExpectedTimeOfArrival() {
+		return expectedTimeOfArrival;
+	}
+
+	public void setExpectedTimeOfArrival(Date expectedTimeOfArrival) {
+		this.expectedTimeOfArrival = expectedTimeOfArrival;
+	}
+
+	public int getDelayInMin() {
+		return delayInMin;
+	}
+
+	public void setDelayInMin(int delayInMin) {
+		this.delayInMin = delayInMin;
+	}
+
+	public Report.TimeStatus getTimeStatus() {
+		return timeStatus;
+	}
+
+	public void setTimeStatus(Report.TimeStatus timeStatus) {
+		this.timeStatus = timeStatus;
+	}
+
+}
@@ -0,0 +1,96 @@
+package monitoring.beans;
+
+import java.io.Serializable;
+
+import io.swagger.annotations.ApiModelProperty;
+
+public class Geofence implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@ApiModelProperty(notes = "Id of the geofence, e.g. of the appointment", required = true)
+	private String id;
+	@ApiModelProperty(notes = "Id of the device expected at the location, all devices are matched if empty", required = false)
+	private String deviceId;
+	@ApiModelProperty(notes = "Latitude of the appointment", required = true)
+	private double latitude;
+	@ApiModelProperty(notes = "Longitude of the appointment", required = true)
+	private double longitude;
+	@ApiModelProperty(notes = "Radius in meters within which the device counts as arrived (default distance if 0)", required = false)
+	private double radius;
+
+	public Geofence() {
+
+	}
+
+	public Geofence(
+			String id,
+			String deviceId,
+			double latitude,
+			double longitude,
+			double radius) {
+		this.id = id;
+		this.deviceId = deviceId;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.radius = radius;
+	}
+
+	public GeoPoint toGeoPoint() {
+		return new GeoPoint(latitude, longitude);
+	}
+
+	/**
+	 * True if positions of the device are matched against this geofence.
+	 */
+	public boolean appliesTo(String deviceId) {
+		return this.deviceId == null || this.deviceId.isEmpty() || this.deviceId.equals(deviceId);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public void setId(String id) {
+		this.id = id;
+	}
+
+	public String getDeviceId() {
+		return deviceId;
+	}
+
+	public void setDeviceId(String deviceId) {
+		this.deviceId = deviceId;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public void setLatitude(double latitude) {
+		this.latitude = latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	public void setLongitude(double longitude) {
+		this.longitude = longitude;
+	}
+
+	public double getRadius() {
+		return radius;
+	}
+
+	public void setRadius(double radius) {
+		this.radius = radius;
+	}
+
+	@Override
+	public String toString() {
+		return "Geofence [id=" + id + ", deviceId=" + deviceId + ", latitude=" + latitude
+				+ ", longitude=" + longitude + ", radius=" + radius + "]";
+	}
+
+}
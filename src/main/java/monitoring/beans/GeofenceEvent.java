@@ -0,0 +1,97 @@
+package monitoring.beans;
+
+import java.io.Serializable;
+
+import io.swagger.annotations.ApiModelProperty;
+
+public class GeofenceEvent implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@ApiModelProperty(notes = "Sequence number of the event, to continue reading the feed after it", required = true)
+	private long sequence;
+	@ApiModelProperty(notes = "Id of the geofence", required = true)
+	private String geofenceId;
+	@ApiModelProperty(notes = "Id of the device", required = true)
+	private String deviceId;
+	@ApiModelProperty(notes = "AT_APPOINTMENT on arrival, ON_THE_MOVE on departure", required = true)
+	private WorkingStatus.LocationStatus locationStatus;
+	@ApiModelProperty(notes = "Position of the device which caused the event", required = true)
+	private GeoPoint position;
+	@ApiModelProperty(notes = "Unix timestamp in milliseconds of the position fix", required = true)
+	private long timestamp;
+
+	public GeofenceEvent() {
+
+	}
+
+	public GeofenceEvent(
+			long sequence,
+			String geofenceId,
+			String deviceId,
+			WorkingStatus.LocationStatus locationStatus,
+			GeoPoint position,
+			long timestamp) {
+		this.sequence = sequence;
+		this.geofenceId = geofenceId;
+		this.deviceId = deviceId;
+		this.locationStatus = locationStatus;
+		this.position = position;
+		this.timestamp = timestamp;
+	}
+
+	public long getSequence() {
+		return sequence;
+	}
+
+	public void setSequence(long sequence) {
+		this.sequence = sequence;
+	}
+
+	public String getGeofenceId() {
+		return geofenceId;
+	}
+
+	public void setGeofenceId(String geofenceId) {
+		this.geofenceId = geofenceId;
+	}
+
+	public String getDeviceId() {
+		return deviceId;
+	}
+
+	public void setDeviceId(String deviceId) {
+		this.deviceId = deviceId;
+	}
+
+	public WorkingStatus.LocationStatus getLocationStatus() {
+		return locationStatus;
+	}
+
+	public void setLocationStatus(WorkingStatus.LocationStatus locationStatus) {
+		this.locationStatus = locationStatus;
+	}
+
+	public GeoPoint getPosition() {
+		return position;
+	}
+
+	public void setPosition(GeoPoint position) {
+		this.position = position;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	@Override
+	public String toString() {
+		return "GeofenceEvent [sequence=" + sequence + ", geofenceId=" + geofenceId + ", deviceId=" + deviceId
+				+ ", locationStatus=" + locationStatus + ", timestamp=" + timestamp + "]";
+	}
+
+}
@@ -0,0 +1,95 @@
+package monitoring.beans;
+
+import java.io.Serializable;
+
+import io.swagger.annotations.ApiModelProperty;
+
+public class MonitoringRequest implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@ApiModelProperty(notes = "Id of monitored device (use 'demo' to see test result)", required = true)
+	private String deviceId;
+	@ApiModelProperty(notes = "Unix timestamp in milliseconds of upcoming appointment (Note: GMT time zone required!)", required = true)
+	private long timestamp;
+	@ApiModelProperty(notes = "Latitude of upcoming appointment", required = true)
+	private double latitude;
+	@ApiModelProperty(notes = "Longitude of upcoming appointment", required = true)
+	private double longitude;
+	@ApiModelProperty(notes = "Known current delay in minutes", required = false)
+	private int delay;
+	@ApiModelProperty(notes = "Travel mode of the device for estimates without routing service: car, bike or foot", required = false)
+	private TravelMode mode;
+
+	public MonitoringRequest() {
+
+	}
+
+	public MonitoringRequest(
+			String deviceId,
+			long timestamp,
+			double latitude,
+			double longitude,
+			int delay) {
+		this.deviceId = deviceId;
+		this.timestamp = timestamp;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.delay = delay;
+	}
+
+	public String getDeviceId() {
+		return deviceId;
+	}
+
+	public void setDeviceId(String deviceId) {
+		this.deviceId = deviceId;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public void setLatitude(double latitude) {
+		this.latitude = latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	public void setLongitude(double longitude) {
+		this.longitude = longitude;
+	}
+
+	public int getDelay() {
+		return delay;
+	}
+
+	public void setDelay(int delay) {
+		this.delay = delay;
+	}
+
+	public TravelMode getMode() {
+		return mode;
+	}
+
+	public void setMode(TravelMode mode) {
+		this.mode = mode;
+	}
+
+	@Override
+	public String toString() {
+		return "MonitoringRequest [deviceId=" + deviceId + ", timestamp=" + timestamp
+				+ ", latitude=" + latitude + ", longitude=" + longitude + ", delay=" + delay + ", mode=" + mode + "]";
+	}
+
+}
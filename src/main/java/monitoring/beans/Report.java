@@ -13,11 +13,10 @@ public class Report implements Serializable {
 	
     @ApiModelProperty(notes = "The current position of the monitored device", required = true)
 	private GeoPoint position;
-    @Deprecated
-    @ApiModelProperty(notes = "The planned route for the entire day. Worked only in conjuction with calendar service (deprecated)", dataType = "[Ljava.lang.Double;", required = false)
+    @ApiModelProperty(notes = "Route along all remaining appointments of the day, only in tour reports", dataType = "[Ljava.lang.Double;", required = false)
 	private List<Double[]> routeTotal;
     @ApiModelProperty(notes = "Route to given location (appointment)", dataType = "[Ljava.lang.Double;", required = true)
-	private List<Double[]> routeNext;
+	private RouteGeometry routeNext;
     @ApiModelProperty(notes = "Consists of two values: A text classifier and a date (more details below)", required = true)
 	private WorkingStatus workingStatus;
     @ApiModelProperty(notes = "If delay is bigger than 5min, monitored device is classified as delayed", required = true)
@@ -26,9 +25,10 @@ public class Report implements Serializable {
 	private Date expectedTimeOfArrival;
     @ApiModelProperty(notes = "Calculated delay in minutes + delay by user input", required = true)
 	private int delayInMin;
-    @Deprecated
-    @ApiModelProperty(notes = "Similar to 'since' attribute in working status (deprecated)", required = false)
+    @ApiModelProperty(notes = "Minutes at the appointment location, based on the 'since' attribute in working status", required = false)
 	private int minAtAppointment;
+    @ApiModelProperty(notes = "Expected arrival and delay at every remaining appointment, only in tour reports", required = false)
+	private List<AppointmentReport> appointments;
     
 	public Report () {
 		
@@ -37,7 +37,7 @@ public class Report implements Serializable {
 	public Report(
 			GeoPoint position,
 			List<Double[]> routeTotal,
-			List<Double[]> routeNext,
+			RouteGeometry routeNext,
 			WorkingStatus workingStatus,
 			TimeStatus timeStatus,
 			Date expectedTimeOfArrival,
@@ -75,11 +75,11 @@ public class Report implements Serializable {
 		this.routeTotal = routeTotal;
 	}
 
-	public List<Double[]> getRouteNext() {
+	public RouteGeometry getRouteNext() {
 		return routeNext;
 	}
 
-	public void setRouteNext(List<Double[]> routeNext) {
+	public void setRouteNext(RouteGeometry routeNext) {
 		this.routeNext = routeNext;
 	}
 
@@ -123,6 +123,14 @@ public class Report implements Serializable {
 		this.minAtAppointment = minAtAppointment;
 	}
 
+	public List<AppointmentReport> getAppointments() {
+		return appointments;
+	}
+
+	public void setAppointments(List<AppointmentReport> appointments) {
+		this.appointments = appointments;
+	}
+
 	@Override
 	public String toString() {
 		return "Report [position=" + position + ", routeTotal=" + routeTotal
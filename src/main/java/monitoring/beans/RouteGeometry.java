@@ -0,0 +1,178 @@
+package monitoring.beans;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+
+/**
+ * Immutable list of route points backed by one array of interleaved
+ * latitudes and longitudes. Serialized as an array of [lat, lon] pairs,
+ * like the point list of the routing service.
+ */
+@JsonSerialize(using = RouteGeometrySerializer.class)
+public final class RouteGeometry implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final RouteGeometry EMPTY = new RouteGeometry(new double[0], 0, 0);
+
+	private final double[] coordinates;
+	private final int offset;
+	private final int size;
+
+	private RouteGeometry(double[] coordinates, int offset, int size) {
+		this.coordinates = coordinates;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	public static RouteGeometry empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * Takes over the array of interleaved latitudes and longitudes without copying.
+	 */
+	public static RouteGeometry of(double[] coordinates) {
+		if (coordinates.length % 2 != 0)
+			throw new IllegalArgumentException("Coordinates must contain pairs of latitude and longitude");
+		return new RouteGeometry(coordinates, 0, coordinates.length / 2);
+	}
+
+	/**
+	 * Joins the stages of a route. The first point of a stage is left out,
+	 * as it equals the last point of the stage before.
+	 */
+	public static RouteGeometry concat(List<RouteGeometry> stages) {
+		int size = 0;
+		for (RouteGeometry stage : stages)
+			size += size == 0 ? stage.size : Math.max(stage.size - 1, 0);
+		if (size == 0)
+			return EMPTY;
+
+		double[] coordinates = new double[size * 2];
+		int position = 0;
+		for (RouteGeometry stage : stages) {
+			int skip = position == 0 || stage.size == 0 ? 0 : 1;
+			int length = (stage.size - skip) * 2;
+			System.arraycopy(stage.coordinates, (stage.offset + skip) * 2, coordinates, position, length);
+			position += length;
+		}
+		return new RouteGeometry(coordinates, 0, size);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	public double getLatitude(int index) {
+		return coordinates[checkIndex(index) * 2];
+	}
+
+	public double getLongitude(int index) {
+		return coordinates[checkIndex(index) * 2 + 1];
+	}
+
+	public GeoPoint getPoint(int index) {
+		return new GeoPoint(getLatitude(index), getLongitude(index));
+	}
+
+	/**
+	 * Points from the given index to the end, sharing the array of this route.
+	 */
+	public RouteGeometry subRoute(int fromIndex) {
+		if (fromIndex < 0 || fromIndex > size)
+			throw new IndexOutOfBoundsException("Index: " + fromIndex + ", Size: " + size);
+		return new RouteGeometry(coordinates, offset + fromIndex, size - fromIndex);
+	}
+
+	/**
+	 * Copy of the points as interleaved latitudes and longitudes.
+	 */
+	public double[] toArray() {
+		return Arrays.copyOfRange(coordinates, offset * 2, (offset + size) * 2);
+	}
+
+	private int checkIndex(int index) {
+		if (index < 0 || index >= size)
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		return offset + index;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof RouteGeometry))
+			return false;
+		RouteGeometry other = (RouteGeometry) obj;
+		if (size != other.size)
+			return false;
+		for (int index = 0; index < size * 2; index++) {
+			if (Double.compare(coordinates[offset * 2 + index], other.coordinates[other.offset * 2 + index]) != 0)
+				return false;
+		}
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+		int result = 1;
+		for (int index = offset * 2; index < (offset + size) * 2; index++) {
+			long bits = Double.doubleToLongBits(coordinates[index]);
+			result = 31 * result + (int) (bits ^ (bits >>> 32));
+		}
+		return result;
+	}
+
+	@Override
+	public String toString() {
+		return "RouteGeometry [points=" + size + "]";
+	}
+
+	/**
+	 * Collects points into a growing array, without boxing them.
+	 */
+	public static final class Builder {
+
+		private double[] coordinates;
+		private int size;
+
+		public Builder() {
+			this(64);
+		}
+
+		public Builder(int expectedPoints) {
+			this.coordinates = new double[Math.max(expectedPoints, 1) * 2];
+		}
+
+		public Builder add(double latitude, double longitude) {
+			if (size * 2 == coordinates.length)
+				coordinates = Arrays.copyOf(coordinates, coordinates.length * 2);
+			coordinates[size * 2] = latitude;
+			coordinates[size * 2 + 1] = longitude;
+			size++;
+			return this;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		public RouteGeometry build() {
+			if (size == 0)
+				return EMPTY;
+			// routes are kept in the cache, so larger gaps are trimmed
+			double[] points = coordinates.length - size * 2 > size / 2 ?
+					Arrays.copyOf(coordinates, size * 2) : coordinates;
+			return new RouteGeometry(points, 0, size);
+		}
+	}
+
+}
@@ -0,0 +1,32 @@
+package monitoring.beans;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+/**
+ * Writes the points of a route directly to the response, without creating
+ * an intermediate list of points.
+ */
+public class RouteGeometrySerializer extends JsonSerializer<RouteGeometry> {
+
+	@Override
+	public void serialize(RouteGeometry route, JsonGenerator generator, SerializerProvider provider) throws IOException {
+		generator.writeStartArray();
+		for (int index = 0; index < route.size(); index++) {
+			generator.writeStartArray();
+			generator.writeNumber(route.getLatitude(index));
+			generator.writeNumber(route.getLongitude(index));
+			generator.writeEndArray();
+		}
+		generator.writeEndArray();
+	}
+
+	@Override
+	public boolean isEmpty(SerializerProvider provider, RouteGeometry route) {
+		return route == null || route.isEmpty();
+	}
+
+}
@@ -0,0 +1,66 @@
+package monitoring.beans;
+
+import java.io.Serializable;
+
+public class RouteResult implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private RouteGeometry pointList;
+	private int timeInMs;
+	private double distance;
+	// estimated without the routing service
+	private boolean degraded;
+
+	public RouteResult() {
+		this.pointList = RouteGeometry.empty();
+	}
+
+	public RouteResult(
+			RouteGeometry pointList,
+			int timeInMs,
+			double distance) {
+		this.pointList = pointList;
+		this.timeInMs = timeInMs;
+		this.distance = distance;
+	}
+
+	public RouteGeometry getPointList() {
+		return pointList;
+	}
+
+	public void setPointList(RouteGeometry pointList) {
+		this.pointList = pointList;
+	}
+
+	public int getTimeInMs() {
+		return timeInMs;
+	}
+
+	public void setTimeInMs(int timeInMs) {
+		this.timeInMs = timeInMs;
+	}
+
+	public double getDistance() {
+		return distance;
+	}
+
+	public void setDistance(double distance) {
+		this.distance = distance;
+	}
+
+	public boolean isDegraded() {
+		return degraded;
+	}
+
+	public void setDegraded(boolean degraded) {
+		this.degraded = degraded;
+	}
+
+	@Override
+	public String toString() {
+		return "RouteResult [points=" + pointList.size() + ", timeInMs=" + timeInMs
+				+ ", distance=" + distance + ", degraded=" + degraded + "]";
+	}
+
+}
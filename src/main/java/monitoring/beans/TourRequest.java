@@ -0,0 +1,72 @@
+package monitoring.beans;
+
+import java.io.Serializable;
+import java.util.List;
+
+import io.swagger.annotations.ApiModelProperty;
+
+public class TourRequest implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@ApiModelProperty(notes = "Id of monitored device (use 'demo' to see test result)", required = true)
+	private String deviceId;
+	@ApiModelProperty(notes = "Remaining appointments of the day in the order they are visited", required = true)
+	private List<Appointment> appointments;
+	@ApiModelProperty(notes = "Known current delay in minutes", required = false)
+	private int delay;
+	@ApiModelProperty(notes = "Travel mode of the device for estimates without routing service: car, bike or foot", required = false)
+	private TravelMode mode;
+
+	public TourRequest() {
+
+	}
+
+	public TourRequest(
+			String deviceId,
+			List<Appointment> appointments,
+			int delay) {
+		this.deviceId = deviceId;
+		this.appointments = appointments;
+		this.delay = delay;
+	}
+
+	public String getDeviceId() {
+		return deviceId;
+	}
+
+	public void setDeviceId(String deviceId) {
+		this.deviceId = deviceId;
+	}
+
+	public List<Appointment> getAppointments() {
+		return appointments;
+	}
+
+	public void setAppointments(List<Appointment> appointments) {
+		this.appointments = appointments;
+	}
+
+	public int getDelay() {
+		return delay;
+	}
+
+	public void setDelay(int delay) {
+		this.delay = delay;
+	}
+
+	public TravelMode getMode() {
+		return mode;
+	}
+
+	public void setMode(TravelMode mode) {
+		this.mode = mode;
+	}
+
+	@Override
+	public String toString() {
+		return "TourRequest [deviceId=" + deviceId + ", appointments=" + appointments
+				+ ", delay=" + delay + ", mode=" + mode + "]";
+	}
+
+}
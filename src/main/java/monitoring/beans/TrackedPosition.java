@@ -0,0 +1,108 @@
+package monitoring.beans;
+
+import java.io.Serializable;
+
+import io.swagger.annotations.ApiModelProperty;
+
+public class TrackedPosition implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	@ApiModelProperty(notes = "Id of tracked device", required = true)
+	private String deviceId;
+	@ApiModelProperty(notes = "Latitude coordinate in WGS84", required = true)
+	private double latitude;
+	@ApiModelProperty(notes = "Longitude coordinate in WGS84", required = true)
+	private double longitude;
+	@ApiModelProperty(notes = "Unix timestamp in milliseconds of the position fix", required = true)
+	private long timestamp;
+	@ApiModelProperty(notes = "Horizontal accuracy of the fix in meters, 0 if unknown", required = false)
+	private double accuracy;
+	@ApiModelProperty(notes = "Speed in m/s measured by the device, 0 if unknown", required = false)
+	private double speed;
+	@ApiModelProperty(notes = "Bearing in degrees clockwise from north measured by the device", required = false)
+	private double bearing;
+
+	public TrackedPosition() {
+
+	}
+
+	public TrackedPosition(
+			String deviceId,
+			double latitude,
+			double longitude,
+			long timestamp) {
+		this.deviceId = deviceId;
+		this.latitude = latitude;
+		this.longitude = longitude;
+		this.timestamp = timestamp;
+	}
+
+	public GeoPoint toGeoPoint() {
+		return new GeoPoint(latitude, longitude);
+	}
+
+	public String getDeviceId() {
+		return deviceId;
+	}
+
+	public void setDeviceId(String deviceId) {
+		this.deviceId = deviceId;
+	}
+
+	public double getLatitude() {
+		return latitude;
+	}
+
+	public void setLatitude(double latitude) {
+		this.latitude = latitude;
+	}
+
+	public double getLongitude() {
+		return longitude;
+	}
+
+	public void setLongitude(double longitude) {
+		this.longitude = longitude;
+	}
+
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	public void setTimestamp(long timestamp) {
+		this.timestamp = timestamp;
+	}
+
+	public double getAccuracy() {
+		return accuracy;
+	}
+
+	public void setAccuracy(double accuracy) {
+		this.accuracy = accuracy;
+	}
+
+	public double getSpeed() {
+		return speed;
+	}
+
+	public void setSpeed(double speed) {
+		this.speed = speed;
+	}
+
+	public double getBearing() {
+		return bearing;
+	}
+
+	public void setBearing(double bearing) {
+		this.bearing = bearing;
+	}
+
+	@Override
+	public String toString() {
+		return "TrackedPosition [deviceId=" + deviceId + ", latitude=" + latitude
+				+ ", longitude=" + longitude + ", timestamp=" + timestamp + ", accuracy=" + accuracy
+				+ ", speed=" + speed + ", bearing=" + bearing + "]";
+	}
+
+}
@@ -0,0 +1,17 @@
+package monitoring.beans;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+
+/**
+ * How a device travels, selects the speed of estimates without routing service.
+ */
+public enum TravelMode {
+	CAR,
+	BIKE,
+	FOOT;
+	
+	@JsonCreator
+	public static TravelMode fromString(String mode) {
+		return mode == null ? null : valueOf(mode.trim().toUpperCase());
+	}
+}
@@ -10,8 +10,7 @@ public class WorkingStatus implements Serializable {
 	private static final long serialVersionUID = 1L;
 	@ApiModelProperty(notes="Current status of monitored device - either at destination or on the way", required = true)
 	private LocationStatus locStat;
-	@Deprecated
-	@ApiModelProperty(notes="Date since when the status has not been changed (deprecated)", required = false)
+	@ApiModelProperty(notes="Date since when the status has not been changed, as observed by the monitoring service", required = false)
 	private Date since;
 	
 	public WorkingStatus() {
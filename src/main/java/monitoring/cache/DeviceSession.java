@@ -0,0 +1,141 @@
+package monitoring.cache;
+
+import java.util.Date;
+
+import monitoring.beans.GeoPoint;
+import monitoring.beans.RouteResult;
+import monitoring.beans.WorkingStatus.LocationStatus;
+import monitoring.utility.DistanceCalculator;
+import monitoring.utility.GeoPointBatch;
+
+/**
+ * State of one device between two reports: the last route to its appointment,
+ * where the device was matched on it, the last ETA and since when the location
+ * status is unchanged.
+ */
+class DeviceSession {
+	
+	private GeoPoint appointment;
+	private RouteResult route;
+	private long routeReceivedAt;
+	// distance along the route up to every point in meters
+	private double[] routeDistances;
+	// route points for the distances to all of them at once, with a buffer for the distances
+	private GeoPointBatch routePoints;
+	private double[] pointDistances;
+	private int lastSegment;
+	
+	private LocationStatus locationStatus;
+	private long statusSince;
+	private Date expectedTimeOfArrival;
+	
+	/**
+	 * The part of the last route still ahead of the device, with travel time and
+	 * distance reduced to the remaining fraction. Null if there is no route to
+	 * the appointment, it has expired or the device has left the corridor.
+	 * The corridor is widened by the accuracy of the position.
+	 */
+	synchronized RouteResult getRemainingRoute(GeoPoint position, GeoPoint appointment, long now,
+			double corridorMeters, double accuracy, long routeTtlMs) {
+		
+		if (route == null || now - routeReceivedAt >= routeTtlMs
+				|| DistanceCalculator.getDistance(this.appointment, appointment) > corridorMeters)
+			return null;
+		
+		// devices move forward along the route, so search from the last match first
+		int segment = findSegment(position, lastSegment, corridorMeters + accuracy);
+		if (segment < 0 && lastSegment > 0)
+			segment = findSegment(position, 0, corridorMeters + accuracy);
+		if (segment < 0)
+			return null;
+		lastSegment = segment;
+		
+		double totalDistance = routeDistances[routeDistances.length - 1];
+		double travelled = routeDistances[segment]
+				+ projectOnSegment(position, segment) * (routeDistances[segment + 1] - routeDistances[segment]);
+		double remaining = totalDistance > 0 ? Math.max(0, 1 - travelled / totalDistance) : 0;
+		
+		return new RouteResult(route.getPointList().subRoute(segment + 1),
+				(int) Math.round(route.getTimeInMs() * remaining), route.getDistance() * remaining);
+	}
+	
+	synchronized void setRoute(GeoPoint appointment, RouteResult route, long now) {
+		this.appointment = appointment;
+		this.route = route;
+		this.routeReceivedAt = now;
+		this.lastSegment = 0;
+		
+		this.routeDistances = DistanceCalculator.getCumulativeDistances(route.getPointList());
+		this.routePoints = GeoPointBatch.of(route.getPointList());
+		this.pointDistances = new double[routePoints.size()];
+	}
+	
+	/**
+	 * Returns the time in milliseconds since when the status is unchanged.
+	 */
+	synchronized long updateLocationStatus(LocationStatus locationStatus, long now) {
+		if (this.locationStatus != locationStatus) {
+			this.locationStatus = locationStatus;
+			this.statusSince = now;
+		}
+		return statusSince;
+	}
+	
+	synchronized LocationStatus getLocationStatus() {
+		return locationStatus;
+	}
+	
+	synchronized Date getExpectedTimeOfArrival() {
+		return expectedTimeOfArrival;
+	}
+	
+	synchronized void setExpectedTimeOfArrival(Date expectedTimeOfArrival) {
+		this.expectedTimeOfArrival = expectedTimeOfArrival;
+	}
+	
+	/**
+	 * Nearest segment within the corridor, starting at the given segment. -1 if none.
+	 */
+	private int findSegment(GeoPoint position, int fromSegment, double corridorMeters) {
+		// the distances to all points in one pass rule out most segments without projecting on them
+		routePoints.getDistances(position.getLatitude(), position.getLongitude(), pointDistances);
+		
+		int nearest = -1;
+		double nearestDistance = corridorMeters;
+		for (int segment = fromSegment; segment < routeDistances.length - 1; segment++) {
+			// no point of the segment is closer than this
+			double length = routeDistances[segment + 1] - routeDistances[segment];
+			if ((pointDistances[segment] + pointDistances[segment + 1] - length) / 2 > nearestDistance)
+				continue;
+			
+			double t = projectOnSegment(position, segment);
+			double latitude = route.getPointList().getLatitude(segment)
+					+ t * (route.getPointList().getLatitude(segment + 1) - route.getPointList().getLatitude(segment));
+			double longitude = route.getPointList().getLongitude(segment)
+					+ t * (route.getPointList().getLongitude(segment + 1) - route.getPointList().getLongitude(segment));
+			double distance = DistanceCalculator.getDistance(position.getLatitude(), position.getLongitude(), latitude, longitude);
+			if (distance <= nearestDistance) {
+				nearestDistance = distance;
+				nearest = segment;
+			}
+		}
+		return nearest;
+	}
+	
+	/**
+	 * Position of the projected point on the segment between 0 (start) and 1 (end).
+	 */
+	private double projectOnSegment(GeoPoint position, int segment) {
+		double lonScale = Math.cos(Math.toRadians(position.getLatitude()));
+		double startX = route.getPointList().getLongitude(segment) * lonScale;
+		double startY = route.getPointList().getLatitude(segment);
+		double dx = route.getPointList().getLongitude(segment + 1) * lonScale - startX;
+		double dy = route.getPointList().getLatitude(segment + 1) - startY;
+		double lengthSquared = dx * dx + dy * dy;
+		if (lengthSquared == 0)
+			return 0;
+		double t = ((position.getLongitude() * lonScale - startX) * dx + (position.getLatitude() - startY) * dy) / lengthSquared;
+		return Math.max(0, Math.min(1, t));
+	}
+	
+}
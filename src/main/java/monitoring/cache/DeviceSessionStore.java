@@ -0,0 +1,130 @@
+package monitoring.cache;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+
+import monitoring.beans.GeoPoint;
+import monitoring.beans.RouteResult;
+import monitoring.beans.WorkingStatus.LocationStatus;
+
+/**
+ * Sessions of monitored devices. A new position is projected onto the last
+ * route of the device, so the routing service is only asked again if the
+ * device leaves the corridor around the route or the route has expired.
+ * Sessions of devices without reports are dropped after the idle time.
+ */
+@Component
+public class DeviceSessionStore {
+	
+	// inaccurate positions widen the corridor by up to this many times its width
+	private static final double MAX_ACCURACY_CORRIDORS = 3;
+	
+	private final double corridorMeters;
+	private final long routeTtlMs;
+	private final LoadingCache<String, DeviceSession> sessions;
+	
+	private final AtomicLong reusedRoutes = new AtomicLong();
+	private final AtomicLong requestedRoutes = new AtomicLong();
+	
+	@Autowired
+	public DeviceSessionStore(
+			@Value("${monitoring.session.corridor:50}") double corridorMeters,
+			@Value("${monitoring.session.routettl:300}") long routeTtlSeconds,
+			@Value("${monitoring.session.idle:3600}") long idleSeconds) {
+		this.corridorMeters = corridorMeters;
+		this.routeTtlMs = TimeUnit.SECONDS.toMillis(routeTtlSeconds);
+		this.sessions = CacheBuilder.newBuilder()
+				.expireAfterAccess(idleSeconds, TimeUnit.SECONDS)
+				.build(new CacheLoader<String, DeviceSession>() {
+					@Override
+					public DeviceSession load(String deviceId) {
+						return new DeviceSession();
+					}
+				});
+	}
+	
+	/**
+	 * Remaining part of the last route of the device, null if a new route is needed.
+	 */
+	public RouteResult getRemainingRoute(String deviceId, GeoPoint position, GeoPoint appointment) {
+		return getRemainingRoute(deviceId, position, appointment, 0);
+	}
+	
+	/**
+	 * Remaining part of the last route of the device, null if a new route is
+	 * needed. A position off the route by no more than its accuracy keeps the
+	 * route, so GPS jitter does not cause a new route.
+	 */
+	public RouteResult getRemainingRoute(String deviceId, GeoPoint position, GeoPoint appointment, double accuracy) {
+		RouteResult remaining = sessions.getUnchecked(deviceId).getRemainingRoute(position, appointment,
+				System.currentTimeMillis(), corridorMeters, Math.min(accuracy, MAX_ACCURACY_CORRIDORS * corridorMeters), routeTtlMs);
+		(remaining != null ? reusedRoutes : requestedRoutes).incrementAndGet();
+		return remaining;
+	}
+	
+	/**
+	 * Remaining part of the last route of the device even if it has expired,
+	 * null if the device has left the corridor.
+	 */
+	public RouteResult getStaleRoute(String deviceId, GeoPoint position, GeoPoint appointment) {
+		DeviceSession session = sessions.getIfPresent(deviceId);
+		return session == null ? null : session.getRemainingRoute(
+				position, appointment, System.currentTimeMillis(), corridorMeters, 0, Long.MAX_VALUE);
+	}
+	
+	public void setRoute(String deviceId, GeoPoint appointment, RouteResult route) {
+		sessions.getUnchecked(deviceId).setRoute(appointment, route, System.currentTimeMillis());
+	}
+	
+	/**
+	 * Returns the date since when the device has the given location status.
+	 */
+	public Date updateLocationStatus(String deviceId, LocationStatus locationStatus) {
+		return new Date(sessions.getUnchecked(deviceId).updateLocationStatus(locationStatus, System.currentTimeMillis()));
+	}
+	
+	/**
+	 * Last location status of the device, null if there is none.
+	 */
+	public LocationStatus getLocationStatus(String deviceId) {
+		DeviceSession session = sessions.getIfPresent(deviceId);
+		return session == null ? null : session.getLocationStatus();
+	}
+	
+	public Date getExpectedTimeOfArrival(String deviceId) {
+		DeviceSession session = sessions.getIfPresent(deviceId);
+		return session == null ? null : session.getExpectedTimeOfArrival();
+	}
+	
+	public void setExpectedTimeOfArrival(String deviceId, Date expectedTimeOfArrival) {
+		sessions.getUnchecked(deviceId).setExpectedTimeOfArrival(expectedTimeOfArrival);
+	}
+	
+	public long size() {
+		return sessions.size();
+	}
+	
+	/**
+	 * Reports served from the route of the session since start.
+	 */
+	public long getReusedRouteCount() {
+		return reusedRoutes.get();
+	}
+	
+	/**
+	 * Reports that needed a new route since start.
+	 */
+	public long getRequestedRouteCount() {
+		return requestedRoutes.get();
+	}
+	
+}
@@ -0,0 +1,51 @@
+package monitoring.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Memory-mapped files of the persistent caches. Coordinates are stored as
+ * fixed-point integers of 1e-7 degrees, about one centimeter, also in the
+ * compact arrays on the heap.
+ */
+final class MappedFiles {
+
+	private static final double FIXED_POINT_SCALE = 1e7;
+
+	private MappedFiles() {
+
+	}
+
+	/**
+	 * Maps the whole file. A file with another magic number or size is cleared,
+	 * so changed record formats or sizes start empty. Pages are only read when
+	 * they are accessed.
+	 */
+	static MappedByteBuffer map(File file, int magic, int size) throws IOException {
+		try (RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+				FileChannel channel = randomAccessFile.getChannel()) {
+			boolean valid = randomAccessFile.length() == size && randomAccessFile.readInt() == magic;
+			if (!valid) {
+				randomAccessFile.setLength(0);
+				randomAccessFile.setLength(size);
+			}
+			// the mapping stays valid after the channel is closed
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+			if (!valid)
+				buffer.putInt(0, magic);
+			return buffer;
+		}
+	}
+
+	static int toFixedPoint(double degrees) {
+		return (int) Math.round(degrees * FIXED_POINT_SCALE);
+	}
+
+	static double fromFixedPoint(int value) {
+		return value / FIXED_POINT_SCALE;
+	}
+
+}
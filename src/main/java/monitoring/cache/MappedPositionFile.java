@@ -0,0 +1,166 @@
+package monitoring.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import monitoring.beans.TrackedPosition;
+
+/**
+ * Last known positions in a memory-mapped file, so they survive restarts
+ * without being held on the heap. Every device has a fixed-size slot in an
+ * open addressing table. When all slots probed for a device are taken, the
+ * one received longest ago is replaced.
+ */
+public final class MappedPositionFile {
+
+	// version 2 of the format
+	private static final int MAGIC = 0x50534632;
+
+	private static final int HEADER_SIZE = 8;
+	// hash, id length, id, accuracy, speed, bearing, fixed-point coordinates, timestamp of the fix and time received
+	private static final int SLOT_SIZE = 128;
+	private static final int MAX_ID_LENGTH = 82;
+	private static final int ID = 6;
+	private static final int ACCURACY = 88;
+	private static final int SPEED = 92;
+	private static final int BEARING = 96;
+	private static final int LATITUDE = 100;
+	private static final int LONGITUDE = 104;
+	private static final int TIMESTAMP = 108;
+	private static final int RECEIVED_AT = 116;
+	private static final int MAX_PROBES = 8;
+
+	private final MappedByteBuffer buffer;
+	private final int slotCount;
+
+	private MappedPositionFile(MappedByteBuffer buffer, int slotCount) {
+		this.buffer = buffer;
+		this.slotCount = slotCount;
+	}
+
+	/**
+	 * Opens or creates the file with one slot per device.
+	 */
+	public static MappedPositionFile open(File file, int slotCount) throws IOException {
+		if (slotCount < 1 || slotCount > (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE)
+			throw new IllegalArgumentException("Position file size must be between 1 and "
+					+ (Integer.MAX_VALUE - HEADER_SIZE) / SLOT_SIZE + " devices");
+		return new MappedPositionFile(MappedFiles.map(file, MAGIC, HEADER_SIZE + slotCount * SLOT_SIZE), slotCount);
+	}
+
+	/**
+	 * Returns the stored position of the device, null if there is none.
+	 */
+	public synchronized Record get(String deviceId) {
+		byte[] id = deviceId.getBytes(StandardCharsets.UTF_8);
+		int hash = getHash(id);
+		for (int probe = 0; probe < MAX_PROBES; probe++) {
+			int slot = getSlotOffset(hash, probe);
+			if (buffer.getInt(slot) == 0)
+				return null;
+			if (isDevice(slot, hash, id)) {
+				TrackedPosition position = new TrackedPosition(deviceId,
+						MappedFiles.fromFixedPoint(buffer.getInt(slot + LATITUDE)),
+						MappedFiles.fromFixedPoint(buffer.getInt(slot + LONGITUDE)),
+						buffer.getLong(slot + TIMESTAMP));
+				position.setAccuracy(buffer.getFloat(slot + ACCURACY));
+				position.setSpeed(buffer.getFloat(slot + SPEED));
+				position.setBearing(buffer.getFloat(slot + BEARING));
+				return new Record(position, buffer.getLong(slot + RECEIVED_AT));
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Stores the position of the device. Devices with ids longer than 82
+	 * bytes are not stored.
+	 */
+	public synchronized void put(TrackedPosition position, long receivedAt) {
+		byte[] id = position.getDeviceId().getBytes(StandardCharsets.UTF_8);
+		if (id.length > MAX_ID_LENGTH)
+			return;
+
+		int hash = getHash(id);
+		int target = -1;
+		for (int probe = 0; probe < MAX_PROBES; probe++) {
+			int slot = getSlotOffset(hash, probe);
+			if (buffer.getInt(slot) == 0 || isDevice(slot, hash, id)) {
+				target = slot;
+				break;
+			}
+			if (target < 0 || buffer.getLong(slot + RECEIVED_AT) < buffer.getLong(target + RECEIVED_AT))
+				target = slot;
+		}
+
+		buffer.putInt(target, hash);
+		buffer.putShort(target + 4, (short) id.length);
+		for (int i = 0; i < id.length; i++)
+			buffer.put(target + ID + i, id[i]);
+		buffer.putFloat(target + ACCURACY, (float) position.getAccuracy());
+		buffer.putFloat(target + SPEED, (float) position.getSpeed());
+		buffer.putFloat(target + BEARING, (float) position.getBearing());
+		buffer.putInt(target + LATITUDE, MappedFiles.toFixedPoint(position.getLatitude()));
+		buffer.putInt(target + LONGITUDE, MappedFiles.toFixedPoint(position.getLongitude()));
+		buffer.putLong(target + TIMESTAMP, position.getTimestamp());
+		buffer.putLong(target + RECEIVED_AT, receivedAt);
+	}
+
+	/**
+	 * Writes the changed pages to disk. Without it they are written by the
+	 * operating system, also if the process dies.
+	 */
+	public synchronized void flush() {
+		buffer.force();
+	}
+
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	private static int getHash(byte[] id) {
+		// 0 marks empty slots
+		return Arrays.hashCode(id) | 1;
+	}
+
+	private int getSlotOffset(int hash, int probe) {
+		int spread = hash ^ (hash >>> 16);
+		return HEADER_SIZE + ((spread & Integer.MAX_VALUE) % slotCount + probe) % slotCount * SLOT_SIZE;
+	}
+
+	private boolean isDevice(int slot, int hash, byte[] id) {
+		if (buffer.getInt(slot) != hash || buffer.getShort(slot + 4) != id.length)
+			return false;
+		for (int i = 0; i < id.length; i++) {
+			if (buffer.get(slot + ID + i) != id[i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Position with the time it has been received.
+	 */
+	public static final class Record {
+
+		private final TrackedPosition position;
+		private final long receivedAt;
+
+		private Record(TrackedPosition position, long receivedAt) {
+			this.position = position;
+			this.receivedAt = receivedAt;
+		}
+
+		public TrackedPosition getPosition() {
+			return position;
+		}
+
+		public long getReceivedAt() {
+			return receivedAt;
+		}
+	}
+
+}
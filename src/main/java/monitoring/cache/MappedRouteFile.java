@@ -0,0 +1,152 @@
+package monitoring.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+
+import monitoring.beans.RouteGeometry;
+import monitoring.beans.RouteResult;
+import monitoring.cache.RouteCache.RouteKey;
+
+/**
+ * Routes in a memory-mapped file, so they survive restarts without being
+ * held on the heap. The file holds a direct-mapped index of route keys and
+ * a ring of route records. New records overwrite the oldest ones, an index
+ * slot is overwritten by the next route with the same slot.
+ * <p>
+ * Records are addressed by their position in the stream of all records
+ * written. A record is valid as long as the ring has not moved past it.
+ */
+public final class MappedRouteFile {
+
+	// version 1 of the format
+	private static final int MAGIC = 0x52544631;
+
+	private static final int HEADER_SIZE = 16;
+	private static final int WRITE_POSITION = 8;
+	// route key and position + 1 of the record, 0 for empty slots
+	private static final int SLOT_SIZE = 24;
+	// route key, written at, time, point count and distance, then the fixed-point coordinates
+	private static final int RECORD_HEADER_SIZE = 40;
+
+	private final MappedByteBuffer buffer;
+	private final int slotCount;
+	private final int dataOffset;
+	private final long dataSize;
+	private long writePosition;
+
+	private MappedRouteFile(MappedByteBuffer buffer, int slotCount) {
+		this.buffer = buffer;
+		this.slotCount = slotCount;
+		this.dataOffset = HEADER_SIZE + slotCount * SLOT_SIZE;
+		this.dataSize = buffer.capacity() - dataOffset;
+		this.writePosition = buffer.getLong(WRITE_POSITION);
+	}
+
+	/**
+	 * Opens or creates the file with the size, one index slot per kilobyte.
+	 */
+	public static MappedRouteFile open(File file, int megabytes) throws IOException {
+		if (megabytes < 1 || megabytes > 2047)
+			throw new IllegalArgumentException("Route file size must be between 1 and 2047 MB");
+		int slotCount = megabytes * 1024;
+		return new MappedRouteFile(MappedFiles.map(file, MAGIC, megabytes << 20), slotCount);
+	}
+
+	/**
+	 * Returns the stored route if it has been written at or after the time,
+	 * null otherwise.
+	 */
+	public synchronized RouteResult get(RouteKey key, long writtenAfter) {
+		int slot = getSlotOffset(key);
+		long position = buffer.getLong(slot + 16) - 1;
+		if (position < 0 || position < writePosition - dataSize || !isKey(slot, key))
+			return null;
+
+		int record = getRecordOffset(position);
+		if (!isKey(record, key) || buffer.getLong(record + 16) < writtenAfter)
+			return null;
+
+		int timeInMs = buffer.getInt(record + 24);
+		int pointCount = buffer.getInt(record + 28);
+		double distance = buffer.getDouble(record + 32);
+		double[] coordinates = new double[pointCount * 2];
+		int offset = record + RECORD_HEADER_SIZE;
+		for (int i = 0; i < coordinates.length; i++, offset += 4)
+			coordinates[i] = MappedFiles.fromFixedPoint(buffer.getInt(offset));
+		return new RouteResult(RouteGeometry.of(coordinates), timeInMs, distance);
+	}
+
+	/**
+	 * Appends the route and points the index slot of the key to it. Routes
+	 * larger than the file are not stored.
+	 */
+	public synchronized void put(RouteKey key, RouteResult route, long writtenAt) {
+		int pointCount = route.getPointList().size();
+		// records start at multiples of 8 bytes
+		long length = (RECORD_HEADER_SIZE + pointCount * 8L + 7) & ~7L;
+		if (length > dataSize)
+			return;
+
+		long position = writePosition;
+		if (position % dataSize + length > dataSize)
+			position += dataSize - position % dataSize;
+		writePosition = position + length;
+		buffer.putLong(WRITE_POSITION, writePosition);
+
+		int record = getRecordOffset(position);
+		putKey(record, key);
+		buffer.putLong(record + 16, writtenAt);
+		buffer.putInt(record + 24, route.getTimeInMs());
+		buffer.putInt(record + 28, pointCount);
+		buffer.putDouble(record + 32, route.getDistance());
+		int offset = record + RECORD_HEADER_SIZE;
+		for (int i = 0; i < pointCount; i++, offset += 8) {
+			buffer.putInt(offset, MappedFiles.toFixedPoint(route.getPointList().getLatitude(i)));
+			buffer.putInt(offset + 4, MappedFiles.toFixedPoint(route.getPointList().getLongitude(i)));
+		}
+
+		int slot = getSlotOffset(key);
+		putKey(slot, key);
+		buffer.putLong(slot + 16, position + 1);
+	}
+
+	/**
+	 * Writes the changed pages to disk. Without it they are written by the
+	 * operating system, also if the process dies.
+	 */
+	public synchronized void flush() {
+		buffer.force();
+	}
+
+	public int getSlotCount() {
+		return slotCount;
+	}
+
+	public long getDataSize() {
+		return dataSize;
+	}
+
+	private int getSlotOffset(RouteKey key) {
+		int hash = key.hashCode();
+		hash ^= hash >>> 16;
+		return HEADER_SIZE + (hash & Integer.MAX_VALUE) % slotCount * SLOT_SIZE;
+	}
+
+	private int getRecordOffset(long position) {
+		return dataOffset + (int) (position % dataSize);
+	}
+
+	private boolean isKey(int offset, RouteKey key) {
+		return buffer.getInt(offset) == key.startLat && buffer.getInt(offset + 4) == key.startLon
+				&& buffer.getInt(offset + 8) == key.endLat && buffer.getInt(offset + 12) == key.endLon;
+	}
+
+	private void putKey(int offset, RouteKey key) {
+		buffer.putInt(offset, key.startLat);
+		buffer.putInt(offset + 4, key.startLon);
+		buffer.putInt(offset + 8, key.endLat);
+		buffer.putInt(offset + 12, key.endLon);
+	}
+
+}
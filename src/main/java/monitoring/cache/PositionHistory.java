@@ -0,0 +1,221 @@
+package monitoring.cache;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import monitoring.beans.TrackedPosition;
+import monitoring.utility.DistanceCalculator;
+
+/**
+ * Recent fixes of every device in a fixed-size ring of primitive arrays,
+ * from which smoothed speed and heading are derived. Moves within the
+ * accuracy of two fixes are taken as GPS jitter, so a device standing still
+ * with noisy fixes has no speed.
+ */
+@Component
+public class PositionHistory {
+
+	// the speed is derived from fixes covering at least this time
+	private static final long MIN_SPAN_MS = 10000;
+
+	private final int size;
+	private final long windowMs;
+	private final long idleMs;
+	private final ConcurrentHashMap<String, FixRing> rings = new ConcurrentHashMap<String, FixRing>();
+
+	@Autowired
+	public PositionHistory(
+			@Value("${tracking.history.size:16}") int size,
+			@Value("${tracking.history.window:120}") long windowSeconds,
+			@Value("${tracking.store.idle:600}") long idleSeconds) {
+		if (size < 2)
+			throw new IllegalArgumentException("Position history needs at least two fixes");
+		this.size = size;
+		this.windowMs = TimeUnit.SECONDS.toMillis(windowSeconds);
+		this.idleMs = TimeUnit.SECONDS.toMillis(idleSeconds);
+	}
+
+	/**
+	 * Adds the fix unless it is not newer than the last one of the device.
+	 */
+	public void add(TrackedPosition position) {
+		FixRing ring = rings.get(position.getDeviceId());
+		if (ring == null) {
+			FixRing created = new FixRing(size);
+			ring = rings.putIfAbsent(position.getDeviceId(), created);
+			if (ring == null)
+				ring = created;
+		}
+		ring.add(position, System.currentTimeMillis());
+	}
+
+	/**
+	 * Speed and heading over the fixes of the window, null if there are not
+	 * enough fixes and the last one has no measured speed.
+	 */
+	public Motion getMotion(String deviceId) {
+		FixRing ring = rings.get(deviceId);
+		return ring == null ? null : ring.getMotion(windowMs);
+	}
+
+	/**
+	 * Accuracy of the last fix of the device in meters, 0 if unknown.
+	 */
+	public double getAccuracy(String deviceId) {
+		FixRing ring = rings.get(deviceId);
+		return ring == null ? 0 : ring.getAccuracy();
+	}
+
+	/**
+	 * Devices without new fixes are dropped after the idle time.
+	 */
+	@Scheduled(fixedDelayString = "${tracking.store.refresh:10000}", initialDelayString = "${tracking.store.refresh:10000}")
+	public void removeIdleDevices() {
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<String, FixRing>> iterator = rings.entrySet().iterator();
+		while (iterator.hasNext()) {
+			if (now - iterator.next().getValue().addedAt > idleMs)
+				iterator.remove();
+		}
+	}
+
+	public int getDeviceCount() {
+		return rings.size();
+	}
+
+	/**
+	 * Smoothed movement of a device. The heading is NaN if the device has not
+	 * moved beyond the accuracy of its fixes.
+	 */
+	public static final class Motion {
+
+		private final double speed;
+		private final double heading;
+
+		private Motion(double speed, double heading) {
+			this.speed = speed;
+			this.heading = heading;
+		}
+
+		/**
+		 * Speed in m/s.
+		 */
+		public double getSpeed() {
+			return speed;
+		}
+
+		/**
+		 * Heading in degrees clockwise from north.
+		 */
+		public double getHeading() {
+			return heading;
+		}
+
+		@Override
+		public String toString() {
+			return "Motion [speed=" + speed + ", heading=" + heading + "]";
+		}
+	}
+
+	/**
+	 * Fixes of one device, coordinates as fixed-point integers.
+	 */
+	private static final class FixRing {
+
+		private final int[] latitudes;
+		private final int[] longitudes;
+		private final long[] timestamps;
+		private final float[] accuracies;
+		private final float[] speeds;
+		private final float[] bearings;
+		// index of the next fix and number of fixes
+		private int next;
+		private int count;
+		private volatile long addedAt;
+
+		private FixRing(int size) {
+			this.latitudes = new int[size];
+			this.longitudes = new int[size];
+			this.timestamps = new long[size];
+			this.accuracies = new float[size];
+			this.speeds = new float[size];
+			this.bearings = new float[size];
+		}
+
+		private synchronized void add(TrackedPosition position, long now) {
+			addedAt = now;
+			if (count > 0 && position.getTimestamp() <= timestamps[getIndex(0)])
+				return;
+
+			latitudes[next] = MappedFiles.toFixedPoint(position.getLatitude());
+			longitudes[next] = MappedFiles.toFixedPoint(position.getLongitude());
+			timestamps[next] = position.getTimestamp();
+			accuracies[next] = (float) Math.max(position.getAccuracy(), 0);
+			speeds[next] = (float) position.getSpeed();
+			bearings[next] = (float) position.getBearing();
+			next = (next + 1) % timestamps.length;
+			count = Math.min(count + 1, timestamps.length);
+		}
+
+		private synchronized double getAccuracy() {
+			return count == 0 ? 0 : accuracies[getIndex(0)];
+		}
+
+		private synchronized Motion getMotion(long windowMs) {
+			if (count == 0)
+				return null;
+
+			// oldest fix within the window
+			int newest = getIndex(0);
+			int fixes = 1;
+			while (fixes < count && timestamps[newest] - timestamps[getIndex(fixes)] <= windowMs)
+				fixes++;
+			int oldest = getIndex(fixes - 1);
+			long span = timestamps[newest] - timestamps[oldest];
+			if (span < MIN_SPAN_MS) {
+				if (speeds[newest] <= 0)
+					return null;
+				return new Motion(speeds[newest], bearings[newest]);
+			}
+
+			// moves are summed from fix to fix, skipping fixes within the accuracy of the last one taken
+			double cosLatitude = Math.cos(Math.toRadians(MappedFiles.fromFixedPoint(latitudes[newest])));
+			double distance = 0;
+			double east = 0;
+			double north = 0;
+			int from = oldest;
+			for (int age = fixes - 2; age >= 0; age--) {
+				int to = getIndex(age);
+				double lat1 = MappedFiles.fromFixedPoint(latitudes[from]);
+				double lon1 = MappedFiles.fromFixedPoint(longitudes[from]);
+				double lat2 = MappedFiles.fromFixedPoint(latitudes[to]);
+				double lon2 = MappedFiles.fromFixedPoint(longitudes[to]);
+				double move = DistanceCalculator.getDistance(lat1, lon1, lat2, lon2);
+				if (move <= accuracies[from] + accuracies[to])
+					continue;
+				distance += move;
+				east += (lon2 - lon1) * cosLatitude * DistanceCalculator.METERS_PER_DEGREE;
+				north += (lat2 - lat1) * DistanceCalculator.METERS_PER_DEGREE;
+				from = to;
+			}
+
+			double heading = distance > 0 ? (Math.toDegrees(Math.atan2(east, north)) + 360) % 360 : Double.NaN;
+			return new Motion(distance * 1000 / span, heading);
+		}
+
+		/**
+		 * Index of the fix with the age, 0 for the newest one.
+		 */
+		private int getIndex(int age) {
+			return (next - 1 - age + 2 * timestamps.length) % timestamps.length;
+		}
+	}
+
+}
@@ -0,0 +1,205 @@
+package monitoring.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Sets;
+
+import monitoring.beans.TrackedPosition;
+
+/**
+ * Last known position of every monitored device. Positions are pushed by
+ * clients or refreshed in bulk from the tracking service, so reports only
+ * query the tracking service for devices without a fresh entry.
+ * <p>
+ * With a persistence directory, positions are also written to a
+ * memory-mapped file. Devices unknown on the heap are looked up there, so a
+ * restarted service still knows where they have been.
+ */
+@Component
+public class PositionStore {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PositionStore.class);
+
+	// fixes older than this are not used, pushed or pulled
+	public static final long MAX_POSITION_AGE_MS = TimeUnit.HOURS.toMillis(12);
+	// fixes ahead of the clock by more than this are not used, they would replace all later ones
+	public static final long MAX_CLOCK_SKEW_MS = TimeUnit.MINUTES.toMillis(1);
+
+	private final long maxAgeMs;
+	private final long idleMs;
+	private final ConcurrentHashMap<String, Entry> positions = new ConcurrentHashMap<String, Entry>();
+	// null without persistence
+	private final MappedPositionFile positionFile;
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+	private final AtomicLong fileLoadCount = new AtomicLong();
+
+	public PositionStore(long maxAgeSeconds, long idleSeconds) {
+		this(maxAgeSeconds, idleSeconds, null);
+	}
+
+	@Autowired
+	public PositionStore(
+			@Value("${tracking.store.maxage:30}") long maxAgeSeconds,
+			@Value("${tracking.store.idle:600}") long idleSeconds,
+			@Value("${monitoring.persist.dir:}") String persistDir,
+			@Value("${tracking.store.filesize:100000}") int fileDevices) {
+		this(maxAgeSeconds, idleSeconds, openPositionFile(persistDir, fileDevices));
+	}
+
+	public PositionStore(long maxAgeSeconds, long idleSeconds, MappedPositionFile positionFile) {
+		this.maxAgeMs = TimeUnit.SECONDS.toMillis(maxAgeSeconds);
+		this.idleMs = TimeUnit.SECONDS.toMillis(idleSeconds);
+		this.positionFile = positionFile;
+	}
+
+	/**
+	 * Returns the position of the device if it has been received within the
+	 * max age, null otherwise.
+	 */
+	public TrackedPosition getIfFresh(String deviceId) {
+		long now = System.currentTimeMillis();
+		Entry entry = positions.get(deviceId);
+		if (entry == null) {
+			// remember the device, so the next bulk refresh includes it
+			entry = load(deviceId, now);
+			Entry previous = positions.putIfAbsent(deviceId, entry);
+			if (previous != null)
+				entry = previous;
+		}
+
+		entry.lastRequested = now;
+		if (entry.position == null || now - entry.receivedAt > maxAgeMs) {
+			missCount.incrementAndGet();
+			return null;
+		}
+		hitCount.incrementAndGet();
+		return entry.position;
+	}
+
+	/**
+	 * Stores the position unless a more recent one is known already. Fixes
+	 * older than 12 hours, like those dropped from the tracking service, or
+	 * from the future are ignored, false is returned for them.
+	 */
+	public boolean update(TrackedPosition position) {
+		long now = System.currentTimeMillis();
+		if (position.getTimestamp() < now - MAX_POSITION_AGE_MS || position.getTimestamp() > now + MAX_CLOCK_SKEW_MS)
+			return false;
+		while (true) {
+			Entry entry = positions.get(position.getDeviceId());
+			if (entry == null) {
+				if (positions.putIfAbsent(position.getDeviceId(), new Entry(position, now, now)) == null) {
+					store(position, now);
+					return true;
+				}
+			} else {
+				// an older fix only confirms the known position
+				TrackedPosition latest = entry.position == null
+						|| entry.position.getTimestamp() <= position.getTimestamp() ? position : entry.position;
+				if (positions.replace(position.getDeviceId(), entry, new Entry(latest, now, entry.lastRequested))) {
+					store(latest, now);
+					return true;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Devices requested within the idle time, others are dropped from the store.
+	 */
+	public Set<String> getActiveDevices() {
+		long now = System.currentTimeMillis();
+		Set<String> activeDevices = Sets.newHashSet();
+		Iterator<Map.Entry<String, Entry>> iterator = positions.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Map.Entry<String, Entry> entry = iterator.next();
+			if (now - entry.getValue().lastRequested > idleMs)
+				iterator.remove();
+			else
+				activeDevices.add(entry.getKey());
+		}
+		return activeDevices;
+	}
+
+	public int size() {
+		return positions.size();
+	}
+
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	/**
+	 * Positions loaded from the file since start.
+	 */
+	public long getFileLoadCount() {
+		return fileLoadCount.get();
+	}
+
+	@PreDestroy
+	public void flush() {
+		if (positionFile != null)
+			positionFile.flush();
+	}
+
+	private Entry load(String deviceId, long now) {
+		MappedPositionFile.Record stored = positionFile == null ? null : positionFile.get(deviceId);
+		if (stored == null)
+			return new Entry(null, 0, now);
+		fileLoadCount.incrementAndGet();
+		return new Entry(stored.getPosition(), stored.getReceivedAt(), now);
+	}
+
+	private void store(TrackedPosition position, long receivedAt) {
+		if (positionFile != null)
+			positionFile.put(position, receivedAt);
+	}
+
+	private static MappedPositionFile openPositionFile(String persistDir, int fileDevices) {
+		if (persistDir == null || persistDir.isEmpty())
+			return null;
+		File file = new File(persistDir, "positions.dat");
+		try {
+			file.getParentFile().mkdirs();
+			return MappedPositionFile.open(file, fileDevices);
+		} catch (IOException e) {
+			LOGGER.warn("Could not open position file {}, positions are only kept on the heap: {}", file, e.getMessage());
+			return null;
+		}
+	}
+
+	private static final class Entry {
+
+		private final TrackedPosition position;
+		private final long receivedAt;
+		private volatile long lastRequested;
+
+		private Entry(TrackedPosition position, long receivedAt, long lastRequested) {
+			this.position = position;
+			this.receivedAt = receivedAt;
+			this.lastRequested = lastRequested;
+		}
+	}
+
+}
@@ -0,0 +1,227 @@
+package monitoring.cache;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.cache.Weigher;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import monitoring.beans.GeoPoint;
+import monitoring.beans.RouteResult;
+import monitoring.exceptions.RoutingNotFoundException;
+import monitoring.utility.DistanceCalculator;
+
+/**
+ * Caches routing results for start and end points snapped to a grid, so that
+ * devices polling from nearly the same position share one route. Entries
+ * expire after a fixed time to keep travel times fresh and the cache is
+ * bounded by the total number of route points.
+ * <p>
+ * With a persistence directory, routes are also written to a memory-mapped
+ * file. Routes missing on the heap are looked up there first, so a restarted
+ * service finds the routes of its predecessor.
+ */
+@Component
+public class RouteCache {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RouteCache.class);
+
+	private final double gridDegrees;
+	private final long ttlMs;
+	private final Cache<RouteKey, RouteResult> cache;
+	// null without persistence
+	private final MappedRouteFile routeFile;
+	private final AtomicLong fileLoadCount = new AtomicLong();
+
+	public RouteCache(double gridMeters, long ttlSeconds, long maxPoints) {
+		this(gridMeters, ttlSeconds, maxPoints, null);
+	}
+
+	@Autowired
+	public RouteCache(
+			@Value("${routing.cache.grid:25}") double gridMeters,
+			@Value("${routing.cache.ttl:120}") long ttlSeconds,
+			@Value("${routing.cache.maxpoints:2000000}") long maxPoints,
+			@Value("${monitoring.persist.dir:}") String persistDir,
+			@Value("${routing.cache.filesize:256}") int fileMegabytes) {
+		this(gridMeters, ttlSeconds, maxPoints, openRouteFile(persistDir, fileMegabytes));
+	}
+
+	public RouteCache(double gridMeters, long ttlSeconds, long maxPoints, MappedRouteFile routeFile) {
+		this.gridDegrees = gridMeters / DistanceCalculator.METERS_PER_DEGREE;
+		this.ttlMs = TimeUnit.SECONDS.toMillis(ttlSeconds);
+		this.routeFile = routeFile;
+		this.cache = CacheBuilder.newBuilder()
+				.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+				.maximumWeight(maxPoints)
+				.weigher(new Weigher<RouteKey, RouteResult>() {
+					@Override
+					public int weigh(RouteKey key, RouteResult route) {
+						return route.getPointList().size() + 1;
+					}
+				})
+				.recordStats()
+				.build();
+	}
+
+	public RouteKey getKey(GeoPoint start, GeoPoint end) {
+		return new RouteKey(snapLatitude(start), snapLongitude(start), snapLatitude(end), snapLongitude(end));
+	}
+
+	/**
+	 * Returns the cached route or loads it. Concurrent loads of the same key
+	 * wait for the first one.
+	 */
+	public RouteResult get(final RouteKey key, final Callable<RouteResult> loader) throws RoutingNotFoundException {
+		try {
+			return cache.get(key, new Callable<RouteResult>() {
+				@Override
+				public RouteResult call() throws Exception {
+					RouteResult route = load(key);
+					if (route == null) {
+						route = loader.call();
+						store(key, route);
+					}
+					return route;
+				}
+			});
+		} catch (ExecutionException | UncheckedExecutionException e) {
+			if (e.getCause() instanceof RoutingNotFoundException)
+				throw (RoutingNotFoundException) e.getCause();
+			throw new RoutingNotFoundException("Could not load route", e.getCause());
+		}
+	}
+
+	public RouteResult getIfPresent(RouteKey key) {
+		RouteResult route = cache.getIfPresent(key);
+		if (route == null) {
+			route = load(key);
+			if (route != null)
+				cache.put(key, route);
+		}
+		return route;
+	}
+
+	public void put(RouteKey key, RouteResult route) {
+		cache.put(key, route);
+		store(key, route);
+	}
+
+	public long size() {
+		return cache.size();
+	}
+
+	/**
+	 * Hit, miss and eviction counts since start.
+	 */
+	public CacheStats getStats() {
+		return cache.stats();
+	}
+
+	/**
+	 * Routes loaded from the file since start.
+	 */
+	public long getFileLoadCount() {
+		return fileLoadCount.get();
+	}
+
+	@PreDestroy
+	public void flush() {
+		if (routeFile != null)
+			routeFile.flush();
+	}
+
+	private RouteResult load(RouteKey key) {
+		if (routeFile == null)
+			return null;
+		// the lifetime on the heap starts again, routes from the file are at most one lifetime older
+		RouteResult route = routeFile.get(key, System.currentTimeMillis() - ttlMs);
+		if (route != null)
+			fileLoadCount.incrementAndGet();
+		return route;
+	}
+
+	private void store(RouteKey key, RouteResult route) {
+		if (routeFile != null)
+			routeFile.put(key, route, System.currentTimeMillis());
+	}
+
+	private static MappedRouteFile openRouteFile(String persistDir, int fileMegabytes) {
+		if (persistDir == null || persistDir.isEmpty())
+			return null;
+		File file = new File(persistDir, "routes.dat");
+		try {
+			file.getParentFile().mkdirs();
+			return MappedRouteFile.open(file, fileMegabytes);
+		} catch (IOException e) {
+			LOGGER.warn("Could not open route file {}, routes are only cached on the heap: {}", file, e.getMessage());
+			return null;
+		}
+	}
+
+	private int snapLatitude(GeoPoint point) {
+		return (int) Math.round(point.getLatitude() / gridDegrees);
+	}
+
+	private int snapLongitude(GeoPoint point) {
+		// grid cells keep their width in meters towards the poles
+		double cellLatitude = Math.round(point.getLatitude() / gridDegrees) * gridDegrees;
+		double lonDegrees = gridDegrees / Math.max(Math.cos(Math.toRadians(cellLatitude)), 0.01);
+		return (int) Math.round(point.getLongitude() / lonDegrees);
+	}
+
+	public static final class RouteKey {
+
+		final int startLat;
+		final int startLon;
+		final int endLat;
+		final int endLon;
+
+		private RouteKey(int startLat, int startLon, int endLat, int endLon) {
+			this.startLat = startLat;
+			this.startLon = startLon;
+			this.endLat = endLat;
+			this.endLon = endLon;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof RouteKey))
+				return false;
+			RouteKey other = (RouteKey) obj;
+			return startLat == other.startLat && startLon == other.startLon
+					&& endLat == other.endLat && endLon == other.endLon;
+		}
+
+		@Override
+		public int hashCode() {
+			int result = startLat;
+			result = 31 * result + startLon;
+			result = 31 * result + endLat;
+			return 31 * result + endLon;
+		}
+
+		@Override
+		public String toString() {
+			return "RouteKey [" + startLat + "," + startLon + " -> " + endLat + "," + endLon + "]";
+		}
+	}
+
+}
@@ -0,0 +1,60 @@
+package monitoring.cache;
+
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+
+import monitoring.beans.GeoPoint;
+import monitoring.cache.RouteCache.RouteKey;
+
+/**
+ * Travel times between appointments, kept much longer than the routes of
+ * the route cache. Schedules of whole tours are refreshed every few seconds,
+ * only the leg from the current position changes in between. Legs use the
+ * grid of the route cache, so a leg and its route share a key.
+ */
+@Component
+public class TravelTimeMatrix {
+
+	private final RouteCache routeCache;
+	private final Cache<RouteKey, Integer> travelTimes;
+
+	@Autowired
+	public TravelTimeMatrix(
+			RouteCache routeCache,
+			@Value("${monitoring.schedule.legttl:900}") long ttlSeconds,
+			@Value("${monitoring.schedule.maxlegs:100000}") long maxLegs) {
+		this.routeCache = routeCache;
+		this.travelTimes = CacheBuilder.newBuilder()
+				.expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+				.maximumSize(maxLegs)
+				.recordStats()
+				.build();
+	}
+
+	/**
+	 * Travel time in ms, null if the leg is not known.
+	 */
+	public Integer getTravelTime(GeoPoint from, GeoPoint to) {
+		return travelTimes.getIfPresent(routeCache.getKey(from, to));
+	}
+
+	public void putTravelTime(GeoPoint from, GeoPoint to, int timeInMs) {
+		travelTimes.put(routeCache.getKey(from, to), timeInMs);
+	}
+
+	public long size() {
+		return travelTimes.size();
+	}
+
+	public CacheStats getStats() {
+		return travelTimes.stats();
+	}
+
+}
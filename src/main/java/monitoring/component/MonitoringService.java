@@ -1,35 +1,158 @@
 package monitoring.component;
 
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Component;
+
+import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
+import monitoring.cache.DeviceSessionStore;
+import monitoring.cache.PositionHistory;
+import monitoring.cache.PositionStore;
+import monitoring.cache.RouteCache;
+import monitoring.cache.TravelTimeMatrix;
 import monitoring.connector.RoutingConnector;
 import monitoring.connector.TrackingConnector;
+import monitoring.eta.RoutingEtaEstimator;
+import monitoring.eta.StraightLineEtaEstimator;
+import monitoring.geofence.GeofenceService;
+import monitoring.prefetch.TourPrefetcher;
+import monitoring.metrics.MetricsRegistry;
+import monitoring.metrics.Timer;
 import monitoring.utility.DistanceCalculator;
 import monitoring.utility.MeasureConverter;
+import monitoring.utility.RouteFormat;
+import monitoring.beans.Appointment;
 import monitoring.beans.GeoPoint;
+import monitoring.beans.MonitoringRequest;
 import monitoring.beans.Report;
+import monitoring.beans.RouteGeometry;
+import monitoring.beans.RouteResult;
+import monitoring.beans.TourRequest;
+import monitoring.beans.TrackedPosition;
+import monitoring.beans.TravelMode;
 import monitoring.beans.WorkingStatus;
 import monitoring.exceptions.InternalMonitoringErrorException;
 
 @Component
 public class MonitoringService {
 	
+	private static final Logger LOGGER = LoggerFactory.getLogger(MonitoringService.class);
+	
 	@Autowired
  	private RoutingConnector routingConnector;
 	@Autowired
  	private TrackingConnector trackingConnector;
+	@Autowired
+	private PositionStore positionStore;
+	@Autowired
+	private PositionHistory positionHistory;
+	@Autowired
+	private DeviceSessionStore sessionStore;
+	@Autowired
+	private RoutingEtaEstimator routingEstimator;
+	@Autowired
+	private StraightLineEtaEstimator localEstimator;
+	@Autowired
+	private GeofenceService geofenceService;
+	@Autowired
+	private TravelTimeMatrix travelTimes;
+	// looked up once, every lookup in the registry builds the key of the labels
+	private Timer syncReportTimer;
+	private Timer asyncReportTimer;
+	private Timer tourReportTimer;
+	private Timer scheduleReportTimer;
+	private Timer trackingStageTimer;
+	private Timer routingStageTimer;
+	private Timer estimateStageTimer;
+	private LongAdder matrixLegCount;
+	private LongAdder routedLegCount;
+	private LongAdder estimatedLegCount;
+	@Autowired
+	@Qualifier("upstreamExecutor")
+	private Executor upstreamExecutor;
+	@Value("${monitoring.batch.parallelism:8}")
+	private int batchParallelism = 8;
+	@Value("${monitoring.tour.parallelism:4}")
+	private int tourParallelism = 4;
+	@Value("${monitoring.eta.localdistance:500}")
+	private double localDistance = 500;
+	@Value("${monitoring.eta.arrivaldistance:100}")
+	private double arrivalDistance = 100;
+	@Value("${monitoring.eta.mode:CAR}")
+	private TravelMode defaultMode = TravelMode.CAR;
+	@Value("${monitoring.eta.movingspeed:2}")
+	private double movingSpeed = 2;
+	@Value("${monitoring.eta.speedfactor.min:0.8}")
+	private double minSpeedFactor = 0.8;
+	@Value("${monitoring.eta.speedfactor.max:1.5}")
+	private double maxSpeedFactor = 1.5;
 	
 	public MonitoringService() {
- 		this.routingConnector = new RoutingConnector();
- 		this.trackingConnector = new TrackingConnector();
+ 		this(new RoutingConnector(), new TrackingConnector(), new PositionStore(30, 600));
+	}
+	
+	public MonitoringService(
+			RoutingConnector routingConnector,
+			TrackingConnector trackingConnector,
+			PositionStore positionStore) {
+ 		this(routingConnector, trackingConnector, positionStore, new DeviceSessionStore(50, 300, 3600));
+	}
+	
+	public MonitoringService(
+			RoutingConnector routingConnector,
+			TrackingConnector trackingConnector,
+			PositionStore positionStore,
+			DeviceSessionStore sessionStore) {
+ 		this.routingConnector = routingConnector;
+ 		this.trackingConnector = trackingConnector;
+ 		this.positionStore = positionStore;
+ 		this.sessionStore = sessionStore;
+ 		this.localEstimator = new StraightLineEtaEstimator(1.3, 30, 15, 5);
+ 		this.positionHistory = new PositionHistory(16, 120, 600);
+ 		this.travelTimes = new TravelTimeMatrix(new RouteCache(25, 120, 2000000), 900, 100000);
+ 		this.routingEstimator = new RoutingEtaEstimator(routingConnector, sessionStore, localEstimator,
+ 				new TourPrefetcher(routingConnector, travelTimes, 5, 600), positionHistory);
+ 		this.geofenceService = new GeofenceService(500, 100, 5000, 10000, 600);
+ 		setMetrics(new MetricsRegistry());
+ 		this.upstreamExecutor = Executors.newCachedThreadPool(
+ 				new ThreadFactoryBuilder().setNameFormat("upstream-%d").setDaemon(true).build());
+	}
+	
+	@Autowired
+	public void setMetrics(MetricsRegistry metrics) {
+		this.syncReportTimer = metrics.timer("report_seconds", "mode", "sync");
+		this.asyncReportTimer = metrics.timer("report_seconds", "mode", "async");
+		this.tourReportTimer = metrics.timer("report_seconds", "mode", "tour");
+		this.scheduleReportTimer = metrics.timer("report_seconds", "mode", "schedule");
+		this.trackingStageTimer = metrics.timer("report_stage_seconds", "stage", "tracking");
+		this.routingStageTimer = metrics.timer("report_stage_seconds", "stage", "routing");
+		this.estimateStageTimer = metrics.timer("report_stage_seconds", "stage", "estimate");
+		this.matrixLegCount = metrics.counter("schedule_legs_total", "source", "matrix");
+		this.routedLegCount = metrics.counter("schedule_legs_total", "source", "routing");
+		this.estimatedLegCount = metrics.counter("schedule_legs_total", "source", "estimate");
 	}
 	
 	public JSONObject getReport(
@@ -40,32 +163,403 @@ public class MonitoringService {
 			int delay
 			) throws InternalMonitoringErrorException {
 		
+		long start = System.nanoTime();
+		try {
+			GeoPoint appointmentLocation = new GeoPoint(latitude, longitude);
+			GeoPoint userPosition = getUserPosition(deviceId);
+			
+			// calculate route and travel time between current location and next appointment with one request
+			RouteResult routeNext = getRouteNext(deviceId, userPosition, appointmentLocation, null);
+			
+			return createReport(deviceId, userPosition, routeNext, appointmentLocation, timestamp, delay, RouteFormat.POINTS);
+		} finally {
+			syncReportTimer.recordSince(start);
+		}
+	}
+	
+	public CompletableFuture<JSONObject> getReportAsync(
+			String deviceId,
+			long timestamp,
+			double latitude,
+			double longitude,
+			int delay
+			) {
+		return getReportAsync(deviceId, timestamp, latitude, longitude, delay, RouteFormat.POINTS);
+	}
+	
+	public CompletableFuture<JSONObject> getReportAsync(
+			String deviceId,
+			long timestamp,
+			double latitude,
+			double longitude,
+			int delay,
+			RouteFormat routeFormat
+			) {
+		return getReportAsync(deviceId, timestamp, latitude, longitude, delay, routeFormat, null);
+	}
+	
+	/**
+	 * Same report as {@link #getReport}, but the upstream calls run on the upstream executor.
+	 * Tracking lookup and auth token fetch for the routing service run concurrently.
+	 * The route is written in the given format, local estimates use the speed of
+	 * the travel mode (default mode if null).
+	 */
+	public CompletableFuture<JSONObject> getReportAsync(
+			final String deviceId,
+			final long timestamp,
+			final double latitude,
+			final double longitude,
+			final int delay,
+			final RouteFormat routeFormat,
+			final TravelMode mode
+			) {
+		
+		final long start = System.nanoTime();
+		final GeoPoint appointmentLocation = new GeoPoint(latitude, longitude);
+		
+		CompletableFuture<GeoPoint> userPosition = CompletableFuture.supplyAsync(() -> {
+			try {
+				return getUserPosition(deviceId);
+			} catch (InternalMonitoringErrorException e) {
+				throw new CompletionException(e);
+			}
+		}, upstreamExecutor);
+		CompletableFuture<Void> token = CompletableFuture.runAsync(
+				routingConnector::prefetchToken, upstreamExecutor);
+		
+		final CompletableFuture<JSONObject> report = new CompletableFuture<JSONObject>();
+		userPosition
+				.thenCombine(token, (position, ignored) -> position)
+				.thenApplyAsync(position -> createReport(deviceId, position,
+						getRouteNext(deviceId, position, appointmentLocation, mode),
+						appointmentLocation, timestamp, delay, routeFormat), upstreamExecutor)
+				.whenComplete((result, ex) -> {
+					asyncReportTimer.recordSince(start);
+					// hand out the original exception, so the controller can map it
+					if (ex != null)
+						report.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+					else
+						report.complete(result);
+				});
+		return report;
+	}
+	
+	/**
+	 * Creates reports for a whole fleet. All positions are fetched with one tracking
+	 * request, the routing requests run in at most batchParallelism parallel lanes.
+	 * Failures are reported per entry.
+	 */
+	public CompletableFuture<List<JSONObject>> getBatchReport(final List<MonitoringRequest> requests) {
+		
+		final Set<String> deviceIds = Sets.newLinkedHashSet();
+		for (MonitoringRequest request : requests) {
+			if (request != null && request.getDeviceId() != null && !request.getDeviceId().equals("demo"))
+				deviceIds.add(request.getDeviceId());
+		}
+		
+		CompletableFuture<Map<String, GeoPoint>> positions = CompletableFuture.supplyAsync(
+				() -> getTrackingPositions(deviceIds), upstreamExecutor);
+		CompletableFuture<Void> token = CompletableFuture.runAsync(
+				routingConnector::prefetchToken, upstreamExecutor);
+		
+		return positions.thenCombine(token, (userPositions, ignored) -> userPositions)
+				.thenCompose(userPositions -> {
+					final JSONObject[] reports = new JSONObject[requests.size()];
+					List<CompletableFuture<Void>> lanes = Lists.newArrayList();
+					
+					// each lane works through every n-th entry, so no more than n routing requests are pending
+					int laneCount = Math.min(batchParallelism, requests.size());
+					for (int lane = 0; lane < laneCount; lane++) {
+						CompletableFuture<Void> laneFuture = CompletableFuture.completedFuture(null);
+						for (int index = lane; index < requests.size(); index += laneCount) {
+							final int entry = index;
+							laneFuture = laneFuture.thenRunAsync(() -> reports[entry] =
+									createBatchEntry(requests.get(entry), userPositions), upstreamExecutor);
+						}
+						lanes.add(laneFuture);
+					}
+					
+					return CompletableFuture.allOf(lanes.toArray(new CompletableFuture<?>[lanes.size()]))
+							.thenApply(ignored -> Arrays.asList(reports));
+				});
+	}
+	
+	/**
+	 * Report for the next appointment, plus expected arrival and delay at every
+	 * other appointment of the tour. The stages between the appointments do not
+	 * depend on the position, they are routed in at most tourParallelism parallel
+	 * lanes while the position is looked up.
+	 */
+	public CompletableFuture<JSONObject> getTourReport(final TourRequest request, final RouteFormat routeFormat) {
+		
+		final long start = System.nanoTime();
+		final TravelMode mode = request.getMode() != null ? request.getMode() : defaultMode;
+		final List<GeoPoint> stops = Lists.newArrayListWithCapacity(request.getAppointments().size());
+		for (Appointment appointment : request.getAppointments())
+			stops.add(appointment.toGeoPoint());
+		
+		// a stage the routing service can not provide is estimated, routed ones are kept for schedules
+		final List<CompletableFuture<RouteResult>> stages = Lists.newArrayList();
+		List<CompletableFuture<RouteResult>> routedStages = routingConnector.getRouteResults(stops, upstreamExecutor, tourParallelism);
+		for (int i = 0; i < routedStages.size(); i++) {
+			final int stage = i;
+			stages.add(routedStages.get(i).handle((route, ex) -> {
+				if (ex != null)
+					return getEstimatedStage(stops.get(stage), stops.get(stage + 1), mode);
+				travelTimes.putTravelTime(stops.get(stage), stops.get(stage + 1), route.getTimeInMs());
+				return route;
+			}));
+		}
+		
+		final CompletableFuture<GeoPoint> userPosition = CompletableFuture.supplyAsync(() -> {
+			try {
+				return getUserPosition(request.getDeviceId());
+			} catch (InternalMonitoringErrorException e) {
+				throw new CompletionException(e);
+			}
+		}, upstreamExecutor);
+		CompletableFuture<RouteResult> routeNext = userPosition.thenApplyAsync(position ->
+				getRouteNext(request.getDeviceId(), position, stops.get(0), mode), upstreamExecutor);
+		
+		final CompletableFuture<JSONObject> report = new CompletableFuture<JSONObject>();
+		routeNext
+				.thenCombine(CompletableFuture.allOf(stages.toArray(new CompletableFuture<?>[stages.size()])), (next, ignored) -> next)
+				.thenApply(next -> createTourReport(request, userPosition.join(), next, stages, routeFormat))
+				.whenComplete((result, ex) -> {
+					tourReportTimer.recordSince(start);
+					if (ex != null)
+						report.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+					else
+						report.complete(result);
+				});
+		return report;
+	}
+	
+	private JSONObject createTourReport(
+			TourRequest request,
+			GeoPoint userPosition,
+			RouteResult routeNext,
+			List<CompletableFuture<RouteResult>> stages,
+			RouteFormat routeFormat) {
+		
+		List<Appointment> appointments = request.getAppointments();
+		Appointment nextAppointment = appointments.get(0);
+		JSONObject obj = createReport(request.getDeviceId(), userPosition, routeNext, nextAppointment.toGeoPoint(),
+				nextAppointment.getTimestamp(), request.getDelay(), routeFormat);
+		
+		List<RouteGeometry> routeTotal = Lists.newArrayListWithCapacity(appointments.size());
+		routeTotal.add(routeNext.getPointList());
+		int[] legTimes = new int[stages.size()];
+		boolean[] legDegraded = new boolean[stages.size()];
+		for (int i = 0; i < stages.size(); i++) {
+			RouteResult stage = stages.get(i).join();
+			routeTotal.add(stage.getPointList());
+			legTimes[i] = stage.getTimeInMs();
+			legDegraded[i] = stage.isDegraded();
+		}
+		
+		obj.put("routeTotal", routeFormat.format(RouteGeometry.concat(routeTotal)));
+		obj.put("appointments", createAppointmentReports(appointments,
+				(Date) obj.get("expectedTimeOfArrival"), routeNext.isDegraded(), legTimes, legDegraded));
+		return obj;
+	}
+	
+	/**
+	 * Expected arrival and delay at every remaining appointment, without routes.
+	 * Legs between the appointments come from the travel time matrix, only legs
+	 * not known yet are routed. So a refresh with a new position only needs the
+	 * leg to the next appointment, which the session of the device mostly has.
+	 */
+	public CompletableFuture<JSONObject> getScheduleReport(final TourRequest request) {
+		
+		final long start = System.nanoTime();
+		final TravelMode mode = request.getMode() != null ? request.getMode() : defaultMode;
+		final List<GeoPoint> stops = Lists.newArrayListWithCapacity(request.getAppointments().size());
+		for (Appointment appointment : request.getAppointments())
+			stops.add(appointment.toGeoPoint());
+		
+		final int[] legTimes = new int[stops.size() - 1];
+		final boolean[] legDegraded = new boolean[legTimes.length];
+		final List<Integer> missingLegs = Lists.newArrayList();
+		List<GeoPoint> missingStarts = Lists.newArrayList();
+		List<GeoPoint> missingEnds = Lists.newArrayList();
+		for (int i = 0; i < legTimes.length; i++) {
+			Integer travelTime = travelTimes.getTravelTime(stops.get(i), stops.get(i + 1));
+			if (travelTime != null) {
+				legTimes[i] = travelTime;
+			} else {
+				missingLegs.add(i);
+				missingStarts.add(stops.get(i));
+				missingEnds.add(stops.get(i + 1));
+			}
+		}
+		matrixLegCount.add(legTimes.length - missingLegs.size());
+		
+		// a leg the routing service can not provide is estimated and not kept
+		List<CompletableFuture<RouteResult>> routedLegs = routingConnector.getRouteResults(
+				missingStarts, missingEnds, upstreamExecutor, tourParallelism);
+		List<CompletableFuture<Void>> legs = Lists.newArrayListWithCapacity(routedLegs.size());
+		for (int i = 0; i < routedLegs.size(); i++) {
+			final int leg = missingLegs.get(i);
+			legs.add(routedLegs.get(i).handle((route, ex) -> {
+				if (ex == null) {
+					legTimes[leg] = route.getTimeInMs();
+					travelTimes.putTravelTime(stops.get(leg), stops.get(leg + 1), route.getTimeInMs());
+					routedLegCount.increment();
+				} else {
+					legTimes[leg] = getEstimatedStage(stops.get(leg), stops.get(leg + 1), mode).getTimeInMs();
+					legDegraded[leg] = true;
+					estimatedLegCount.increment();
+				}
+				return null;
+			}));
+		}
+		
+		final CompletableFuture<GeoPoint> userPosition = CompletableFuture.supplyAsync(() -> {
+			try {
+				return getUserPosition(request.getDeviceId());
+			} catch (InternalMonitoringErrorException e) {
+				throw new CompletionException(e);
+			}
+		}, upstreamExecutor);
+		CompletableFuture<RouteResult> routeNext = userPosition.thenApplyAsync(position ->
+				getRouteNext(request.getDeviceId(), position, stops.get(0), mode), upstreamExecutor);
+		
+		final CompletableFuture<JSONObject> report = new CompletableFuture<JSONObject>();
+		routeNext
+				.thenCombine(CompletableFuture.allOf(legs.toArray(new CompletableFuture<?>[legs.size()])), (next, ignored) -> next)
+				.thenApply(next -> {
+					Appointment nextAppointment = request.getAppointments().get(0);
+					JSONObject obj = createReport(request.getDeviceId(), userPosition.join(), next, stops.get(0),
+							nextAppointment.getTimestamp(), request.getDelay(), RouteFormat.POINTS);
+					obj.remove("routeNext");
+					obj.remove("routeTotal");
+					obj.put("appointments", createAppointmentReports(request.getAppointments(),
+							(Date) obj.get("expectedTimeOfArrival"), next.isDegraded(), legTimes, legDegraded));
+					return obj;
+				})
+				.whenComplete((result, ex) -> {
+					scheduleReportTimer.recordSince(start);
+					if (ex != null)
+						report.completeExceptionally(ex instanceof CompletionException ? ex.getCause() : ex);
+					else
+						report.complete(result);
+				});
+		return report;
+	}
+	
+	/**
+	 * The delay is carried over from one appointment to the next. Arriving early
+	 * means waiting for the start, the device leaves after the service duration.
+	 * From the first estimated leg on, the time status is unknown.
+	 */
+	private List<JSONObject> createAppointmentReports(
+			List<Appointment> appointments,
+			Date firstArrival,
+			boolean degraded,
+			int[] legTimes,
+			boolean[] legDegraded) {
+		
+		List<JSONObject> appointmentReports = Lists.newArrayListWithCapacity(appointments.size());
+		Date arrival = firstArrival;
+		for (int i = 0; i < appointments.size(); i++) {
+			if (i > 0) {
+				Appointment previous = appointments.get(i - 1);
+				degraded |= legDegraded[i - 1];
+				long departure = Math.max(arrival.getTime(), previous.getTimestamp())
+						+ TimeUnit.MINUTES.toMillis(previous.getServiceDuration());
+				arrival = new Date(departure + TimeUnit.MINUTES.toMillis(MeasureConverter.getTimeInMinutes(legTimes[i - 1])));
+			}
+			appointmentReports.add(createAppointmentReport(appointments.get(i), arrival, degraded));
+		}
+		return appointmentReports;
+	}
+	
+	private JSONObject createAppointmentReport(Appointment appointment, Date arrival, boolean degraded) {
+		
 		JSONObject obj = new JSONObject();
-		Date currentDate = new Date();		
-		Date appointmentTime = new Date(timestamp);
-		GeoPoint appointmentLocation = new GeoPoint(latitude, longitude);
+		obj.put("location", appointment.toGeoPoint());
+		obj.put("appointmentTime", new Date(appointment.getTimestamp()));
+		obj.put("expectedTimeOfArrival", arrival);
 		
-		// default position to enable a demo output for monitoring
-		GeoPoint userPosition = new GeoPoint(51.04, 13.73);
-		if (!deviceId.equals("demo"))
-			userPosition = getTrackingPosition(deviceId);
+		// same rules as for the next appointment
+		int delayInMin = arrival.getTime() < appointment.getTimestamp() ? 0
+				: (int) TimeUnit.MILLISECONDS.toMinutes(arrival.getTime() - appointment.getTimestamp()) + 1;
+		obj.put("delayInMin", delayInMin);
+		if (degraded)
+			obj.put("timeStatus", Report.TimeStatus.UNKNOWN);
+		else
+			obj.put("timeStatus", delayInMin >= 5 ? Report.TimeStatus.DELAYED : Report.TimeStatus.IN_TIME);
+		return obj;
+	}
+	
+	private RouteResult getEstimatedStage(GeoPoint from, GeoPoint to, TravelMode mode) {
+		
+		RouteResult estimate = localEstimator.estimate(null, from, to, mode);
+		estimate.setDegraded(true);
+		return estimate;
+	}
+	
+	private JSONObject createBatchEntry(MonitoringRequest request, Map<String, GeoPoint> userPositions) {
 		
+		JSONObject entry = new JSONObject();
+		if (request == null || request.getDeviceId() == null) {
+			entry.put("error", "Device id required");
+			return entry;
+		}
+		entry.put("deviceId", request.getDeviceId());
+		
+		GeoPoint userPosition = request.getDeviceId().equals("demo") ?
+				new GeoPoint(51.04, 13.73) : userPositions.get(request.getDeviceId());
 		if (userPosition == null) {
-			throw new InternalMonitoringErrorException("No current tracking position found. Unable to create report");
+			entry.put("error", "No current tracking position found. Unable to create report");
+			return entry;
 		}
 		
-		// calculate route between current location and next appointment
-		List<Double[]> routeNext = getRouteNext(userPosition, appointmentLocation);
+		try {
+			GeoPoint appointmentLocation = new GeoPoint(request.getLatitude(), request.getLongitude());
+			entry.put("report", createReport(request.getDeviceId(), userPosition,
+					getRouteNext(request.getDeviceId(), userPosition, appointmentLocation, request.getMode()), appointmentLocation, request.getTimestamp(), request.getDelay(), RouteFormat.POINTS));
+		} catch (RuntimeException ex) {
+			entry.put("error", "Unable to create report: " + ex.getMessage());
+		}
+		return entry;
+	}
+	
+	private JSONObject createReport(
+			String deviceId,
+			GeoPoint userPosition,
+			RouteResult routeNext,
+			GeoPoint appointmentLocation,
+			long timestamp,
+			int delay,
+			RouteFormat routeFormat) {
 		
-		// set up location status
+		JSONObject obj = new JSONObject();
+		Date currentDate = new Date();
+		Date appointmentTime = new Date(timestamp);
+		
+		// set up location status, from the geofence of the appointment if one is registered
 		JSONObject workingStatus = new JSONObject();
-		workingStatus.put("since", null);
-		double posDistance = DistanceCalculator.getDistance(userPosition, appointmentLocation);
-		if (posDistance < 100) {
-			workingStatus.put("locationStatus", WorkingStatus.LocationStatus.AT_APPOINTMENT);
-		} else {
-			workingStatus.put("locationStatus", WorkingStatus.LocationStatus.ON_THE_MOVE);
+		WorkingStatus.LocationStatus locationStatus = geofenceService.getLocationStatus(deviceId, appointmentLocation);
+		if (locationStatus == null) {
+			// positions within their accuracy of the arrival distance can not tell, the last status is kept.
+			// The band is capped, so inaccurate fixes at the appointment still arrive.
+			double posDistance = DistanceCalculator.getDistance(userPosition, appointmentLocation);
+			double band = Math.min(positionHistory.getAccuracy(deviceId), arrivalDistance / 2);
+			if (posDistance + band < arrivalDistance) {
+				locationStatus = WorkingStatus.LocationStatus.AT_APPOINTMENT;
+			} else if (posDistance - band >= arrivalDistance) {
+				locationStatus = WorkingStatus.LocationStatus.ON_THE_MOVE;
+			} else {
+				locationStatus = sessionStore.getLocationStatus(deviceId);
+				if (locationStatus == null)
+					locationStatus = WorkingStatus.LocationStatus.ON_THE_MOVE;
+			}
 		}
+		Date since = sessionStore.updateLocationStatus(deviceId, locationStatus);
+		workingStatus.put("locationStatus", locationStatus);
+		workingStatus.put("since", since);
 		
 		// calculate time between current date and start date of appointment
 		Calendar calendar = Calendar.getInstance();
@@ -75,15 +569,20 @@ public class MonitoringService {
 		calendar.add(Calendar.MINUTE, delay);
 		
 		// get travel time to next appointment from current position and add it up to time estimation
-		calendar.add(Calendar.MINUTE, getRouteTravelTime(userPosition, appointmentLocation));
+		calendar.add(Calendar.MINUTE, MeasureConverter.getTimeInMinutes(routeNext.getTimeInMs()));
 		
-		// set up delay and time status
-		if (calendar.getTime().before(appointmentTime)) {
+		// set up delay and time status, an estimate without routing service can not tell
+		if (routeNext.isDegraded()) {
+			obj.put("timeStatus", Report.TimeStatus.UNKNOWN);
+			obj.put("delayInMin", calendar.getTime().before(appointmentTime) ? 0 : (int) TimeUnit.MILLISECONDS.toMinutes(
+					calendar.getTime().getTime() - appointmentTime.getTime()) + 1);
+		}
+		else if (calendar.getTime().before(appointmentTime)) {
 			obj.put("timeStatus", Report.TimeStatus.IN_TIME);
 			obj.put("delayInMin", 0);
 		}
 		else {
-			Long delayInMinutes = TimeUnit.MILLISECONDS.toMinutes(calendar.getTime().getTime() 
+			Long delayInMinutes = TimeUnit.MILLISECONDS.toMinutes(calendar.getTime().getTime()
 					- appointmentTime.getTime());
 			
 			// always add 1 minute (rounding up the seconds)
@@ -99,56 +598,177 @@ public class MonitoringService {
 		
 		obj.put("position", userPosition);
 		obj.put("routeTotal", null);
-		obj.put("routeNext", routeNext);
+		obj.put("routeNext", routeFormat.format(routeNext.getPointList()));
 		obj.put("workingStatus", workingStatus);
 		obj.put("expectedTimeOfArrival", calendar.getTime());
+		obj.put("minAtAppointment", locationStatus == WorkingStatus.LocationStatus.AT_APPOINTMENT ?
+				(int) TimeUnit.MILLISECONDS.toMinutes(currentDate.getTime() - since.getTime()) : 0);
+		sessionStore.setExpectedTimeOfArrival(deviceId, calendar.getTime());
 		return obj;
 		
 	}
 	
+	private GeoPoint getUserPosition(String deviceId) throws InternalMonitoringErrorException {
+		
+		// default position to enable a demo output for monitoring
+		GeoPoint userPosition = new GeoPoint(51.04, 13.73);
+		if (!deviceId.equals("demo"))
+			userPosition = getTrackingPosition(deviceId);
+		
+		if (userPosition == null) {
+			throw new InternalMonitoringErrorException("No current tracking position found. Unable to create report");
+		}
+		
+		return userPosition;
+	}
+	
 	private GeoPoint getTrackingPosition(String deviceId) throws InternalMonitoringErrorException {
 		
-		GeoPoint trackingPosition = null;
+		long start = System.nanoTime();
+		try {
+			return getTrackingPosition(deviceId, start);
+		} finally {
+			trackingStageTimer.recordSince(start);
+		}
+	}
+	
+	private GeoPoint getTrackingPosition(String deviceId, long start) throws InternalMonitoringErrorException {
+		
+		TrackedPosition trackingPosition = positionStore.getIfFresh(deviceId);
+		if (trackingPosition != null) {
+			LOGGER.debug("Position of {} from store in {} us", deviceId, (System.nanoTime() - start) / 1000);
+			return trackingPosition.toGeoPoint();
+		}
 		
 		// get current position of monitored user from Tracking Service
+		List<TrackedPosition> fixes;
 		try {
-			trackingPosition = trackingConnector.getCurrentPosition(deviceId);
+			fixes = trackingConnector.getTrackedFixes(deviceId);
 		}
 		catch (Exception ex) {
 			throw new InternalMonitoringErrorException("Error while getting tracking data for a device "
 					+ "id from the tracking service");
 		}
 		
-		return trackingPosition;
+		LOGGER.debug("Position of {} from tracking service in {} us", deviceId, (System.nanoTime() - start) / 1000);
+		if (fixes.isEmpty())
+			return null;
+		storeFixes(fixes);
+		return fixes.get(0).toGeoPoint();
 	}
 	
-	private List<Double[]> getRouteNext(GeoPoint currentPosition, GeoPoint nextAppointmentPosition) {
+	private Map<String, GeoPoint> getTrackingPositions(Set<String> deviceIds) {
 		
-		List<Double[]> routeNext = Lists.newArrayList();
+		Map<String, GeoPoint> userPositions = Maps.newHashMap();
+		Set<String> missingDeviceIds = Sets.newHashSet();
+		for (String deviceId : deviceIds) {
+			TrackedPosition trackingPosition = positionStore.getIfFresh(deviceId);
+			if (trackingPosition != null)
+				userPositions.put(deviceId, trackingPosition.toGeoPoint());
+			else
+				missingDeviceIds.add(deviceId);
+		}
 		
-		//try {
-			routeNext = routingConnector.getGPSCoordinates(currentPosition, nextAppointmentPosition);
-		/*}
-		catch (RoutingNotFoundException rEx) {
-			return null;
-		}*/	return routeNext;
+		// one bulk request for all devices without fresh position
+		try {
+			ListMultimap<String, TrackedPosition> fixes = trackingConnector.getTrackedFixes(missingDeviceIds);
+			for (String deviceId : fixes.keySet()) {
+				storeFixes(fixes.get(deviceId));
+				userPositions.put(deviceId, fixes.get(deviceId).get(0).toGeoPoint());
+			}
+		} catch (Exception ex) {
+			// every entry without position reports the failure
+		}
+		return userPositions;
 	}
 	
+	/**
+	 * Positions pushed by clients, used by reports instead of querying the tracking service.
+	 */
+	public void updatePositions(List<TrackedPosition> positions) {
+		for (TrackedPosition position : positions)
+			storePosition(position);
+	}
 	
-	private int getRouteTravelTime(GeoPoint currentPosition, GeoPoint nextAppointmentPosition) {
-		
-		int minutesToNextAppointment;
+	/**
+	 * Bulk refresh of all recently requested devices.
+	 */
+	@Scheduled(fixedDelayString = "${tracking.store.refresh:10000}", initialDelayString = "${tracking.store.refresh:10000}")
+	public void refreshPositions() {
+		Set<String> activeDevices = positionStore.getActiveDevices();
+		if (activeDevices.isEmpty())
+			return;
 		
 		try {
-			// get travel time to next appointment from current time
-			minutesToNextAppointment = MeasureConverter.getTimeInMinutes(routingConnector.
-					getTravelTime(currentPosition, nextAppointmentPosition));
+			ListMultimap<String, TrackedPosition> fixes = trackingConnector.getTrackedFixes(activeDevices);
+			for (String deviceId : fixes.keySet())
+				storeFixes(fixes.get(deviceId));
+		} catch (Exception ex) {
+			LOGGER.warn("Could not refresh positions of {} devices: {}", activeDevices.size(), ex.getMessage());
 		}
-		catch (Exception ex) {
-			return 0;
+	}
+	
+	/**
+	 * Every position received is matched against the geofences, so arrivals are
+	 * detected without a report being requested.
+	 */
+	private void storePosition(TrackedPosition position) {
+		// too old or from the future
+		if (!positionStore.update(position))
+			return;
+		geofenceService.update(position);
+		positionHistory.add(position);
+	}
+	
+	/**
+	 * Fixes of one device, newest first. The older ones only go to the
+	 * history of the device.
+	 */
+	private void storeFixes(List<TrackedPosition> fixes) {
+		for (int i = fixes.size() - 1; i > 0; i--)
+			positionHistory.add(fixes.get(i));
+		storePosition(fixes.get(0));
+	}
+	
+	/**
+	 * Scales the travel time by the speed of the route over the speed the
+	 * device has been moving at, within bounds. Devices standing still or
+	 * heading away from the appointment keep the travel time of the route.
+	 */
+	private RouteResult scaleToObservedSpeed(String deviceId, GeoPoint position, GeoPoint appointment, RouteResult route) {
+		
+		PositionHistory.Motion motion = positionHistory.getMotion(deviceId);
+		if (motion == null || motion.getSpeed() < movingSpeed || route.getTimeInMs() <= 0 || route.getDistance() <= 0)
+			return route;
+		if (!Double.isNaN(motion.getHeading())) {
+			double turn = Math.abs(DistanceCalculator.getBearing(position, appointment) - motion.getHeading()) % 360;
+			if (Math.min(turn, 360 - turn) > 90)
+				return route;
 		}
 		
-		return minutesToNextAppointment;
+		double routeSpeed = route.getDistance() * 1000 / route.getTimeInMs();
+		double factor = Math.max(minSpeedFactor, Math.min(maxSpeedFactor, routeSpeed / motion.getSpeed()));
+		// routes are shared with the caches, the scaled one is a copy
+		RouteResult scaled = new RouteResult(route.getPointList(), (int) Math.round(route.getTimeInMs() * factor), route.getDistance());
+		scaled.setDegraded(route.isDegraded());
+		return scaled;
+	}
+	
+	/**
+	 * Devices close to their appointment get the local estimate, the routing
+	 * service is not worth a round trip for them.
+	 */
+	private RouteResult getRouteNext(String deviceId, GeoPoint currentPosition, GeoPoint nextAppointmentPosition, TravelMode mode) {
+		
+		long start = System.nanoTime();
+		boolean local = DistanceCalculator.getDistance(currentPosition, nextAppointmentPosition) <= localDistance;
+		try {
+			RouteResult routeNext = (local ? localEstimator : routingEstimator).estimate(
+					deviceId, currentPosition, nextAppointmentPosition, mode != null ? mode : defaultMode);
+			return scaleToObservedSpeed(deviceId, currentPosition, nextAppointmentPosition, routeNext);
+		} finally {
+			(local ? estimateStageTimer : routingStageTimer).recordSince(start);
+		}
 	}
 	
 }
@@ -0,0 +1,274 @@
+package monitoring.component;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.json.simple.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import monitoring.beans.GeoPoint;
+import monitoring.beans.MonitoringRequest;
+import monitoring.beans.TravelMode;
+import monitoring.utility.RouteFormat;
+
+/**
+ * Pushes reports to subscribed clients as server-sent events. Subscribers of
+ * the same device and appointment share a topic, each topic computes its
+ * report once per interval on a shared scheduler. A report is only pushed if
+ * position, ETA, delay or status have changed.
+ */
+@Component
+public class SubscriptionService {
+	
+	private static final Logger LOGGER = LoggerFactory.getLogger(SubscriptionService.class);
+	
+	private final MonitoringService monitoringService;
+	private final long intervalMs;
+	private final long timeoutMs;
+	private final ScheduledExecutorService scheduler;
+	private final ConcurrentHashMap<TopicKey, Topic> topics = new ConcurrentHashMap<TopicKey, Topic>();
+	
+	private final AtomicLong computations = new AtomicLong();
+	private final AtomicLong pushes = new AtomicLong();
+	
+	@Autowired
+	public SubscriptionService(
+			MonitoringService monitoringService,
+			@Value("${monitoring.subscription.interval:5000}") long intervalMs,
+			@Value("${monitoring.subscription.timeout:600000}") long timeoutMs,
+			@Value("${monitoring.subscription.threads:2}") int threads) {
+		this.monitoringService = monitoringService;
+		this.intervalMs = intervalMs;
+		this.timeoutMs = timeoutMs;
+		// reports are computed on the upstream executor, the scheduler only triggers them
+		this.scheduler = Executors.newScheduledThreadPool(threads,
+				new ThreadFactoryBuilder().setNameFormat("subscription-%d").setDaemon(true).build());
+	}
+	
+	public SseEmitter subscribe(MonitoringRequest request, RouteFormat routeFormat) {
+		return subscribe(request, routeFormat, new SseEmitter(timeoutMs));
+	}
+	
+	/**
+	 * Adds the emitter to the topic of the request. New subscribers of a running
+	 * topic receive its last report right away.
+	 */
+	public SseEmitter subscribe(MonitoringRequest request, RouteFormat routeFormat, final SseEmitter emitter) {
+		
+		TopicKey key = new TopicKey(request, routeFormat);
+		while (true) {
+			Topic topic = topics.get(key);
+			if (topic == null) {
+				Topic newTopic = new Topic(key);
+				topic = topics.putIfAbsent(key, newTopic);
+				if (topic == null)
+					topic = newTopic;
+			}
+			// a topic may just have lost its last subscriber
+			if (topic.add(emitter)) {
+				final Topic subscribedTopic = topic;
+				emitter.onCompletion(() -> subscribedTopic.remove(emitter));
+				emitter.onTimeout(() -> subscribedTopic.remove(emitter));
+				return emitter;
+			}
+		}
+	}
+	
+	public int getTopicCount() {
+		return topics.size();
+	}
+	
+	public int getSubscriberCount() {
+		int subscribers = 0;
+		for (Topic topic : topics.values())
+			subscribers += topic.emitters.size();
+		return subscribers;
+	}
+	
+	/**
+	 * Reports computed for all topics since start.
+	 */
+	public long getComputationCount() {
+		return computations.get();
+	}
+	
+	/**
+	 * Changed reports pushed to topics since start, independent of the number of subscribers.
+	 */
+	public long getPushCount() {
+		return pushes.get();
+	}
+	
+	@PreDestroy
+	public void shutdown() {
+		scheduler.shutdownNow();
+		for (Topic topic : topics.values()) {
+			for (SseEmitter emitter : topic.emitters)
+				emitter.complete();
+		}
+	}
+	
+	private final class Topic {
+		
+		private final TopicKey key;
+		private final List<SseEmitter> emitters = new CopyOnWriteArrayList<SseEmitter>();
+		private final AtomicBoolean computing = new AtomicBoolean();
+		private ScheduledFuture<?> schedule;
+		private boolean closed;
+		private String lastSignature;
+		private JSONObject lastReport;
+		
+		private Topic(TopicKey key) {
+			this.key = key;
+		}
+		
+		private synchronized boolean add(SseEmitter emitter) {
+			if (closed)
+				return false;
+			emitters.add(emitter);
+			if (schedule == null)
+				schedule = scheduler.scheduleWithFixedDelay(this::compute, 0, intervalMs, TimeUnit.MILLISECONDS);
+			else if (lastReport != null)
+				send(emitter, lastReport);
+			return true;
+		}
+		
+		private synchronized void remove(SseEmitter emitter) {
+			emitters.remove(emitter);
+			if (emitters.isEmpty() && !closed) {
+				closed = true;
+				schedule.cancel(false);
+				topics.remove(key, this);
+			}
+		}
+		
+		private void compute() {
+			// skip the interval if the last report is still pending
+			if (!computing.compareAndSet(false, true))
+				return;
+			computations.incrementAndGet();
+			monitoringService.getReportAsync(key.deviceId, key.timestamp, key.latitude, key.longitude,
+					key.delay, key.routeFormat, key.mode).whenComplete((report, ex) -> {
+						try {
+							publish(report, ex);
+						} finally {
+							computing.set(false);
+						}
+					});
+		}
+		
+		private synchronized void publish(JSONObject report, Throwable ex) {
+			String signature = ex != null ? "error " + getMessage(ex) : getSignature(report);
+			if (signature.equals(lastSignature) || closed)
+				return;
+			lastSignature = signature;
+			pushes.incrementAndGet();
+			
+			if (ex != null) {
+				lastReport = null;
+				for (SseEmitter emitter : emitters)
+					sendError(emitter, getMessage(ex));
+			} else {
+				lastReport = report;
+				for (SseEmitter emitter : emitters)
+					send(emitter, report);
+			}
+		}
+		
+		private void send(SseEmitter emitter, JSONObject report) {
+			try {
+				emitter.send(SseEmitter.event().name("report").data(report, MediaType.APPLICATION_JSON));
+			} catch (IOException | IllegalStateException e) {
+				// client is gone
+				remove(emitter);
+			}
+		}
+		
+		private void sendError(SseEmitter emitter, String message) {
+			try {
+				emitter.send(SseEmitter.event().name("error").data(message, MediaType.TEXT_PLAIN));
+			} catch (IOException | IllegalStateException e) {
+				remove(emitter);
+			}
+		}
+		
+		private String getMessage(Throwable ex) {
+			Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+			LOGGER.debug("Report for subscription of {} failed: {}", key.deviceId, cause.getMessage());
+			return String.valueOf(cause.getMessage());
+		}
+		
+		/**
+		 * Parts of the report that make it worth a push, the ETA in whole minutes.
+		 */
+		private String getSignature(JSONObject report) {
+			GeoPoint position = (GeoPoint) report.get("position");
+			JSONObject workingStatus = (JSONObject) report.get("workingStatus");
+			Date expectedTimeOfArrival = (Date) report.get("expectedTimeOfArrival");
+			return position.getLatitude() + "," + position.getLongitude()
+					+ " " + report.get("timeStatus") + " " + report.get("delayInMin")
+					+ " " + workingStatus.get("locationStatus")
+					+ " " + TimeUnit.MILLISECONDS.toMinutes(expectedTimeOfArrival.getTime());
+		}
+	}
+	
+	private static final class TopicKey {
+		
+		private final String deviceId;
+		private final long timestamp;
+		private final double latitude;
+		private final double longitude;
+		private final int delay;
+		private final TravelMode mode;
+		private final RouteFormat routeFormat;
+		
+		private TopicKey(MonitoringRequest request, RouteFormat routeFormat) {
+			this.deviceId = request.getDeviceId();
+			this.timestamp = request.getTimestamp();
+			this.latitude = request.getLatitude();
+			this.longitude = request.getLongitude();
+			this.delay = request.getDelay();
+			this.mode = request.getMode();
+			this.routeFormat = routeFormat;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof TopicKey))
+				return false;
+			TopicKey other = (TopicKey) obj;
+			return deviceId.equals(other.deviceId) && timestamp == other.timestamp
+					&& latitude == other.latitude && longitude == other.longitude
+					&& delay == other.delay && mode == other.mode && routeFormat.equals(other.routeFormat);
+		}
+		
+		@Override
+		public int hashCode() {
+			return Objects.hash(deviceId, timestamp, latitude, longitude, delay, mode, routeFormat);
+		}
+	}
+	
+}
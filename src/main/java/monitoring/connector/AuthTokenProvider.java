@@ -0,0 +1,196 @@
+package monitoring.connector;
+
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import monitoring.metrics.MetricsRegistry;
+
+/**
+ * Caches the token of the auth layer for all connectors. The token is
+ * refreshed in the background shortly before it expires, concurrent callers
+ * share a single in-flight refresh and a token rejected by a service
+ * triggers only one re-authentication.
+ */
+@Component
+public class AuthTokenProvider {
+
+	private final HttpConnectorInterface connector;
+
+	private final String urlAuthLayer;
+	private final String urlAuthLayerUser;
+	private final String urlAuthLayerUserPw;
+	private final long tokenTtlMs;
+	private final long refreshAheadMs;
+
+	private final Object lock = new Object();
+	private final ScheduledExecutorService scheduler;
+
+	@Autowired
+	private MetricsRegistry metrics;
+
+	private volatile CachedToken currentToken;
+	private CompletableFuture<CachedToken> refreshInFlight;
+	private ScheduledFuture<?> scheduledRefresh;
+
+	@Autowired
+	public AuthTokenProvider(
+			HttpConnectorInterface connector,
+			@Value("${url.authlayer}") String urlAuthLayer,
+			@Value("${url.authlayer.user}") String urlAuthLayerUser,
+			@Value("${url.authlayer.pw}") String urlAuthLayerUserPw,
+			@Value("${url.authlayer.token.ttl:3600}") long tokenTtlSeconds,
+			@Value("${url.authlayer.token.refreshahead:60}") long refreshAheadSeconds) {
+		this.connector = connector;
+		this.urlAuthLayer = urlAuthLayer;
+		this.urlAuthLayerUser = urlAuthLayerUser;
+		this.urlAuthLayerUserPw = urlAuthLayerUserPw;
+		this.tokenTtlMs = TimeUnit.SECONDS.toMillis(tokenTtlSeconds);
+		this.refreshAheadMs = TimeUnit.SECONDS.toMillis(refreshAheadSeconds);
+		this.metrics = new MetricsRegistry();
+		this.scheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "auth-token-refresh");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Returns the value for the Authorization header, e.g. "Token abc".
+	 */
+	public String getToken() throws IOException {
+		CachedToken token = currentToken;
+		if (token != null && !token.isExpired(System.currentTimeMillis()))
+			return token.header;
+
+		return await(refresh()).header;
+	}
+
+	/**
+	 * Called when a service rejected the given token. Only the first caller
+	 * reporting the current token drops it, callers holding an already
+	 * replaced token simply pick up the new one with the next getToken.
+	 */
+	public void invalidate(String rejectedToken) {
+		synchronized (lock) {
+			if (currentToken != null && currentToken.header.equals(rejectedToken))
+				currentToken = null;
+		}
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		scheduler.shutdownNow();
+	}
+
+	private CompletableFuture<CachedToken> refresh() {
+		CompletableFuture<CachedToken> refresh;
+		synchronized (lock) {
+			if (refreshInFlight != null)
+				return refreshInFlight;
+			refresh = new CompletableFuture<CachedToken>();
+			refreshInFlight = refresh;
+		}
+
+		try {
+			CachedToken token = requestToken();
+			synchronized (lock) {
+				currentToken = token;
+				scheduleRefresh(token);
+			}
+			refresh.complete(token);
+		} catch (Exception e) {
+			refresh.completeExceptionally(e);
+		} finally {
+			synchronized (lock) {
+				refreshInFlight = null;
+			}
+		}
+		return refresh;
+	}
+
+	private void scheduleRefresh(CachedToken token) {
+		if (scheduledRefresh != null)
+			scheduledRefresh.cancel(false);
+
+		long delay = Math.max(0, token.expiresAt - refreshAheadMs - System.currentTimeMillis());
+		scheduledRefresh = scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				refresh();
+			}
+		}, delay, TimeUnit.MILLISECONDS);
+	}
+
+	private CachedToken requestToken() throws IOException {
+		String POST_PAYLOAD = "{" + "\"username\"" + ":" + "\"" + urlAuthLayerUser
+				+ "\"" + "," + "\"password\"" + ":" + "\"" + urlAuthLayerUserPw + "\"" + "}";
+
+		long start = System.nanoTime();
+		try {
+			JSONObject tokenJSON = new JSONObject(
+					connector.getConnectionAuthenticationString(urlAuthLayer, POST_PAYLOAD));
+			if (!tokenJSON.has("token"))
+				throw new IOException("No token in response of auth layer");
+
+			// use the lifetime sent by the auth layer if there is one
+			long ttl = tokenJSON.has("expires_in") ?
+					TimeUnit.SECONDS.toMillis(tokenJSON.getLong("expires_in")) : tokenTtlMs;
+			return new CachedToken("Token " + tokenJSON.getString("token"), System.currentTimeMillis() + ttl);
+		} catch (GeneralSecurityException | JSONException e) {
+			metrics.counter("upstream_errors_total", "endpoint", "auth", "error", e.getClass().getSimpleName()).increment();
+			throw new IOException("Could not get token from auth layer", e);
+		} catch (IOException e) {
+			metrics.counter("upstream_errors_total", "endpoint", "auth", "error", e.getClass().getSimpleName()).increment();
+			throw e;
+		} finally {
+			metrics.timer("upstream_request_seconds", "endpoint", "auth").recordSince(start);
+		}
+	}
+
+	private static CachedToken await(CompletableFuture<CachedToken> refresh) throws IOException {
+		try {
+			return refresh.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Interrupted while waiting for token", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException)
+				throw (IOException) e.getCause();
+			throw new IOException(e.getCause());
+		}
+	}
+
+	private static class CachedToken {
+
+		private final String header;
+		private final long expiresAt;
+
+		private CachedToken(String header, long expiresAt) {
+			this.header = header;
+			this.expiresAt = expiresAt;
+		}
+
+		private boolean isExpired(long now) {
+			return now >= expiresAt;
+		}
+	}
+
+}
@@ -1,7 +1,10 @@
 package monitoring.connector;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
+import java.security.KeyManagementException;
+import java.security.NoSuchAlgorithmException;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
@@ -14,10 +17,24 @@ public interface HttpConnectorInterface {
 
     public String getConnectionString(String urlStr) throws MalformedURLException, IOException;
 
+    public String getConnectionStringWithToken(String urlStr, String token) throws MalformedURLException, IOException, NoSuchAlgorithmException, KeyManagementException;
+
+    public String getConnectionAuthenticationString(String urlStr, String authenticationJSON) throws MalformedURLException, IOException, NoSuchAlgorithmException, KeyManagementException;
+
+    /**
+     * GET request handing the response body to the handler while it is received.
+     * The Authorization header is only set if a token is given.
+     */
+    public <T> T getConnectionStream(String urlStr, String token, StreamHandler<T> handler) throws MalformedURLException, IOException, NoSuchAlgorithmException, KeyManagementException;
+
     public JSONObject getJSONObjectResult(String result);
 
     public JSONArray getJSONArrayResult(String result);
 
+	public interface StreamHandler<T> {
+		T handle(InputStream stream) throws IOException;
+	}
+
 	public enum RestRequestType {
 		GET,
 		POST,
@@ -0,0 +1,244 @@
+package monitoring.connector;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.cert.X509Certificate;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.PreDestroy;
+import javax.net.ssl.SSLContext;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.config.Registry;
+import org.apache.http.config.RegistryBuilder;
+import org.apache.http.conn.socket.ConnectionSocketFactory;
+import org.apache.http.conn.socket.PlainConnectionSocketFactory;
+import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.conn.ssl.SSLConnectionSocketFactory;
+import org.apache.http.conn.ssl.TrustStrategy;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.ssl.SSLContexts;
+import org.apache.http.util.EntityUtils;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.io.ByteStreams;
+
+import monitoring.exceptions.HttpStatusException;
+import monitoring.resilience.Backoff;
+
+/**
+ * Thread-safe connector sharing a pool of keep-alive connections between all
+ * request threads. Timeouts and pool limits are configured once, as is the
+ * SSL context, so no call needs to lock or set up TLS again.
+ */
+@Component
+public class PooledHttpConnector implements HttpConnectorInterface {
+
+	private final PoolingHttpClientConnectionManager connectionManager;
+	private final CloseableHttpClient httpClient;
+
+	@Autowired
+	public PooledHttpConnector(
+			@Value("${http.client.timeout.connect:2000}") int connectTimeoutMs,
+			@Value("${http.client.timeout.read:10000}") int readTimeoutMs,
+			@Value("${http.client.pool.max:200}") int maxConnections,
+			@Value("${http.client.pool.maxperhost:50}") int maxConnectionsPerHost) {
+
+		// same as HttpConnector: certificates and host names of the services are not verified
+		SSLContext sslContext;
+		try {
+			sslContext = SSLContexts.custom().loadTrustMaterial(null, new TrustStrategy() {
+				@Override
+				public boolean isTrusted(X509Certificate[] chain, String authType) {
+					return true;
+				}
+			}).build();
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException("Could not set up SSL context", e);
+		}
+
+		Registry<ConnectionSocketFactory> socketFactories = RegistryBuilder.<ConnectionSocketFactory>create()
+				.register("http", PlainConnectionSocketFactory.getSocketFactory())
+				.register("https", new SSLConnectionSocketFactory(sslContext, NoopHostnameVerifier.INSTANCE))
+				.build();
+
+		this.connectionManager = new PoolingHttpClientConnectionManager(socketFactories);
+		this.connectionManager.setMaxTotal(maxConnections);
+		this.connectionManager.setDefaultMaxPerRoute(maxConnectionsPerHost);
+		this.connectionManager.setValidateAfterInactivity(5000);
+
+		RequestConfig requestConfig = RequestConfig.custom()
+				.setConnectTimeout(connectTimeoutMs)
+				.setConnectionRequestTimeout(connectTimeoutMs)
+				.setSocketTimeout(readTimeoutMs)
+				.build();
+
+		this.httpClient = HttpClients.custom()
+				.setConnectionManager(connectionManager)
+				.setDefaultRequestConfig(requestConfig)
+				.evictIdleConnections(30, TimeUnit.SECONDS)
+				.disableAutomaticRetries()
+				.build();
+	}
+
+	public String sendMessage(String urlStr, String channel,
+			String contactId, String content) throws MalformedURLException,
+			IOException {
+
+		// set up request body and escape parameters for json
+		String urlParameters = "{" + "\"channel\"" + ":" + "\"" + channel
+				+ "\"" + "," + "\"contactId\"" + ":" + "\"" + contactId + "\""
+				+ "," + "\"content\"" + ":" + "\"" + content + "\"" + "}";
+		return this.getConnectionString(urlStr, urlParameters, RestRequestType.POST);
+
+	}
+
+	public String getConnectionAuthenticationString(String urlStr,
+			String authenticationJSON) throws MalformedURLException, IOException {
+		HttpPost post = new HttpPost(toUri(urlStr));
+		post.setEntity(new StringEntity(authenticationJSON, ContentType.APPLICATION_JSON));
+		return execute(post, 1);
+	}
+
+	public String getConnectionString(String urlStr,
+			String urlParameters, RestRequestType restRequestType)
+			throws MalformedURLException, IOException {
+		HttpRequestBase request;
+		switch (restRequestType) {
+		case POST:
+			HttpPost post = new HttpPost(toUri(urlStr));
+			post.setEntity(new StringEntity(urlParameters, ContentType.APPLICATION_JSON));
+			request = post;
+			break;
+
+		case PUT:
+			HttpPut put = new HttpPut(toUri(urlStr));
+			put.setEntity(new StringEntity(urlParameters, ContentType.APPLICATION_JSON));
+			request = put;
+			break;
+
+		default:
+			request = new HttpGet(toUri(urlStr));
+			request.setHeader("REFERER", "<enter your ip here>");
+		}
+		return execute(request, 1);
+	}
+
+	public String getConnectionStringWithToken(String urlStr,
+			String token) throws MalformedURLException, IOException {
+		HttpGet get = new HttpGet(toUri(urlStr));
+		get.setHeader("REFERER", "<enter your ip here>");
+		get.setHeader("Authorization", token);
+		return execute(get, 4);
+	}
+
+	public String getConnectionString(String urlStr)
+			throws MalformedURLException, IOException {
+		HttpGet get = new HttpGet(toUri(urlStr));
+		get.setHeader("REFERER", "<enter your ip here>");
+		return execute(get, 4);
+	}
+
+	public <T> T getConnectionStream(String urlStr, String token,
+			StreamHandler<T> handler) throws MalformedURLException, IOException {
+		HttpGet get = new HttpGet(toUri(urlStr));
+		get.setHeader("REFERER", "<enter your ip here>");
+		if (token != null)
+			get.setHeader("Authorization", token);
+		return execute(get, 4, handler);
+	}
+
+	public JSONArray getJSONArrayResult(String result) {
+		return new JSONArray(result);
+	}
+
+	public JSONObject getJSONObjectResult(String result) {
+		return new JSONObject(result);
+	}
+
+	/**
+	 * Leased, available and pending connections of the pool.
+	 */
+	public PoolStats getPoolStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	@PreDestroy
+	public void shutdown() throws IOException {
+		httpClient.close();
+	}
+
+	private String execute(HttpRequestBase request, int maxAttempts) throws IOException {
+		return execute(request, maxAttempts, new StreamHandler<String>() {
+			@Override
+			public String handle(InputStream stream) throws IOException {
+				return new String(ByteStreams.toByteArray(stream), StandardCharsets.UTF_8);
+			}
+		});
+	}
+
+	private <T> T execute(HttpRequestBase request, int maxAttempts, StreamHandler<T> handler) throws IOException {
+		request.setHeader("Content-Type", "application/json");
+		request.setHeader("Accept", "application/json");
+
+		HttpStatusException statusError = null;
+		// repeat requests failed by the service like HttpConnector, client errors are reported immediately
+		for (int attempt = 0; attempt < maxAttempts; attempt++) {
+			if (attempt > 0)
+				Backoff.DEFAULT.pause(attempt);
+			CloseableHttpResponse response = httpClient.execute(request);
+			try {
+				HttpEntity entity = response.getEntity();
+				int statusCode = response.getStatusLine().getStatusCode();
+				if (statusCode == 200) {
+					if (entity == null)
+						return handler.handle(new ByteArrayInputStream(new byte[0]));
+					// closing the content releases the connection, even if the handler stopped early
+					try (InputStream stream = entity.getContent()) {
+						return handler.handle(stream);
+					}
+				}
+
+				// release the connection back to the pool
+				EntityUtils.consume(entity);
+				statusError = new HttpStatusException(statusCode, response.getStatusLine().getReasonPhrase());
+				if (!HttpConnector.isRetryable(statusCode))
+					break;
+			} finally {
+				response.close();
+			}
+		}
+		throw statusError;
+	}
+
+	private static URI toUri(String urlStr) throws MalformedURLException {
+		try {
+			return new URL(urlStr).toURI();
+		} catch (URISyntaxException e) {
+			throw new MalformedURLException(e.getMessage());
+		}
+	}
+
+}
@@ -0,0 +1,87 @@
+package monitoring.connector;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import monitoring.beans.RouteGeometry;
+import monitoring.beans.RouteResult;
+import monitoring.connector.HttpConnectorInterface.StreamHandler;
+
+/**
+ * Decodes a response of the routing service while it is received. Points go
+ * straight into the route geometry, neither the response string nor a JSON
+ * tree are built. Unknown fields are skipped.
+ */
+public class RouteResultReader implements StreamHandler<RouteResult> {
+
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	/**
+	 * Returns null for an empty response.
+	 */
+	@Override
+	public RouteResult handle(InputStream stream) throws IOException {
+		try (JsonParser parser = JSON_FACTORY.createParser(stream)) {
+			return read(parser);
+		}
+	}
+
+	private RouteResult read(JsonParser parser) throws IOException {
+		if (parser.nextToken() == null)
+			return null;
+		if (parser.getCurrentToken() != JsonToken.START_OBJECT)
+			throw new JsonParseException(parser, "Expected route object");
+
+		RouteGeometry pointList = null;
+		Integer timeInMs = null;
+		Double distance = null;
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			String field = parser.getCurrentName();
+			JsonToken value = parser.nextToken();
+			if (field.equals("pointList") && value == JsonToken.START_ARRAY)
+				pointList = readPointList(parser);
+			else if (field.equals("timeInMs") && value.isNumeric())
+				timeInMs = parser.getIntValue();
+			else if (field.equals("distance") && value.isNumeric())
+				distance = parser.getDoubleValue();
+			else
+				parser.skipChildren();
+		}
+
+		if (pointList == null || timeInMs == null || distance == null)
+			throw new JsonParseException(parser, "Route is missing pointList, timeInMs or distance");
+		return new RouteResult(pointList, timeInMs, distance);
+	}
+
+	private RouteGeometry readPointList(JsonParser parser) throws IOException {
+		RouteGeometry.Builder builder = new RouteGeometry.Builder(256);
+		JsonToken token;
+		while ((token = parser.nextToken()) == JsonToken.START_ARRAY) {
+			double latitude = readCoordinate(parser);
+			double longitude = readCoordinate(parser);
+			// further values like the elevation are ignored
+			while ((token = parser.nextToken()) != JsonToken.END_ARRAY) {
+				if (token == null)
+					throw new JsonParseException(parser, "Unexpected end of point");
+				parser.skipChildren();
+			}
+			builder.add(latitude, longitude);
+		}
+		if (token != JsonToken.END_ARRAY)
+			throw new JsonParseException(parser, "Expected point as array of latitude and longitude");
+		return builder.build();
+	}
+
+	private double readCoordinate(JsonParser parser) throws IOException {
+		JsonToken token = parser.nextToken();
+		if (token == null || !token.isNumeric())
+			throw new JsonParseException(parser, "Expected coordinate");
+		return parser.getDoubleValue();
+	}
+
+}
@@ -1,25 +1,46 @@
 package monitoring.connector;
 
 import java.io.IOException;
-import java.net.MalformedURLException;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
-import org.json.JSONArray;
-import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.MoreExecutors;
 
 import monitoring.beans.GeoPoint;
+import monitoring.beans.RouteGeometry;
+import monitoring.beans.RouteResult;
+import monitoring.cache.RouteCache;
+import monitoring.cache.RouteCache.RouteKey;
+import monitoring.connector.HttpConnectorInterface.StreamHandler;
+import monitoring.exceptions.HttpStatusException;
 import monitoring.exceptions.RoutingNotFoundException;
+import monitoring.exceptions.UpstreamUnavailableException;
+import monitoring.metrics.MetricsRegistry;
+import monitoring.metrics.Timer;
+import monitoring.resilience.UpstreamGuard;
+import monitoring.utility.SingleFlight;
 
 @Component
 public class RoutingConnector {
 
-	private HttpConnector connector;
+	private static final Logger LOGGER = LoggerFactory.getLogger(RoutingConnector.class);
+	private static final RouteResultReader ROUTE_READER = new RouteResultReader();
+
+	@Autowired
+	private HttpConnectorInterface connector;
 
 	@Value("${url.routingservice}")
 	private String urlRoutingService;
@@ -27,55 +48,122 @@ public class RoutingConnector {
 	@Value("${url.routingservice.auth}")
 	private boolean requiresToken;
 
-	@Value("${url.authlayer}")
-	private String urlAuthLayer;
+	@Autowired
+	private AuthTokenProvider tokenProvider;
+
+	@Autowired
+	private RouteCache routeCache;
+
+	@Autowired
+	@Qualifier("routingGuard")
+	private UpstreamGuard guard;
+
+	// looked up once, every lookup in the registry builds the key of the labels
+	private Timer parsingTimer;
+	private Timer authTimer;
 
-	@Value("${url.authlayer.user}")
-	private String urlAuthLayerUser;
+	@Autowired
+	@Qualifier("upstreamExecutor")
+	private Executor upstreamExecutor;
 
-	@Value("${url.authlayer.pw}")
-	private String urlAuthLayerUserPw;
+	@Value("${routing.stages.parallelism:4}")
+	private int stageParallelism = 4;
+
+	private final SingleFlight<RouteKey, RouteResult> routeRequests = new SingleFlight<RouteKey, RouteResult>();
 
 	public RoutingConnector() {
-		this.connector = new HttpConnector();
+		this(new HttpConnector(), new RouteCache(25, 120, 2000000));
+	}
+
+	public RoutingConnector(HttpConnectorInterface connector, RouteCache routeCache) {
+		this.connector = connector;
+		this.routeCache = routeCache;
+		MetricsRegistry metrics = new MetricsRegistry();
+		setMetrics(metrics);
+		this.guard = new UpstreamGuard("routing", 32, 1000, 5, 30000, null, metrics);
+		// stages of multi-stop routes are requested one after another
+		this.upstreamExecutor = MoreExecutors.directExecutor();
+	}
+
+	@Autowired
+	public void setMetrics(MetricsRegistry metrics) {
+		this.parsingTimer = metrics.timer("report_stage_seconds", "stage", "parsing");
+		this.authTimer = metrics.timer("report_stage_seconds", "stage", "auth");
+	}
+
+	public RouteResult getRouteResult(final GeoPoint start,
+			final GeoPoint end) throws RoutingNotFoundException {
+		// nearby start and end points share one cached route, concurrent callers share one lookup
+		final RouteKey key = routeCache.getKey(start, end);
+		try {
+			return routeRequests.execute(key, new Callable<RouteResult>() {
+				@Override
+				public RouteResult call() throws RoutingNotFoundException {
+					return routeCache.get(key, new Callable<RouteResult>() {
+						@Override
+						public RouteResult call() throws RoutingNotFoundException {
+							return requestRouteResult(start, end);
+						}
+					});
+				}
+			});
+		} catch (RoutingNotFoundException | RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new RoutingNotFoundException("Could not load route", e);
+		}
 	}
 
-	public synchronized int getTravelTime(GeoPoint start,
+	public SingleFlight<RouteKey, RouteResult> getRouteRequests() {
+		return routeRequests;
+	}
+
+	public UpstreamGuard getGuard() {
+		return guard;
+	}
+
+	private RouteResult requestRouteResult(GeoPoint start,
+			GeoPoint end) throws RoutingNotFoundException {
+		// travel time, distance and geometry are all part of the same response
+		RouteResult result = doRequest(createUrlString(start, end), new StreamHandler<RouteResult>() {
+			@Override
+			public RouteResult handle(InputStream stream) throws IOException {
+				// parsed while received, so the time includes the transfer of the body
+				long parseStart = System.nanoTime();
+				try {
+					return ROUTE_READER.handle(stream);
+				} finally {
+					parsingTimer.recordSince(parseStart);
+				}
+			}
+		});
+		if (result == null) {
+			guard.recordError("EmptyResponse");
+			throw new RoutingNotFoundException("Empty response from routing service");
+		}
+		
+		return result;
+	}
+
+	public int getTravelTime(GeoPoint start,
 			GeoPoint end) throws Exception {
-		String result = doRequest(createUrlString(start, end));
-		if (result == null || result.equals(""))
-			throw new RoutingNotFoundException("There's a problem with the connection");
-		return this.connector.getJSONObjectResult(result).getInt("timeInMs");
+		return getRouteResult(start, end).getTimeInMs();
 		
 	}
 
-	public synchronized double getTravelDistance(GeoPoint start,
+	public double getTravelDistance(GeoPoint start,
 			GeoPoint end) throws IOException, RoutingNotFoundException {
-		String result = doRequest(createUrlString(start, end));
-		if (result == null || result.equals(""))
-			throw new RoutingNotFoundException("There's a problem with the connection");
-		return this.connector.getJSONObjectResult(result).getDouble("distance");
+		return getRouteResult(start, end).getDistance();
 		
 	}
 	
-	public synchronized List<Double[]> getGPSCoordinates(GeoPoint start,
+	public RouteGeometry getGPSCoordinates(GeoPoint start,
 			GeoPoint end) {
 		
-		List<Double[]> pointList = Lists.newLinkedList();
+		RouteGeometry pointList = RouteGeometry.empty();
 		
 		try {
-			String result = doRequest(createUrlString(start, end));
-			if (result == null || result.equals(""))
-				throw new RoutingNotFoundException("There's a problem with the connection");
-			JSONArray jsonArray = this.connector.getJSONObjectResult(result).getJSONArray("pointList");
-			
-			for (int index = 0; index < jsonArray.length(); index++) {
-				JSONArray points = jsonArray.getJSONArray(index);
-				Double[] pointArray = new Double[2];
-				pointArray[0] = points.getDouble(0);
-				pointArray[1] = points.getDouble(1);
-				pointList.add(pointArray);
-			}
+			pointList = getRouteResult(start, end).getPointList();
 		} catch (Exception e) {
 			//
 		}
@@ -83,27 +171,85 @@ public class RoutingConnector {
 		
 	}
 	
-	public synchronized List<Double[]> getRoute(GeoPoint[] points) {
-		
-		List<Double[]> pointList = Lists.newLinkedList();
+	/**
+	 * Route along all points, null if a stage can not be routed. The stages are
+	 * requested in parallel, see {@link #getRouteResults}.
+	 */
+	public RouteGeometry getRoute(GeoPoint[] points) {
 		
-		for (int i = 0; i < points.length - 1; i++) {
-			List<Double[]> stage = Lists.newLinkedList();
-			stage = getGPSCoordinates(points[i], points[i+1]);
+		List<CompletableFuture<RouteResult>> results = getRouteResults(Arrays.asList(points), upstreamExecutor, stageParallelism);
+		List<RouteGeometry> stages = Lists.newArrayListWithCapacity(results.size());
+		for (CompletableFuture<RouteResult> result : results) {
+			RouteGeometry stage = result.handle((route, ex) -> ex == null ? route.getPointList() : null).join();
 			
 			if (stage == null || stage.isEmpty())
 				return null;
-			else {
-				if (i == 0)
-					pointList.addAll(stage);
-				else {
-					stage.remove(0);
-					pointList.addAll(stage);
-				}
+			else
+				stages.add(stage);
+		}
+
+		// stages are shared with the route cache, they are copied once into the joined route
+		return RouteGeometry.concat(stages);
+	}
+
+	/**
+	 * Routes between consecutive points, one future per stage, see
+	 * {@link #getRouteResults(List, List, Executor, int)}.
+	 */
+	public List<CompletableFuture<RouteResult>> getRouteResults(List<GeoPoint> points, Executor executor, int parallelism) {
+		int stageCount = Math.max(points.size() - 1, 0);
+		return getRouteResults(points.subList(0, stageCount), points.subList(points.size() - stageCount, points.size()),
+				executor, parallelism);
+	}
+
+	/**
+	 * Routes from every start to the end with the same index, one future per
+	 * stage. Stages run in at most parallelism lanes on the executor, each lane
+	 * works through every n-th stage. Cached stages and stages requested
+	 * concurrently by others are not requested again.
+	 */
+	public List<CompletableFuture<RouteResult>> getRouteResults(final List<GeoPoint> starts, final List<GeoPoint> ends,
+			Executor executor, int parallelism) {
+		
+		int stageCount = Math.min(starts.size(), ends.size());
+		List<CompletableFuture<RouteResult>> stages = Lists.newArrayListWithCapacity(stageCount);
+		for (int i = 0; i < stageCount; i++)
+			stages.add(new CompletableFuture<RouteResult>());
+		
+		int laneCount = Math.min(Math.max(parallelism, 1), stageCount);
+		for (int lane = 0; lane < laneCount; lane++) {
+			CompletableFuture<Void> laneFuture = CompletableFuture.completedFuture(null);
+			for (int index = lane; index < stageCount; index += laneCount) {
+				final int stage = index;
+				final CompletableFuture<RouteResult> result = stages.get(stage);
+				// a failed stage does not stop the lane
+				laneFuture = laneFuture.thenRunAsync(() -> {
+					try {
+						result.complete(getRouteResult(starts.get(stage), ends.get(stage)));
+					} catch (Exception e) {
+						result.completeExceptionally(e);
+					}
+				}, executor);
 			}
 		}
+		return stages;
+	}
 
-		return pointList;
+	/**
+	 * Fetches the auth token ahead of the routing request, so it can run
+	 * concurrently to other work like the tracking lookup.
+	 */
+	public void prefetchToken() {
+		if (!requiresToken)
+			return;
+		long start = System.nanoTime();
+		try {
+			tokenProvider.getToken();
+		} catch (IOException e) {
+			// the routing request will try again
+		} finally {
+			authTimer.recordSince(start);
+		}
 	}
 
 	private String createUrlString(GeoPoint start,
@@ -115,46 +261,38 @@ public class RoutingConnector {
 			throw new RoutingNotFoundException("Coordinate missing. Can not perform routing!");
 	}
 
-	private String doRequest(String urlStr){
-		String result = null;
+	private <T> T doRequest(final String urlStr, final StreamHandler<T> handler) throws RoutingNotFoundException {
 		try {
-			if (requiresToken) {
-				// get authentication token first
-				String POST_PAYLOAD = "{" + "\"username\"" + ":" + "\"" + urlAuthLayerUser
-						+ "\"" + "," + "\"password\"" + ":" + "\"" + urlAuthLayerUserPw + "\"" + "}";
-				String token = "";
-
-				try {
-					String jsonResponse = connector.getConnectionAuthenticationString(urlAuthLayer,
-							POST_PAYLOAD);
-					JSONObject tokenJSON = new JSONObject(jsonResponse);
-					if(tokenJSON.has("token")) {
-						token = tokenJSON.getString("token");
-					} else {
-						return null;
-					}
-				} catch (KeyManagementException | NoSuchAlgorithmException| IOException e1) {
-					e1.printStackTrace();
-				}
-				token = "Token " + token;
-
-				try {
-					result = connector.getConnectionStringWithToken(urlStr, token);
-				} catch (KeyManagementException e) {
-					e.printStackTrace();
-				} catch (NoSuchAlgorithmException e) {
-					e.printStackTrace();
-				} catch (MalformedURLException e) {
-					e.printStackTrace();
+			// rejected right away while the routing service is failing or saturated
+			return guard.call(new Callable<T>() {
+				@Override
+				public T call() throws Exception {
+					return requestWithToken(urlStr, handler);
 				}
-			}
-			else {
-				result = this.connector.getConnectionString(urlStr);
-			}
-		} catch (IOException e) {
-			System.out.println("ERROR: Could not update graph with recent travel times: " + e.getClass().getSimpleName() + " - " +  e.getMessage());
+			});
+		} catch (UpstreamUnavailableException e) {
+			throw new RoutingNotFoundException("Routing service unavailable", e);
+		} catch (JsonProcessingException e) {
+			throw new RoutingNotFoundException("Unexpected response from routing service", e);
+		} catch (Exception e) {
+			LOGGER.warn("Could not load route from routing service", e);
+			throw new RoutingNotFoundException("Could not load route from routing service", e);
 		}
+	}
+
+	private <T> T requestWithToken(String urlStr, StreamHandler<T> handler) throws Exception {
+		if (!requiresToken)
+			return connector.getConnectionStream(urlStr, null, handler);
 		
-		return result;
+		// token is cached by the provider, a rejected token is renewed once
+		String token = tokenProvider.getToken();
+		try {
+			return connector.getConnectionStream(urlStr, token, handler);
+		} catch (HttpStatusException e) {
+			if (!e.isUnauthorized())
+				throw e;
+			tokenProvider.invalidate(token);
+			return connector.getConnectionStream(urlStr, tokenProvider.getToken(), handler);
+		}
 	}
 }
@@ -1,54 +1,83 @@
 package monitoring.connector;
 
-import java.io.IOException;
-import java.net.MalformedURLException;
-import java.security.KeyManagementException;
-import java.security.NoSuchAlgorithmException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
+import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
-import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
 
 import org.json.JSONArray;
 import org.json.JSONObject;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Component;
 
+import com.google.common.base.Joiner;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+
 import monitoring.beans.GeoPoint;
-import monitoring.connector.HttpConnector;
+import monitoring.beans.TrackedPosition;
+import monitoring.cache.PositionStore;
 import monitoring.connector.HttpConnectorInterface.RestRequestType;
+import monitoring.exceptions.HttpStatusException;
+import monitoring.exceptions.UpstreamUnavailableException;
+import monitoring.resilience.UpstreamGuard;
+import monitoring.utility.SingleFlight;
 
 @Component
 public class TrackingConnector {
 
-	private HttpConnector connector;
+	private static final Logger LOGGER = LoggerFactory.getLogger(TrackingConnector.class);
+	private static final DateTimeFormatter TRACKING_DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss", Locale.GERMAN);
+	private static final Comparator<TrackedPosition> NEWEST_FIRST = new Comparator<TrackedPosition>() {
+		@Override
+		public int compare(TrackedPosition positionA, TrackedPosition positionB) {
+			return Long.compare(positionB.getTimestamp(), positionA.getTimestamp());
+		}
+	};
+
+	@Autowired
+	private HttpConnectorInterface connector;
 
 	@Value("${url.trackingservice}")
-	private String urlRoutingService;
+	private String urlTrackingService;
 
-	@Value("${url.routingservice.auth}")
+	@Value("${url.trackingservice.auth}")
 	private boolean requiresToken;
 
-	@Value("${url.authlayer}")
-	private String urlAuthLayer;
+	@Autowired
+	private AuthTokenProvider tokenProvider;
+
+	@Autowired
+	@Qualifier("trackingGuard")
+	private UpstreamGuard guard;
 
-	@Value("${url.authlayer.user}")
-	private String urlAuthLayerUser;
+	private final SingleFlight<String, List<TrackedPosition>> positionRequests = new SingleFlight<String, List<TrackedPosition>>();
 
-	@Value("${url.authlayer.pw}")
-	private String urlAuthLayerUserPw;
 	public TrackingConnector() {
-		this.connector = new HttpConnector();
+		this(new HttpConnector());
+	}
+
+	public TrackingConnector(HttpConnectorInterface connector) {
+		this.connector = connector;
+		this.guard = new UpstreamGuard("tracking", 32, 1000, 5, 30000, null);
 	}
 	
-	public synchronized String setCurrentPosition(String trackingId, GeoPoint pos) throws Exception {
+	public String setCurrentPosition(String trackingId, GeoPoint pos) throws Exception {
 		
-		String 	urlStr = doRequest(createUrlString(trackingId, "put"));
+		String 	urlStr = createUrlString(trackingId, "put");
 		ZonedDateTime trackingTime = new Date().toInstant().atZone(ZoneId.of("Europe/Berlin"));
 		DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'");
 		
@@ -68,11 +97,10 @@ public class TrackingConnector {
 		return this.connector.getConnectionString(urlStr, urlParameters, RestRequestType.PUT);
 	}
 	
-	public synchronized HashMap<String,GeoPoint> getCurrentPositions() throws Exception {
+	public HashMap<String,GeoPoint> getCurrentPositions() throws Exception {
 		
 		HashMap<String,GeoPoint> positions = new HashMap<String,GeoPoint>();
-		String urlStr = doRequest("url.trackingservice");
-		String result = this.connector.getConnectionString(urlStr);
+		String result = doRequest(urlTrackingService + "getPositionData");
 		
 		if (result != null && !result.equals("")) {	
 			JSONArray jsonResult = new JSONArray(result);
@@ -88,36 +116,124 @@ public class TrackingConnector {
 		return positions;
 	}
 	
-	public synchronized GeoPoint getCurrentPosition(String trackingId) throws Exception {
-		String urlStr = createUrlString(trackingId, "get");
-		String result = this.connector.getConnectionString(urlStr);
+	/**
+	 * Fetches the current positions of several devices with one request.
+	 * Devices without a recent position are missing in the result.
+	 */
+	public HashMap<String,TrackedPosition> getTrackedPositions(Collection<String> trackingIds) throws Exception {
+		
+		HashMap<String,TrackedPosition> positions = new HashMap<String,TrackedPosition>();
+		ListMultimap<String,TrackedPosition> fixes = getTrackedFixes(trackingIds);
+		for (String trackId : fixes.keySet())
+			positions.put(trackId, fixes.get(trackId).get(0));
+		
+		return positions;
+	}
+	
+	/**
+	 * Fetches the recent fixes of several devices with one request, newest
+	 * first. Devices without a recent position are missing in the result.
+	 */
+	public ListMultimap<String,TrackedPosition> getTrackedFixes(Collection<String> trackingIds) throws Exception {
+		
+		ListMultimap<String,TrackedPosition> fixes = ArrayListMultimap.create();
+		if (trackingIds.isEmpty())
+			return fixes;
+		
+		String result = doRequest(createUrlString(Joiner.on(',').join(trackingIds), "get"));
+		
+		if (result != null && result.length() >= 10) {
+			JSONArray jsonResult = new JSONArray(result);
+			
+			for (int i = 0; i < jsonResult.length(); i++) {
+				JSONObject obj = jsonResult.getJSONObject(i);
+				String trackId = obj.getString("id");
+				TrackedPosition position = getRecentPosition(trackId, obj);
+				if (position != null)
+					fixes.put(trackId, position);
+			}
+		}
+		
+		for (String trackId : fixes.keySet())
+			Collections.sort(fixes.get(trackId), NEWEST_FIRST);
+		return fixes;
+	}
+	
+	public GeoPoint getCurrentPosition(String trackingId) throws Exception {
+		TrackedPosition position = getTrackedPosition(trackingId);
+		return position == null ? null : position.toGeoPoint();
+	}
+	
+	public TrackedPosition getTrackedPosition(String trackingId) throws Exception {
+		List<TrackedPosition> fixes = getTrackedFixes(trackingId);
+		return fixes.isEmpty() ? null : fixes.get(0);
+	}
+	
+	/**
+	 * Recent fixes of the device, newest first. Concurrent requests for the
+	 * same device share one request to the tracking service.
+	 */
+	public List<TrackedPosition> getTrackedFixes(final String trackingId) throws Exception {
+		return positionRequests.execute(trackingId, new Callable<List<TrackedPosition>>() {
+			@Override
+			public List<TrackedPosition> call() throws Exception {
+				return requestTrackedFixes(trackingId);
+			}
+		});
+	}
+	
+	public SingleFlight<String, List<TrackedPosition>> getPositionRequests() {
+		return positionRequests;
+	}
+	
+	public UpstreamGuard getGuard() {
+		return guard;
+	}
+	
+	private List<TrackedPosition> requestTrackedFixes(String trackingId) throws Exception {
+		String result = doRequest(createUrlString(trackingId, "get"));
 
+		List<TrackedPosition> fixes = Lists.newArrayList();
 		if(result == null) {
-			return null;
+			return fixes;
 		} else if(result.length() < 10) {
-			return null;
+			return fixes;
 		}
 		
 		JSONArray positionArray = new JSONArray(result);
-		JSONObject positions = (JSONObject) positionArray.get(0);
-		
-		// check if tracking really returns a current timestamp
-		DateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.GERMAN);
-		Date trackingTime = format.parse(positions.getString("date"));
-		
-		Calendar cal = Calendar.getInstance();
-		cal.setTime(new Date());
-		cal.add(Calendar.HOUR,-12);
+		for (int i = 0; i < positionArray.length(); i++) {
+			TrackedPosition position = getRecentPosition(trackingId, positionArray.getJSONObject(i));
+			if (position != null)
+				fixes.add(position);
+		}
 		
-		Date controlTime = cal.getTime();
+		Collections.sort(fixes, NEWEST_FIRST);
+		return fixes;
+	}
+
+	private TrackedPosition getRecentPosition(String trackingId, JSONObject positions) {
 		
-		if (controlTime.after(trackingTime))
+		// check if tracking really returns a current timestamp
+		long trackingTime = parseTrackingTime(positions.getString("date"));
+		if (trackingTime < System.currentTimeMillis() - PositionStore.MAX_POSITION_AGE_MS)
 			return null;
 		
-		return new GeoPoint(positions.getDouble("latitude"), positions.getDouble("longitude"));
+		TrackedPosition position = new TrackedPosition(trackingId, positions.getDouble("latitude"), positions.getDouble("longitude"), trackingTime);
+		// measured by the device like the location of its platform, 0 if unknown
+		position.setAccuracy(positions.optDouble("accuracy", 0));
+		position.setSpeed(positions.optDouble("speed", 0));
+		position.setBearing(positions.optDouble("bearing", 0));
+		return position;
+	}
+	
+	/**
+	 * Parses the local date and time at the beginning of a tracking date
+	 * like "2017-11-02T10:15:30.000Z", any remainder is ignored.
+	 */
+	static long parseTrackingTime(String date) {
+		LocalDateTime trackingTime = LocalDateTime.parse(date.substring(0, Math.min(date.length(), 19)), TRACKING_DATE_FORMAT);
+		return trackingTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
 	}
-
-
 
 	private String createUrlString(String trackingId, String mode) {
 
@@ -127,50 +243,42 @@ public class TrackingConnector {
 		else
 			idParameter = "/beuth/" + trackingId;
 		
-		return doRequest("url.trackingservice") + mode + "PositionData" + idParameter;
+		return urlTrackingService + mode + "PositionData" + idParameter;
 	}
 
-	private String doRequest(String urlStr){
+	private String doRequest(final String urlStr){
 		String result = null;
 		try {
-			if (requiresToken) {
-				// get authentication token first
-				String POST_PAYLOAD = "{" + "\"username\"" + ":" + "\"" + urlAuthLayerUser
-						+ "\"" + "," + "\"password\"" + ":" + "\"" + urlAuthLayerUserPw + "\"" + "}";
-				String token = "";
-
-				try {
-					String jsonResponse = connector.getConnectionAuthenticationString(urlAuthLayer,
-							POST_PAYLOAD);
-					JSONObject tokenJSON = new JSONObject(jsonResponse);
-					if(tokenJSON.has("token")) {
-						token = tokenJSON.getString("token");
-					} else {
-						return null;
-					}
-				} catch (KeyManagementException | NoSuchAlgorithmException| IOException e1) {
-					e1.printStackTrace();
-				}
-				token = "Token " + token;
-
-				try {
-					result = connector.getConnectionStringWithToken(urlStr, token);
-				} catch (KeyManagementException e) {
-					e.printStackTrace();
-				} catch (NoSuchAlgorithmException e) {
-					e.printStackTrace();
-				} catch (MalformedURLException e) {
-					e.printStackTrace();
+			// rejected right away while the tracking service is failing or saturated
+			result = guard.call(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return requestWithToken(urlStr);
 				}
-			}
-			else {
-				result = this.connector.getConnectionString(urlStr);
-			}
-		} catch (IOException e) {
-			System.out.println("ERROR: Could not update graph with recent travel times: " + e.getClass().getSimpleName() + " - " +  e.getMessage());
+			});
+		} catch (UpstreamUnavailableException e) {
+			LOGGER.warn("Tracking service unavailable: {}", e.getMessage());
+		} catch (Exception e) {
+			LOGGER.warn("Could not get position data from tracking service", e);
 		}
 		
 		return result;
 	}
 
+	private String requestWithToken(String urlStr) throws Exception {
+		if (!requiresToken)
+			return connector.getConnectionString(urlStr);
+		
+		// token is cached by the provider, a rejected token is renewed once
+		String token = tokenProvider.getToken();
+		try {
+			return connector.getConnectionStringWithToken(urlStr, token);
+		} catch (HttpStatusException e) {
+			if (!e.isUnauthorized())
+				throw e;
+			tokenProvider.invalidate(token);
+			return connector.getConnectionStringWithToken(urlStr, tokenProvider.getToken());
+		}
+	}
+
 }
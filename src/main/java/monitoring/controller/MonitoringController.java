@@ -1,24 +1,46 @@
 package monitoring.controller;
 
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 import org.json.simple.JSONObject;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
-import org.springframework.http.ResponseEntity.BodyBuilder;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.ExceptionHandler;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
 import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
+import monitoring.beans.Appointment;
+import monitoring.beans.Geofence;
+import monitoring.beans.GeofenceEvent;
+import monitoring.beans.MonitoringRequest;
 import monitoring.beans.Report;
+import monitoring.beans.TourRequest;
+import monitoring.beans.TrackedPosition;
+import monitoring.beans.TravelMode;
+import monitoring.cache.PositionStore;
+import monitoring.exceptions.InputParameterErrorException;
 import monitoring.exceptions.InternalMonitoringErrorException;
+import monitoring.utility.RouteFormat;
 import io.swagger.annotations.Api;
 import io.swagger.annotations.ApiOperation;
 import io.swagger.annotations.ApiParam;
 import monitoring.component.MonitoringService;
+import monitoring.component.SubscriptionService;
+import monitoring.geofence.GeofenceService;
+import monitoring.prefetch.PlannedTour;
+import monitoring.prefetch.TourPrefetcher;
 
 @CrossOrigin(origins = "*")
 @RestController
@@ -28,6 +50,24 @@ public class MonitoringController {
 	@Autowired
 	private MonitoringService monitoringService;
 	
+	@Autowired
+	private SubscriptionService subscriptionService;
+	
+	@Autowired
+	private GeofenceService geofenceService;
+	
+	@Autowired
+	private TourPrefetcher tourPrefetcher;
+	
+	@Value("${monitoring.batch.maxsize:500}")
+	private int batchMaxSize;
+	
+	@Value("${monitoring.tour.maxsize:50}")
+	private int tourMaxSize;
+	
+	@Value("${monitoring.schedule.maxsize:200}")
+	private int scheduleMaxSize;
+	
 	@RequestMapping(value = "/v1/monitoring", method = RequestMethod.GET)
     @ApiOperation(
     		value="Get status report using current position of monitored device",
@@ -35,7 +75,7 @@ public class MonitoringController {
     		response=Report.class,
     		produces="application/json")
     @ResponseBody
-    public JSONObject monitoring(
+    public CompletableFuture<JSONObject> monitoring(
     		@ApiParam(name="deviceId", value="Id of monitored device (use 'demo' to see test result)", defaultValue="") 
     		@RequestParam(value="deviceId",	defaultValue="", required=true) String deviceId,
     		
@@ -49,16 +89,316 @@ public class MonitoringController {
     		@RequestParam(value="appointmentLon", defaultValue="0.0", required=true) Double longitude,
     		
     		@ApiParam(name="delay", value="Known current delay in minutes", defaultValue="5")
-    		@RequestParam(value="delay", defaultValue="0") Integer delay
-    		) throws InternalMonitoringErrorException {
+    		@RequestParam(value="delay", defaultValue="0") Integer delay,
+    		
+    		@ApiParam(name="format", value="Format of routeNext: 'points' as list of coordinates or 'polyline' as encoded polyline string", defaultValue="points")
+    		@RequestParam(value="format", defaultValue="points") String format,
+    		
+    		@ApiParam(name="precision", value="Decimals of the encoded polyline (1 to 7)", defaultValue="5")
+    		@RequestParam(value="precision", defaultValue="${monitoring.polyline.precision:5}") Integer precision,
+    		
+    		@ApiParam(name="simplify", value="Tolerance in meters to simplify routeNext, 0 keeps all points", defaultValue="0")
+    		@RequestParam(value="simplify", defaultValue="0") Double simplify,
+    		
+    		@ApiParam(name="mode", value="Travel mode for estimates without routing service: 'car', 'bike' or 'foot'", defaultValue="car")
+    		@RequestParam(value="mode", required=false) String mode
+    		) throws InputParameterErrorException {
         
-		JSONObject response = monitoringService.getReport(deviceId, timestamp, latitude, longitude, delay);
-		return response;
+		RouteFormat routeFormat = getRouteFormat(format, precision, simplify);
+		
+		// the servlet thread is released while tracking and routing are queried
+		return monitoringService.getReportAsync(deviceId, timestamp, latitude, longitude, delay, routeFormat, getTravelMode(mode));
+    }
+    
+    @RequestMapping(value = "/v1/monitoring/subscribe", method = RequestMethod.GET, produces = "text/event-stream")
+    @ApiOperation(
+    		value="Subscribe to status reports of a monitored device",
+    	    notes="Sendet Status-Reports für deviceID als Server-Sent Events, sobald sich Position, Ankunftszeit oder Status ändern",
+    		response=Report.class,
+    		produces="text/event-stream")
+    public SseEmitter subscribe(
+    		@ApiParam(name="deviceId", value="Id of monitored device (use 'demo' to see test result)", defaultValue="") 
+    		@RequestParam(value="deviceId",	defaultValue="", required=true) String deviceId,
+    		
+    		@ApiParam(name="timestamp", value="Unix timestamp in milliseconds of upcoming appointment (Note: GMT time zone required!)", defaultValue="1521802800000")
+    		@RequestParam(value="timestamp", defaultValue="1521802800000", required=true) Long timestamp,
+    		
+    		@ApiParam(name="appointmentLat", value="Latitude of upcoming appointment", defaultValue="51.029")
+    		@RequestParam(value="appointmentLat", defaultValue="0.0", required=true) Double latitude,
+    		
+    		@ApiParam(name="appointmentLon", value="Longitude of upcoming appointment", defaultValue="13.736") 
+    		@RequestParam(value="appointmentLon", defaultValue="0.0", required=true) Double longitude,
+    		
+    		@ApiParam(name="delay", value="Known current delay in minutes", defaultValue="5")
+    		@RequestParam(value="delay", defaultValue="0") Integer delay,
+    		
+    		@ApiParam(name="format", value="Format of routeNext: 'points' as list of coordinates or 'polyline' as encoded polyline string", defaultValue="points")
+    		@RequestParam(value="format", defaultValue="points") String format,
+    		
+    		@ApiParam(name="precision", value="Decimals of the encoded polyline (1 to 7)", defaultValue="5")
+    		@RequestParam(value="precision", defaultValue="${monitoring.polyline.precision:5}") Integer precision,
+    		
+    		@ApiParam(name="simplify", value="Tolerance in meters to simplify routeNext, 0 keeps all points", defaultValue="0")
+    		@RequestParam(value="simplify", defaultValue="0") Double simplify,
+    		
+    		@ApiParam(name="mode", value="Travel mode for estimates without routing service: 'car', 'bike' or 'foot'", defaultValue="car")
+    		@RequestParam(value="mode", required=false) String mode
+    		) throws InputParameterErrorException {
+    	
+    	RouteFormat routeFormat = getRouteFormat(format, precision, simplify);
+    	
+    	MonitoringRequest request = new MonitoringRequest(deviceId, timestamp, latitude, longitude, delay);
+    	request.setMode(getTravelMode(mode));
+    	
+    	// subscribers of the same device and appointment share one computation
+    	return subscriptionService.subscribe(request, routeFormat);
+    }
+    
+    @RequestMapping(value = "/v1/monitoring/batch", method = RequestMethod.POST)
+    @ApiOperation(
+    		value="Get status reports for several monitored devices at once",
+    	    notes="Erstellt Status-Reports für mehrere deviceIDs. Fehler werden je Eintrag gemeldet",
+    		response=Report.class,
+    		responseContainer="List",
+    		produces="application/json")
+    @ResponseBody
+    public CompletableFuture<List<JSONObject>> monitoringBatch(
+    		@ApiParam(name="requests", value="Device ids and upcoming appointments")
+    		@RequestBody List<MonitoringRequest> requests
+    		) throws InputParameterErrorException {
+    	
+    	// invalid entries are reported per entry
+    	if (requests == null)
+    		throw new InputParameterErrorException("List of requests required");
+    	if (requests.size() > batchMaxSize)
+    		throw new InputParameterErrorException("Batch size is limited to " + batchMaxSize + " entries");
+    	
+		return monitoringService.getBatchReport(requests);
+    }
+    
+    @RequestMapping(value = "/v1/monitoring/tour", method = RequestMethod.POST)
+    @ApiOperation(
+    		value="Get status report for the next appointment and expected arrival at all remaining appointments of the day",
+    	    notes="Erstellt Status-Report für deviceID mit Route, Ankunftszeit und Verspätung für alle folgenden Termine",
+    		response=Report.class,
+    		produces="application/json")
+    @ResponseBody
+    public CompletableFuture<JSONObject> monitoringTour(
+    		@ApiParam(name="request", value="Device id and remaining appointments in the order they are visited")
+    		@RequestBody TourRequest request,
+    		
+    		@ApiParam(name="format", value="Format of routeNext and routeTotal: 'points' as list of coordinates or 'polyline' as encoded polyline string", defaultValue="points")
+    		@RequestParam(value="format", defaultValue="points") String format,
+    		
+    		@ApiParam(name="precision", value="Decimals of the encoded polyline (1 to 7)", defaultValue="5")
+    		@RequestParam(value="precision", defaultValue="${monitoring.polyline.precision:5}") Integer precision,
+    		
+    		@ApiParam(name="simplify", value="Tolerance in meters to simplify the routes, 0 keeps all points", defaultValue="0")
+    		@RequestParam(value="simplify", defaultValue="0") Double simplify
+    		) throws InputParameterErrorException {
+    	
+    	if (request.getDeviceId() == null || request.getAppointments() == null || request.getAppointments().isEmpty())
+    		throw new InputParameterErrorException("Device id and at least one appointment required");
+    	if (request.getAppointments().size() > tourMaxSize)
+    		throw new InputParameterErrorException("Tours are limited to " + tourMaxSize + " appointments");
+    	
+		return monitoringService.getTourReport(request, getRouteFormat(format, precision, simplify));
+    }
+    
+    @RequestMapping(value = "/v1/monitoring/schedule", method = RequestMethod.POST)
+    @ApiOperation(
+    		value="Get expected arrival, delay and time status at all remaining appointments of the day, without routes",
+    	    notes="Erstellt eine Prognose für alle folgenden Termine von deviceID unter Berücksichtigung der Termindauer. Für häufige Aktualisierung langer Touren",
+    		response=Report.class,
+    		produces="application/json")
+    @ResponseBody
+    public CompletableFuture<JSONObject> monitoringSchedule(
+    		@ApiParam(name="request", value="Device id and remaining appointments with their duration in the order they are visited")
+    		@RequestBody TourRequest request
+    		) throws InputParameterErrorException {
+    	
+    	if (request.getDeviceId() == null || request.getAppointments() == null || request.getAppointments().isEmpty())
+    		throw new InputParameterErrorException("Device id and at least one appointment required");
+    	if (request.getAppointments().size() > scheduleMaxSize)
+    		throw new InputParameterErrorException("Schedules are limited to " + scheduleMaxSize + " appointments");
+    	
+		return monitoringService.getScheduleReport(request);
+    }
+    
+    @RequestMapping(value = "/v1/monitoring/tours/{deviceId}", method = RequestMethod.PUT)
+    @ApiOperation(
+    		value="Register the appointments of the day of a device, the travel times between them are prefetched",
+    	    notes="Registriert die Termine des Tages für deviceID. Die Fahrzeiten zwischen den Terminen werden im Hintergrund berechnet")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void registerTour(
+    		@ApiParam(name="deviceId", value="Id of monitored device")
+    		@PathVariable("deviceId") String deviceId,
+    		
+    		@ApiParam(name="appointments", value="Appointments of the day in the order they are visited")
+    		@RequestBody List<Appointment> appointments
+    		) throws InputParameterErrorException {
+    	
+    	if (appointments == null || appointments.isEmpty())
+    		throw new InputParameterErrorException("At least one appointment required");
+    	if (appointments.size() > scheduleMaxSize)
+    		throw new InputParameterErrorException("Tours are limited to " + scheduleMaxSize + " appointments");
+    	tourPrefetcher.register(deviceId, appointments);
+    }
+    
+    @RequestMapping(value = "/v1/monitoring/tours/{deviceId}", method = RequestMethod.GET)
+    @ApiOperation(
+    		value="Get the registered appointments of a device with the prefetched travel times",
+    	    notes="Liefert die registrierten Termine von deviceID mit den bereits berechneten Fahrzeiten",
+    		response=PlannedTour.class,
+    		produces="application/json")
+    public ResponseEntity<PlannedTour> tour(
+    		@ApiParam(name="deviceId", value="Id of monitored device")
+    		@PathVariable("deviceId") String deviceId
+    		) {
+    	
+    	PlannedTour tour = tourPrefetcher.getTour(deviceId);
+    	if (tour == null)
+    		return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    	return ResponseEntity.ok(tour);
+    }
+    
+    @RequestMapping(value = "/v1/monitoring/tours/{deviceId}", method = RequestMethod.DELETE)
+    @ApiOperation(
+    		value="Remove the registered appointments of a device",
+    	    notes="Entfernt die registrierten Termine von deviceID")
+    public ResponseEntity<Void> unregisterTour(
+    		@ApiParam(name="deviceId", value="Id of monitored device")
+    		@PathVariable("deviceId") String deviceId
+    		) {
+    	
+    	if (!tourPrefetcher.unregister(deviceId))
+    		return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    	return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+    }
+    
+    @RequestMapping(value = "/v1/monitoring/positions", method = RequestMethod.POST)
+    @ApiOperation(
+    		value="Push current positions of monitored devices",
+    	    notes="Übernimmt aktuelle Positionen für nachfolgende Status-Reports")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void positions(
+    		@ApiParam(name="positions", value="Device ids with position and Unix timestamp in milliseconds of the fix")
+    		@RequestBody List<TrackedPosition> positions
+    		) throws InputParameterErrorException {
+    	
+    	if (positions == null)
+    		throw new InputParameterErrorException("List of positions required");
+    	long now = System.currentTimeMillis();
+    	for (int i = 0; i < positions.size(); i++) {
+    		TrackedPosition position = positions.get(i);
+    		if (position == null || position.getDeviceId() == null || position.getDeviceId().isEmpty())
+    			throw new InputParameterErrorException("Device id required in entry " + i);
+    		// a fix from the future would replace all later ones
+    		if (position.getTimestamp() <= 0 || position.getTimestamp() > now + PositionStore.MAX_CLOCK_SKEW_MS)
+    			throw new InputParameterErrorException("Timestamp of entry " + i + " must be a past Unix time in milliseconds");
+    		if (!(Math.abs(position.getLatitude()) <= 90) || !(Math.abs(position.getLongitude()) <= 180))
+    			throw new InputParameterErrorException("Coordinates of entry " + i + " out of range");
+    	}
+    	
+    	// fixes older than 12 hours are ignored
+		monitoringService.updatePositions(positions);
+    }
+    
+    @RequestMapping(value = "/v1/monitoring/geofences", method = RequestMethod.POST)
+    @ApiOperation(
+    		value="Register appointment locations to detect arrivals and departures of devices",
+    	    notes="Registriert Termin-Orte mit Radius. Ankunft und Abfahrt werden als Ereignisse gemeldet")
+    @ResponseStatus(HttpStatus.NO_CONTENT)
+    public void registerGeofences(
+    		@ApiParam(name="geofences", value="Ids, locations and radius in meters of appointments, optionally with the expected device id")
+    		@RequestBody List<Geofence> geofences
+    		) throws InputParameterErrorException {
+    	
+    	try {
+    		for (Geofence geofence : geofences)
+    			geofenceService.register(geofence);
+    	} catch (IllegalArgumentException e) {
+    		throw new InputParameterErrorException(e.getMessage());
+    	}
+    }
+    
+    @RequestMapping(value = "/v1/monitoring/geofences", method = RequestMethod.GET)
+    @ApiOperation(
+    		value="Get registered appointment locations",
+    	    notes="Liefert alle registrierten Termin-Orte",
+    		response=Geofence.class,
+    		responseContainer="List",
+    		produces="application/json")
+    @ResponseBody
+    public Collection<Geofence> geofences() {
+    	return geofenceService.getGeofences();
+    }
+    
+    @RequestMapping(value = "/v1/monitoring/geofences/{id}", method = RequestMethod.DELETE)
+    @ApiOperation(
+    		value="Remove a registered appointment location",
+    	    notes="Entfernt einen Termin-Ort")
+    public ResponseEntity<Void> unregisterGeofence(
+    		@ApiParam(name="id", value="Id of the geofence")
+    		@PathVariable("id") String id
+    		) {
+    	
+    	if (!geofenceService.unregister(id))
+    		return ResponseEntity.status(HttpStatus.NOT_FOUND).build();
+    	return ResponseEntity.status(HttpStatus.NO_CONTENT).build();
+    }
+    
+    @RequestMapping(value = "/v1/monitoring/geofences/events", method = RequestMethod.GET)
+    @ApiOperation(
+    		value="Get arrivals at and departures from appointment locations",
+    	    notes="Liefert Ankunfts- und Abfahrtsereignisse nach der angegebenen Sequenznummer",
+    		response=GeofenceEvent.class,
+    		responseContainer="List",
+    		produces="application/json")
+    @ResponseBody
+    public List<GeofenceEvent> geofenceEvents(
+    		@ApiParam(name="after", value="Sequence number of the last event read, -1 for all events still in the feed", defaultValue="-1")
+    		@RequestParam(value="after", defaultValue="-1") Long after,
+    		
+    		@ApiParam(name="limit", value="Max number of events (1 to 10000)", defaultValue="1000")
+    		@RequestParam(value="limit", defaultValue="1000") Integer limit
+    		) throws InputParameterErrorException {
+    	
+    	if (limit < 1 || limit > 10000)
+    		throw new InputParameterErrorException("Limit must be between 1 and 10000");
+    	return geofenceService.getEvents(after, limit);
+    }
+    
+    private RouteFormat getRouteFormat(String format, int precision, double simplify) throws InputParameterErrorException {
+    	
+    	if (simplify < 0)
+    		throw new InputParameterErrorException("Simplify tolerance must not be negative");
+    	if (format.equals("points"))
+    		return RouteFormat.points(simplify);
+    	if (!format.equals("polyline"))
+    		throw new InputParameterErrorException("Unknown route format " + format);
+    	if (precision < 1 || precision > 7)
+    		throw new InputParameterErrorException("Polyline precision must be between 1 and 7");
+    	return RouteFormat.polyline(precision, simplify);
+    }
+    
+    private TravelMode getTravelMode(String mode) throws InputParameterErrorException {
+    	
+    	try {
+    		return TravelMode.fromString(mode);
+    	} catch (IllegalArgumentException e) {
+    		throw new InputParameterErrorException("Unknown travel mode " + mode);
+    	}
+    }
+    
+    @ExceptionHandler(value = InputParameterErrorException.class)
+    public ResponseEntity<Void> inputParameterError() {
+    	return ResponseEntity.status(HttpStatus.BAD_REQUEST).build();
     }
     
     @ExceptionHandler(value = InternalMonitoringErrorException.class)
-    public BodyBuilder monitoringError() {
-    	return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR);
+    public ResponseEntity<Void> monitoringError() {
+    	return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
     }
     
     
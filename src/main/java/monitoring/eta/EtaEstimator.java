@@ -0,0 +1,17 @@
+package monitoring.eta;
+
+import monitoring.beans.GeoPoint;
+import monitoring.beans.RouteResult;
+import monitoring.beans.TravelMode;
+
+/**
+ * Estimates route, travel time and distance of a device to its appointment.
+ */
+public interface EtaEstimator {
+	
+	/**
+	 * Never null, if nothing can be estimated the result has no points and a travel time of 0.
+	 */
+	public RouteResult estimate(String deviceId, GeoPoint position, GeoPoint appointment, TravelMode mode);
+	
+}
@@ -0,0 +1,84 @@
+package monitoring.eta;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import monitoring.beans.GeoPoint;
+import monitoring.beans.RouteResult;
+import monitoring.beans.TravelMode;
+import monitoring.cache.DeviceSessionStore;
+import monitoring.cache.PositionHistory;
+import monitoring.connector.RoutingConnector;
+import monitoring.prefetch.TourPrefetcher;
+
+/**
+ * Estimate along the route of the routing service. The remaining part of the
+ * last route of the device is reused while it is still on it. If the routing
+ * service fails or is unavailable the expired route, the prefetched leg of
+ * the tour or the straight line estimate is used and the result is marked as
+ * degraded.
+ */
+@Component
+public class RoutingEtaEstimator implements EtaEstimator {
+	
+	private final RoutingConnector routingConnector;
+	private final DeviceSessionStore sessionStore;
+	private final StraightLineEtaEstimator fallbackEstimator;
+	private final TourPrefetcher tourPrefetcher;
+	private final PositionHistory positionHistory;
+	
+	@Autowired
+	public RoutingEtaEstimator(
+			RoutingConnector routingConnector,
+			DeviceSessionStore sessionStore,
+			StraightLineEtaEstimator fallbackEstimator,
+			TourPrefetcher tourPrefetcher,
+			PositionHistory positionHistory) {
+		this.routingConnector = routingConnector;
+		this.sessionStore = sessionStore;
+		this.fallbackEstimator = fallbackEstimator;
+		this.tourPrefetcher = tourPrefetcher;
+		this.positionHistory = positionHistory;
+	}
+	
+	@Override
+	public RouteResult estimate(String deviceId, GeoPoint position, GeoPoint appointment, TravelMode mode) {
+		
+		if (position == null || appointment == null)
+			// no route and no travel time available
+			return new RouteResult();
+		
+		RouteResult remainingRoute = sessionStore.getRemainingRoute(
+				deviceId, position, appointment, positionHistory.getAccuracy(deviceId));
+		if (remainingRoute != null)
+			return remainingRoute;
+		
+		RouteResult routeNext;
+		try {
+			routeNext = routingConnector.getRouteResult(position, appointment);
+		}
+		catch (Exception ex) {
+			// failed or rejected, the travel time is estimated without the routing service
+			return getDegradedRoute(deviceId, position, appointment, mode);
+		}
+		
+		if (!routeNext.getPointList().isEmpty())
+			sessionStore.setRoute(deviceId, appointment, routeNext);
+		return routeNext;
+	}
+	
+	private RouteResult getDegradedRoute(String deviceId, GeoPoint position, GeoPoint appointment, TravelMode mode) {
+		
+		RouteResult degradedRoute = sessionStore.getStaleRoute(deviceId, position, appointment);
+		if (degradedRoute == null) {
+			degradedRoute = fallbackEstimator.estimate(deviceId, position, appointment, mode);
+			// the prefetched travel time knows the roads, only the route is the straight line
+			Integer travelTime = tourPrefetcher.getInterpolatedTravelTime(deviceId, position, appointment);
+			if (travelTime != null)
+				degradedRoute.setTimeInMs(travelTime);
+		}
+		degradedRoute.setDegraded(true);
+		return degradedRoute;
+	}
+	
+}
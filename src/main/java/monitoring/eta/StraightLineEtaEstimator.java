@@ -0,0 +1,49 @@
+package monitoring.eta;
+
+import java.util.EnumMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import monitoring.beans.GeoPoint;
+import monitoring.beans.RouteGeometry;
+import monitoring.beans.RouteResult;
+import monitoring.beans.TravelMode;
+import monitoring.utility.DistanceCalculator;
+
+/**
+ * Local estimate without any upstream call: the great-circle distance times a
+ * detour factor, travelled at the average speed of the travel mode. The route
+ * is the straight line to the appointment.
+ */
+@Component
+public class StraightLineEtaEstimator implements EtaEstimator {
+	
+	private final double detourFactor;
+	// meters per second
+	private final EnumMap<TravelMode, Double> speeds = new EnumMap<TravelMode, Double>(TravelMode.class);
+	
+	@Autowired
+	public StraightLineEtaEstimator(
+			@Value("${monitoring.eta.detour:1.3}") double detourFactor,
+			@Value("${monitoring.eta.speed.car:30}") double carSpeedKmh,
+			@Value("${monitoring.eta.speed.bike:15}") double bikeSpeedKmh,
+			@Value("${monitoring.eta.speed.foot:5}") double footSpeedKmh) {
+		this.detourFactor = detourFactor;
+		speeds.put(TravelMode.CAR, carSpeedKmh / 3.6);
+		speeds.put(TravelMode.BIKE, bikeSpeedKmh / 3.6);
+		speeds.put(TravelMode.FOOT, footSpeedKmh / 3.6);
+	}
+	
+	@Override
+	public RouteResult estimate(String deviceId, GeoPoint position, GeoPoint appointment, TravelMode mode) {
+		
+		double distance = DistanceCalculator.getDistance(position, appointment) * detourFactor;
+		double speed = speeds.get(mode == null ? TravelMode.CAR : mode);
+		RouteGeometry straightLine = RouteGeometry.of(new double[] {
+				position.getLatitude(), position.getLongitude(), appointment.getLatitude(), appointment.getLongitude()});
+		return new RouteResult(straightLine, (int) Math.round(distance / speed * 1000), distance);
+	}
+	
+}
@@ -0,0 +1,24 @@
+package monitoring.exceptions;
+
+import java.io.IOException;
+
+public class HttpStatusException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int statusCode;
+
+	public HttpStatusException(int statusCode, String message) {
+		super(statusCode + " " + message);
+		this.statusCode = statusCode;
+	}
+
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	public boolean isUnauthorized() {
+		return statusCode == 401;
+	}
+
+}
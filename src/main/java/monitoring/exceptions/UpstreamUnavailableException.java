@@ -0,0 +1,17 @@
+package monitoring.exceptions;
+
+import java.io.IOException;
+
+/**
+ * A call to an upstream service was not made, because its circuit is open
+ * or too many calls are pending already.
+ */
+public class UpstreamUnavailableException extends IOException {
+	
+	private static final long serialVersionUID = 1L;
+
+	public UpstreamUnavailableException(String message) {
+		super(message);
+	}
+
+}
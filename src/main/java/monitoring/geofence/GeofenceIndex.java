@@ -0,0 +1,167 @@
+package monitoring.geofence;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.collect.Lists;
+
+import monitoring.beans.Geofence;
+import monitoring.utility.DistanceCalculator;
+import monitoring.utility.GeoPointBatch;
+
+/**
+ * Grid of cells holding every geofence whose circle touches the cell. A
+ * position is matched by looking up its single cell and checking the few
+ * geofences in it, so the cost does not grow with the number of geofences.
+ * Cells are replaced on change, lookups do not lock.
+ */
+public class GeofenceIndex {
+
+	private final double cellDegrees;
+	private final ConcurrentHashMap<Long, Cell> cells = new ConcurrentHashMap<Long, Cell>();
+	private final ConcurrentHashMap<String, Geofence> geofences = new ConcurrentHashMap<String, Geofence>();
+
+	public GeofenceIndex(double cellMeters) {
+		this.cellDegrees = cellMeters / DistanceCalculator.METERS_PER_DEGREE;
+	}
+
+	/**
+	 * Adds the geofence, replacing the one with the same id.
+	 */
+	public synchronized Geofence put(Geofence geofence) {
+		Geofence previous = remove(geofence.getId());
+		geofences.put(geofence.getId(), geofence);
+		for (long cell : getCells(geofence)) {
+			Cell entries = cells.get(cell);
+			Geofence[] updated;
+			if (entries == null) {
+				updated = new Geofence[] { geofence };
+			} else {
+				updated = new Geofence[entries.geofences.length + 1];
+				System.arraycopy(entries.geofences, 0, updated, 0, entries.geofences.length);
+				updated[entries.geofences.length] = geofence;
+			}
+			cells.put(cell, new Cell(updated));
+		}
+		return previous;
+	}
+
+	public synchronized Geofence remove(String id) {
+		Geofence geofence = geofences.remove(id);
+		if (geofence == null)
+			return null;
+		for (long cell : getCells(geofence)) {
+			Cell entries = cells.get(cell);
+			if (entries == null)
+				continue;
+			if (entries.geofences.length == 1) {
+				cells.remove(cell);
+				continue;
+			}
+			Geofence[] updated = new Geofence[entries.geofences.length - 1];
+			int index = 0;
+			for (Geofence entry : entries.geofences) {
+				if (entry != geofence && index < updated.length)
+					updated[index++] = entry;
+			}
+			cells.put(cell, new Cell(updated));
+		}
+		return geofence;
+	}
+
+	public Geofence get(String id) {
+		return geofences.get(id);
+	}
+
+	public Collection<Geofence> getGeofences() {
+		return Collections.unmodifiableCollection(geofences.values());
+	}
+
+	public int size() {
+		return geofences.size();
+	}
+
+	public int getCellCount() {
+		return cells.size();
+	}
+
+	/**
+	 * Geofences of the device containing the position.
+	 */
+	public List<Geofence> findContaining(double latitude, double longitude, String deviceId) {
+		int row = getRow(latitude);
+		Cell cell = cells.get(getKey(row, getColumn(row, longitude)));
+		if (cell == null)
+			return Collections.emptyList();
+
+		// distances to all centers of the cell in one pass
+		double[] distances = new double[cell.geofences.length];
+		cell.centers.getDistances(latitude, longitude, distances);
+		List<Geofence> found = null;
+		for (int i = 0; i < distances.length; i++) {
+			Geofence entry = cell.geofences[i];
+			if (!entry.appliesTo(deviceId) || distances[i] > entry.getRadius())
+				continue;
+			if (found == null)
+				found = Lists.newArrayListWithCapacity(2);
+			found.add(entry);
+		}
+		return found != null ? found : Collections.<Geofence>emptyList();
+	}
+
+	private List<Long> getCells(Geofence geofence) {
+		// bounding box of the circle, longitudes widened for the row closest to the pole
+		double radiusDegrees = geofence.getRadius() / DistanceCalculator.METERS_PER_DEGREE;
+		int firstRow = getRow(geofence.getLatitude() - radiusDegrees);
+		int lastRow = getRow(geofence.getLatitude() + radiusDegrees);
+		double maxLatitude = Math.min(Math.abs(geofence.getLatitude()) + radiusDegrees, 89.0);
+		double lonRadiusDegrees = radiusDegrees / Math.cos(Math.toRadians(maxLatitude));
+
+		List<Long> keys = Lists.newArrayList();
+		for (int row = firstRow; row <= lastRow; row++) {
+			int firstColumn = getColumn(row, geofence.getLongitude() - lonRadiusDegrees);
+			int lastColumn = getColumn(row, geofence.getLongitude() + lonRadiusDegrees);
+			for (int column = firstColumn; column <= lastColumn; column++)
+				keys.add(getKey(row, column));
+		}
+		return keys;
+	}
+
+	private int getRow(double latitude) {
+		return (int) Math.floor(latitude / cellDegrees);
+	}
+
+	private int getColumn(int row, double longitude) {
+		// cells keep their width in meters towards the poles
+		double rowLatitude = Math.min(Math.abs((row + 0.5) * cellDegrees), 89.0);
+		double lonDegrees = cellDegrees / Math.cos(Math.toRadians(rowLatitude));
+		return (int) Math.floor(longitude / lonDegrees);
+	}
+
+	private static long getKey(int row, int column) {
+		return ((long) row << 32) | (column & 0xffffffffL);
+	}
+
+	/**
+	 * Geofences touching a cell with their centers as batch.
+	 */
+	private static final class Cell {
+
+		private final Geofence[] geofences;
+		private final GeoPointBatch centers;
+
+		private Cell(Geofence[] geofences) {
+			this.geofences = geofences;
+			double[] latitudes = new double[geofences.length];
+			double[] longitudes = new double[geofences.length];
+			for (int i = 0; i < geofences.length; i++) {
+				latitudes[i] = geofences[i].getLatitude();
+				longitudes[i] = geofences[i].getLongitude();
+			}
+			this.centers = GeoPointBatch.of(latitudes, longitudes);
+		}
+	}
+
+}
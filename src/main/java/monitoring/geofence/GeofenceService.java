@@ -0,0 +1,254 @@
+package monitoring.geofence;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.google.common.collect.Lists;
+
+import monitoring.beans.GeoPoint;
+import monitoring.beans.Geofence;
+import monitoring.beans.GeofenceEvent;
+import monitoring.beans.TrackedPosition;
+import monitoring.beans.WorkingStatus.LocationStatus;
+import monitoring.utility.DistanceCalculator;
+
+/**
+ * Detects arrivals at and departures from registered appointment locations.
+ * Every position received is matched against the geofence index, a change of
+ * the geofences containing the device is written to a bounded event feed.
+ * Reports ask for the current status of the device at its appointment
+ * instead of comparing distances themselves.
+ */
+@Component
+public class GeofenceService {
+
+	private final GeofenceIndex index;
+	private final double defaultRadius;
+	private final double maxRadius;
+	private final long idleMs;
+	private final ConcurrentHashMap<String, DeviceState> states = new ConcurrentHashMap<String, DeviceState>();
+
+	// ring of the latest events, an event is at its sequence number modulo the size
+	private final GeofenceEvent[] feed;
+	private long nextSequence;
+
+	@Autowired
+	public GeofenceService(
+			@Value("${monitoring.geofence.cell:500}") double cellMeters,
+			@Value("${monitoring.eta.arrivaldistance:100}") double defaultRadius,
+			@Value("${monitoring.geofence.maxradius:5000}") double maxRadius,
+			@Value("${monitoring.geofence.feedsize:10000}") int feedSize,
+			@Value("${tracking.store.idle:600}") long idleSeconds) {
+		this.index = new GeofenceIndex(cellMeters);
+		this.defaultRadius = defaultRadius;
+		this.maxRadius = maxRadius;
+		this.idleMs = TimeUnit.SECONDS.toMillis(idleSeconds);
+		this.feed = new GeofenceEvent[feedSize];
+	}
+
+	/**
+	 * Adds the geofence or replaces the one with the same id. Devices already
+	 * inside get their arrival event with their next position.
+	 */
+	public void register(Geofence geofence) {
+		if (geofence.getId() == null || geofence.getId().isEmpty())
+			throw new IllegalArgumentException("Geofence without id");
+		if (geofence.getRadius() < 0 || geofence.getRadius() > maxRadius)
+			throw new IllegalArgumentException("Geofence radius must be between 0 and " + maxRadius + " m");
+		if (geofence.getRadius() == 0)
+			geofence.setRadius(defaultRadius);
+		index.put(geofence);
+	}
+
+	/**
+	 * Removes the geofence without departure events.
+	 */
+	public boolean unregister(String id) {
+		final Geofence geofence = index.remove(id);
+		if (geofence == null)
+			return false;
+		for (String deviceId : states.keySet()) {
+			states.computeIfPresent(deviceId, (key, state) -> state.without(geofence.getId()));
+		}
+		return true;
+	}
+
+	public Collection<Geofence> getGeofences() {
+		return index.getGeofences();
+	}
+
+	public int size() {
+		return index.size();
+	}
+
+	/**
+	 * Matches the position against the index and returns the arrival and
+	 * departure events it caused. Fixes older than the last one of the device
+	 * are ignored. A fix counts as an arrival or departure only if it is
+	 * inside or outside the geofence by more than its accuracy, so GPS jitter
+	 * at the border keeps the last state. The accuracy counts up to half the
+	 * radius, so inaccurate fixes at the center still arrive.
+	 */
+	public List<GeofenceEvent> update(final TrackedPosition position) {
+		final List<Geofence> containing = index.findContaining(
+				position.getLatitude(), position.getLongitude(), position.getDeviceId());
+		if (containing.isEmpty() && !states.containsKey(position.getDeviceId()))
+			return Collections.emptyList();
+
+		final List<GeofenceEvent> events = Lists.newArrayListWithCapacity(2);
+		states.compute(position.getDeviceId(), (deviceId, state) -> {
+			if (state != null && state.timestamp > position.getTimestamp())
+				return state;
+
+			List<String> inside = Lists.newArrayListWithCapacity(containing.size());
+			for (Geofence geofence : containing) {
+				boolean wasInside = state != null && state.contains(geofence.getId());
+				if (wasInside) {
+					inside.add(geofence.getId());
+				} else if (getDistance(geofence, position) + getBand(geofence, position) <= geofence.getRadius()) {
+					inside.add(geofence.getId());
+					events.add(createEvent(geofence.getId(), position, LocationStatus.AT_APPOINTMENT));
+				}
+			}
+			if (state != null) {
+				for (String geofenceId : state.inside) {
+					if (inside.contains(geofenceId))
+						continue;
+					Geofence geofence = index.get(geofenceId);
+					if (geofence != null && getDistance(geofence, position) - getBand(geofence, position) <= geofence.getRadius())
+						inside.add(geofenceId);
+					else
+						events.add(createEvent(geofenceId, position, LocationStatus.ON_THE_MOVE));
+				}
+			}
+			// published while the device is locked, so its events keep their order in the feed
+			for (GeofenceEvent event : events)
+				publish(event);
+			return new DeviceState(inside.toArray(new String[inside.size()]), position.getTimestamp(), System.currentTimeMillis());
+		});
+		return events;
+	}
+
+	/**
+	 * Status of the device at the geofence registered for the appointment
+	 * location, null if there is none. Devices without state have not been
+	 * inside any of their geofences.
+	 */
+	public LocationStatus getLocationStatus(String deviceId, GeoPoint appointmentLocation) {
+		List<Geofence> geofences = index.findContaining(
+				appointmentLocation.getLatitude(), appointmentLocation.getLongitude(), deviceId);
+		if (geofences.isEmpty())
+			return null;
+		DeviceState state = states.get(deviceId);
+		if (state == null)
+			return LocationStatus.ON_THE_MOVE;
+		for (Geofence geofence : geofences) {
+			if (state.contains(geofence.getId()))
+				return LocationStatus.AT_APPOINTMENT;
+		}
+		return LocationStatus.ON_THE_MOVE;
+	}
+
+	/**
+	 * Events after the given sequence number, oldest first. Events dropped
+	 * from the feed are skipped.
+	 */
+	public synchronized List<GeofenceEvent> getEvents(long afterSequence, int limit) {
+		long first = Math.max(Math.max(afterSequence + 1, 0), nextSequence - feed.length);
+		long last = Math.min(nextSequence, first + limit);
+		List<GeofenceEvent> events = Lists.newArrayListWithCapacity((int) Math.max(last - first, 0));
+		for (long sequence = first; sequence < last; sequence++)
+			events.add(feed[(int) (sequence % feed.length)]);
+		return events;
+	}
+
+	public synchronized long getLastSequence() {
+		return nextSequence - 1;
+	}
+
+	/**
+	 * Devices outside of all geofences are dropped after the idle time.
+	 */
+	@Scheduled(fixedDelayString = "${tracking.store.refresh:10000}", initialDelayString = "${tracking.store.refresh:10000}")
+	public void removeIdleDevices() {
+		long now = System.currentTimeMillis();
+		Iterator<Map.Entry<String, DeviceState>> iterator = states.entrySet().iterator();
+		while (iterator.hasNext()) {
+			DeviceState state = iterator.next().getValue();
+			if (state.inside.length == 0 && now - state.updatedAt > idleMs)
+				iterator.remove();
+		}
+	}
+
+	public int getDeviceCount() {
+		return states.size();
+	}
+
+	private static double getDistance(Geofence geofence, TrackedPosition position) {
+		return DistanceCalculator.getDistance(geofence.getLatitude(), geofence.getLongitude(),
+				position.getLatitude(), position.getLongitude());
+	}
+
+	private static double getBand(Geofence geofence, TrackedPosition position) {
+		return Math.min(Math.max(position.getAccuracy(), 0), geofence.getRadius() / 2);
+	}
+
+	private GeofenceEvent createEvent(String geofenceId, TrackedPosition position, LocationStatus locationStatus) {
+		return new GeofenceEvent(-1, geofenceId, position.getDeviceId(), locationStatus,
+				position.toGeoPoint(), position.getTimestamp());
+	}
+
+	private synchronized void publish(GeofenceEvent event) {
+		event.setSequence(nextSequence);
+		feed[(int) (nextSequence % feed.length)] = event;
+		nextSequence++;
+	}
+
+	private static boolean contains(String[] geofenceIds, String geofenceId) {
+		for (String id : geofenceIds) {
+			if (id.equals(geofenceId))
+				return true;
+		}
+		return false;
+	}
+
+	private static final class DeviceState {
+
+		private final String[] inside;
+		private final long timestamp;
+		private final long updatedAt;
+
+		private DeviceState(String[] inside, long timestamp, long updatedAt) {
+			this.inside = inside;
+			this.timestamp = timestamp;
+			this.updatedAt = updatedAt;
+		}
+
+		private boolean contains(String geofenceId) {
+			return GeofenceService.contains(inside, geofenceId);
+		}
+
+		private DeviceState without(String geofenceId) {
+			if (!contains(geofenceId))
+				return this;
+			String[] remaining = new String[inside.length - 1];
+			int index = 0;
+			for (String id : inside) {
+				if (!id.equals(geofenceId))
+					remaining[index++] = id;
+			}
+			return new DeviceState(remaining, timestamp, updatedAt);
+		}
+	}
+
+}
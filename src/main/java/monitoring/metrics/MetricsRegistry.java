@@ -0,0 +1,165 @@
+package monitoring.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Timers, counters and gauges of the service, written in the Prometheus text
+ * format. Meters are identified by name and tags given as key value pairs,
+ * e.g. timer("report_stage_seconds", "stage", "routing"). Looking up a
+ * meter builds the key of its labels, so meters updated on every request are
+ * looked up once and kept in a field.
+ */
+@Component
+public class MetricsRegistry {
+	
+	private static final double[] QUANTILES = {0.5, 0.9, 0.95, 0.99, 0.999};
+	
+	private final long percentileWindowMs;
+	private final ConcurrentHashMap<String, Family> families = new ConcurrentHashMap<String, Family>();
+	
+	public MetricsRegistry() {
+		this(120);
+	}
+	
+	@Autowired
+	public MetricsRegistry(@Value("${monitoring.metrics.window:120}") long percentileWindowSeconds) {
+		this.percentileWindowMs = TimeUnit.SECONDS.toMillis(percentileWindowSeconds);
+	}
+	
+	public Timer timer(String name, String... tags) {
+		return (Timer) family(name, Type.SUMMARY).get(tags);
+	}
+	
+	public LongAdder counter(String name, String... tags) {
+		return (LongAdder) family(name, Type.COUNTER).get(tags);
+	}
+	
+	/**
+	 * Counter kept by another component, read on every scrape.
+	 */
+	public void counter(String name, Supplier<Number> value, String... tags) {
+		family(name, Type.COUNTER).register(tags, value);
+	}
+	
+	/**
+	 * Current value of another component, read on every scrape.
+	 */
+	public void gauge(String name, Supplier<Number> value, String... tags) {
+		family(name, Type.GAUGE).register(tags, value);
+	}
+	
+	/**
+	 * All meters in the Prometheus text exposition format 0.0.4.
+	 */
+	public String scrape() {
+		StringBuilder output = new StringBuilder();
+		for (Family family : new TreeMap<String, Family>(families).values())
+			family.write(output);
+		return output.toString();
+	}
+	
+	private Family family(String name, Type type) {
+		Family family = families.get(name);
+		if (family == null) {
+			Family created = new Family(name, type);
+			family = families.putIfAbsent(name, created);
+			if (family == null)
+				family = created;
+		}
+		if (family.type != type)
+			throw new IllegalArgumentException("Metric " + name + " is a " + family.type);
+		return family;
+	}
+	
+	private enum Type {
+		COUNTER,
+		GAUGE,
+		SUMMARY
+	}
+	
+	private final class Family {
+		
+		private final String name;
+		private final Type type;
+		private final ConcurrentHashMap<String, Object> meters = new ConcurrentHashMap<String, Object>();
+		
+		private Family(String name, Type type) {
+			this.name = name;
+			this.type = type;
+		}
+		
+		private Object get(String[] tags) {
+			String labels = labels(tags);
+			Object meter = meters.get(labels);
+			if (meter == null) {
+				Object created = type == Type.SUMMARY ? new Timer(percentileWindowMs) : new LongAdder();
+				meter = meters.putIfAbsent(labels, created);
+				if (meter == null)
+					meter = created;
+			}
+			return meter;
+		}
+		
+		private void register(String[] tags, Supplier<Number> value) {
+			meters.put(labels(tags), value);
+		}
+		
+		private void write(StringBuilder output) {
+			output.append("# TYPE ").append(name).append(' ').append(type.name().toLowerCase()).append('\n');
+			for (Map.Entry<String, Object> entry : new TreeMap<String, Object>(meters).entrySet()) {
+				String labels = entry.getKey();
+				Object meter = entry.getValue();
+				if (meter instanceof Timer) {
+					Timer timer = (Timer) meter;
+					double[] percentiles = timer.getPercentiles(QUANTILES);
+					for (int i = 0; i < QUANTILES.length; i++)
+						writeSample(output, name, withLabel(labels, "quantile", Double.toString(QUANTILES[i])), percentiles[i]);
+					writeSample(output, name + "_count", labels, timer.getCount());
+					writeSample(output, name + "_sum", labels, timer.getTotalSeconds());
+				} else if (meter instanceof LongAdder) {
+					writeSample(output, name, labels, ((LongAdder) meter).sum());
+				} else {
+					@SuppressWarnings("unchecked")
+					Number value = ((Supplier<Number>) meter).get();
+					writeSample(output, name, labels, value == null ? Double.NaN : value.doubleValue());
+				}
+			}
+		}
+	}
+	
+	private static void writeSample(StringBuilder output, String name, String labels, double value) {
+		output.append(name);
+		if (!labels.isEmpty())
+			output.append('{').append(labels).append('}');
+		output.append(' ');
+		if (value == Math.rint(value) && !Double.isInfinite(value) && Math.abs(value) < 1e15)
+			output.append((long) value);
+		else
+			output.append(value);
+		output.append('\n');
+	}
+	
+	private static String labels(String[] tags) {
+		if (tags.length % 2 != 0)
+			throw new IllegalArgumentException("Tags must be key value pairs");
+		String labels = "";
+		for (int i = 0; i < tags.length; i += 2)
+			labels = withLabel(labels, tags[i], tags[i + 1]);
+		return labels;
+	}
+	
+	private static String withLabel(String labels, String key, String value) {
+		String label = key + "=\"" + value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n") + "\"";
+		return labels.isEmpty() ? label : labels + "," + label;
+	}
+	
+}
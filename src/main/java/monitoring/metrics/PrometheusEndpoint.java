@@ -0,0 +1,32 @@
+package monitoring.metrics;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.mvc.AbstractMvcEndpoint;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+
+/**
+ * Actuator endpoint /prometheus for scraping the metrics of the service.
+ */
+@Component
+@ConfigurationProperties(prefix = "endpoints.prometheus")
+public class PrometheusEndpoint extends AbstractMvcEndpoint {
+	
+	private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+	
+	@Autowired
+	private MetricsRegistry metrics;
+	
+	public PrometheusEndpoint() {
+		super("/prometheus", false);
+	}
+	
+	@GetMapping(produces = CONTENT_TYPE)
+	@ResponseBody
+	public String scrape() {
+		return metrics.scrape();
+	}
+	
+}
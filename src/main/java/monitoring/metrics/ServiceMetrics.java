@@ -0,0 +1,128 @@
+package monitoring.metrics;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+
+import javax.annotation.PostConstruct;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Component;
+
+import com.google.common.cache.CacheStats;
+
+import monitoring.cache.DeviceSessionStore;
+import monitoring.cache.PositionHistory;
+import monitoring.cache.PositionStore;
+import monitoring.cache.RouteCache;
+import monitoring.cache.TravelTimeMatrix;
+import monitoring.component.SubscriptionService;
+import monitoring.connector.PooledHttpConnector;
+import monitoring.connector.RoutingConnector;
+import monitoring.connector.TrackingConnector;
+import monitoring.geofence.GeofenceService;
+import monitoring.prefetch.TourPrefetcher;
+import monitoring.utility.SingleFlight;
+
+/**
+ * Registers the counters the caches, pools and connectors keep anyway, so
+ * they are read on scrape and cost nothing on the request path.
+ */
+@Component
+public class ServiceMetrics {
+	
+	@Autowired
+	private MetricsRegistry metrics;
+	@Autowired
+	private RouteCache routeCache;
+	@Autowired
+	private TravelTimeMatrix travelTimes;
+	@Autowired
+	private PositionStore positionStore;
+	@Autowired
+	private DeviceSessionStore sessionStore;
+	@Autowired
+	private RoutingConnector routingConnector;
+	@Autowired
+	private TrackingConnector trackingConnector;
+	@Autowired
+	private PooledHttpConnector httpConnector;
+	@Autowired
+	private SubscriptionService subscriptionService;
+	@Autowired
+	private GeofenceService geofenceService;
+	@Autowired
+	private PositionHistory positionHistory;
+	@Autowired
+	private TourPrefetcher tourPrefetcher;
+	@Autowired
+	@Qualifier("upstreamExecutor")
+	private ExecutorService upstreamExecutor;
+	
+	@PostConstruct
+	public void bind() {
+		
+		// hits and misses since start, the ratio covers the whole uptime and is 0 without requests
+		metrics.counter("cache_requests_total", () -> routeCache.getStats().hitCount(), "cache", "route", "result", "hit");
+		metrics.counter("cache_requests_total", () -> routeCache.getStats().missCount(), "cache", "route", "result", "miss");
+		metrics.counter("cache_requests_total", () -> travelTimes.getStats().hitCount(), "cache", "traveltime", "result", "hit");
+		metrics.counter("cache_requests_total", () -> travelTimes.getStats().missCount(), "cache", "traveltime", "result", "miss");
+		metrics.counter("cache_requests_total", positionStore::getHitCount, "cache", "position", "result", "hit");
+		metrics.counter("cache_requests_total", positionStore::getMissCount, "cache", "position", "result", "miss");
+		metrics.counter("cache_requests_total", routeCache::getFileLoadCount, "cache", "route", "result", "file");
+		metrics.counter("cache_requests_total", positionStore::getFileLoadCount, "cache", "position", "result", "file");
+		metrics.counter("cache_requests_total", sessionStore::getReusedRouteCount, "cache", "session", "result", "hit");
+		metrics.counter("cache_requests_total", sessionStore::getRequestedRouteCount, "cache", "session", "result", "miss");
+		metrics.gauge("cache_hit_ratio", () -> ratio(routeCache.getStats()), "cache", "route");
+		metrics.gauge("cache_hit_ratio", () -> ratio(travelTimes.getStats()), "cache", "traveltime");
+		metrics.gauge("cache_hit_ratio", () -> ratio(positionStore.getHitCount(), positionStore.getMissCount()), "cache", "position");
+		metrics.gauge("cache_hit_ratio", () -> ratio(sessionStore.getReusedRouteCount(), sessionStore.getRequestedRouteCount()), "cache", "session");
+		metrics.gauge("cache_size", routeCache::size, "cache", "route");
+		metrics.gauge("cache_size", travelTimes::size, "cache", "traveltime");
+		metrics.gauge("cache_size", positionStore::size, "cache", "position");
+		metrics.gauge("cache_size", sessionStore::size, "cache", "session");
+		metrics.gauge("cache_size", positionHistory::getDeviceCount, "cache", "history");
+		
+		bindSingleFlight("routing", routingConnector.getRouteRequests());
+		bindSingleFlight("tracking", trackingConnector.getPositionRequests());
+		
+		// saturation of the shared connection pool and of the threads waiting on upstreams
+		metrics.gauge("http_pool_connections", () -> httpConnector.getPoolStats().getLeased(), "state", "leased");
+		metrics.gauge("http_pool_connections", () -> httpConnector.getPoolStats().getAvailable(), "state", "available");
+		metrics.gauge("http_pool_connections", () -> httpConnector.getPoolStats().getPending(), "state", "pending");
+		metrics.gauge("http_pool_connections_max", () -> httpConnector.getPoolStats().getMax());
+		if (upstreamExecutor instanceof ThreadPoolExecutor) {
+			final ThreadPoolExecutor executor = (ThreadPoolExecutor) upstreamExecutor;
+			metrics.gauge("executor_threads_active", executor::getActiveCount, "executor", "upstream");
+			metrics.gauge("executor_threads_max", executor::getMaximumPoolSize, "executor", "upstream");
+			metrics.gauge("executor_queue_size", () -> executor.getQueue().size(), "executor", "upstream");
+		}
+		
+		metrics.gauge("subscription_topics", subscriptionService::getTopicCount);
+		metrics.gauge("subscription_subscribers", subscriptionService::getSubscriberCount);
+		metrics.counter("subscription_pushes_total", subscriptionService::getPushCount);
+		
+		metrics.gauge("geofences", geofenceService::size);
+		metrics.gauge("geofence_devices", geofenceService::getDeviceCount);
+		metrics.counter("geofence_events_total", () -> geofenceService.getLastSequence() + 1);
+		
+		metrics.gauge("prefetch_tours", () -> tourPrefetcher.getTours().size());
+		metrics.gauge("prefetch_legs_pending", tourPrefetcher::getPendingCount);
+		metrics.counter("prefetch_legs_total", tourPrefetcher::getRoutedCount, "result", "routed");
+		metrics.counter("prefetch_legs_total", tourPrefetcher::getFailedCount, "result", "failed");
+	}
+	
+	private void bindSingleFlight(String endpoint, SingleFlight<?, ?> requests) {
+		metrics.counter("upstream_coalesced_total", requests::getCoalescedCount, "endpoint", endpoint);
+		metrics.gauge("upstream_in_flight", requests::getInFlightCount, "endpoint", endpoint);
+	}
+	
+	private static double ratio(CacheStats stats) {
+		return ratio(stats.hitCount(), stats.missCount());
+	}
+	
+	private static double ratio(long hits, long misses) {
+		return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+	}
+	
+}
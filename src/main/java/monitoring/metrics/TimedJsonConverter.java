@@ -0,0 +1,37 @@
+package monitoring.metrics;
+
+import java.io.IOException;
+import java.lang.reflect.Type;
+
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Jackson converter of the responses, measuring the time to serialize them.
+ * The body is written straight into the (compressed) response stream, so
+ * the time includes compression.
+ */
+public class TimedJsonConverter extends MappingJackson2HttpMessageConverter {
+	
+	private final Timer serializationTimer;
+	
+	public TimedJsonConverter(ObjectMapper objectMapper, MetricsRegistry metrics) {
+		super(objectMapper);
+		this.serializationTimer = metrics.timer("report_stage_seconds", "stage", "serialization");
+	}
+	
+	@Override
+	protected void writeInternal(Object object, Type type, HttpOutputMessage outputMessage)
+			throws IOException, HttpMessageNotWritableException {
+		long start = System.nanoTime();
+		try {
+			super.writeInternal(object, type, outputMessage);
+		} finally {
+			serializationTimer.recordSince(start);
+		}
+	}
+	
+}
@@ -0,0 +1,138 @@
+package monitoring.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Latency histogram with log-linear buckets: every power of two is split into
+ * 32 buckets, so percentiles are off by less than 3.2% at any scale from one
+ * microsecond to hours. Count and sum are kept since start, percentiles cover
+ * only the recent window, so they follow a change of latency within minutes.
+ */
+public class Timer {
+	
+	private static final int SUB_BITS = 5;
+	private static final int SUB_COUNT = 1 << SUB_BITS;
+	// up to 2^40 microseconds, about 12 days
+	private static final int BUCKET_COUNT = (40 - SUB_BITS + 1) * SUB_COUNT;
+	private static final int SLOTS = 4;
+	
+	private final long slotMs;
+	private final AtomicLongArray[] slots = new AtomicLongArray[SLOTS];
+	private volatile int currentSlot;
+	private volatile long nextRotation;
+	
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	
+	/**
+	 * Percentiles cover the last window, older samples are dropped in quarters.
+	 */
+	public Timer(long windowMs) {
+		this.slotMs = Math.max(1, windowMs / SLOTS);
+		for (int slot = 0; slot < SLOTS; slot++)
+			slots[slot] = new AtomicLongArray(BUCKET_COUNT);
+		this.nextRotation = System.currentTimeMillis() + slotMs;
+	}
+	
+	public void record(long durationNanos) {
+		long nanos = Math.max(0, durationNanos);
+		count.increment();
+		totalNanos.add(nanos);
+		rotateIfDue();
+		slots[currentSlot].incrementAndGet(bucketIndex(TimeUnit.NANOSECONDS.toMicros(nanos)));
+	}
+	
+	/**
+	 * Records the time passed since the given System.nanoTime().
+	 */
+	public void recordSince(long startNanos) {
+		record(System.nanoTime() - startNanos);
+	}
+	
+	public long getCount() {
+		return count.sum();
+	}
+	
+	public double getTotalSeconds() {
+		return totalNanos.sum() / 1e9;
+	}
+	
+	/**
+	 * Latency in seconds below which the given fraction of calls in the window
+	 * completed, 0 without calls.
+	 */
+	public double getPercentile(double fraction) {
+		return getPercentiles(fraction)[0];
+	}
+	
+	/**
+	 * Several percentiles in seconds from one pass over the window.
+	 */
+	public double[] getPercentiles(double... fractions) {
+		rotateIfDue();
+		long[] buckets = new long[BUCKET_COUNT];
+		long samples = 0;
+		for (AtomicLongArray slot : slots) {
+			for (int index = 0; index < BUCKET_COUNT; index++) {
+				long bucket = slot.get(index);
+				buckets[index] += bucket;
+				samples += bucket;
+			}
+		}
+		
+		double[] percentiles = new double[fractions.length];
+		if (samples == 0)
+			return percentiles;
+		for (int i = 0; i < fractions.length; i++) {
+			long rank = Math.max(1, (long) Math.ceil(fractions[i] * samples));
+			long seen = 0;
+			for (int index = 0; index < BUCKET_COUNT; index++) {
+				seen += buckets[index];
+				if (seen >= rank) {
+					percentiles[i] = bucketUpperBound(index) / 1e6;
+					break;
+				}
+			}
+		}
+		return percentiles;
+	}
+	
+	static int bucketIndex(long micros) {
+		if (micros < SUB_COUNT)
+			return (int) micros;
+		int magnitude = 63 - Long.numberOfLeadingZeros(micros);
+		int shift = magnitude - SUB_BITS;
+		int index = (shift + 1) * SUB_COUNT + (int) (micros >>> shift) - SUB_COUNT;
+		return Math.min(index, BUCKET_COUNT - 1);
+	}
+	
+	static long bucketUpperBound(int index) {
+		if (index < SUB_COUNT)
+			return index;
+		int shift = index / SUB_COUNT - 1;
+		int sub = index % SUB_COUNT;
+		return ((long) (SUB_COUNT + sub + 1) << shift) - 1;
+	}
+	
+	private void rotateIfDue() {
+		if (System.currentTimeMillis() < nextRotation)
+			return;
+		synchronized (this) {
+			long now = System.currentTimeMillis();
+			if (now < nextRotation)
+				return;
+			// the oldest slots are cleared and take the new samples, after a long pause all of them
+			long due = (now - nextRotation) / slotMs + 1;
+			for (int rotation = 0; rotation < Math.min(due, SLOTS); rotation++) {
+				int next = (currentSlot + 1) % SLOTS;
+				for (int index = 0; index < BUCKET_COUNT; index++)
+					slots[next].set(index, 0);
+				currentSlot = next;
+			}
+			nextRotation += due * slotMs;
+		}
+	}
+	
+}
@@ -0,0 +1,131 @@
+package monitoring.prefetch;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import monitoring.beans.Appointment;
+import monitoring.beans.GeoPoint;
+
+/**
+ * Appointments of a device for the day with the travel times between
+ * consecutive ones, the band of the travel time matrix a tour needs. Stops
+ * and travel times are kept in primitive arrays, a few dozen bytes per
+ * appointment.
+ */
+public class PlannedTour {
+
+	static final int UNKNOWN = -1;
+	private static final long QUEUED = -1;
+
+	private final String deviceId;
+	private final List<Appointment> appointments;
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final long[] timestamps;
+	// travel time in ms from stop i to stop i + 1 and when it was routed, 0 if never
+	private final AtomicIntegerArray legTimes;
+	private final AtomicLongArray routedAt;
+
+	PlannedTour(String deviceId, List<Appointment> appointments) {
+		this.deviceId = deviceId;
+		this.appointments = ImmutableList.copyOf(appointments);
+		int size = appointments.size();
+		this.latitudes = new double[size];
+		this.longitudes = new double[size];
+		this.timestamps = new long[size];
+		for (int i = 0; i < size; i++) {
+			latitudes[i] = appointments.get(i).getLatitude();
+			longitudes[i] = appointments.get(i).getLongitude();
+			timestamps[i] = appointments.get(i).getTimestamp();
+		}
+		int legs = Math.max(size - 1, 0);
+		this.legTimes = new AtomicIntegerArray(legs);
+		this.routedAt = new AtomicLongArray(legs);
+		for (int i = 0; i < legs; i++)
+			legTimes.set(i, UNKNOWN);
+	}
+
+	public String getDeviceId() {
+		return deviceId;
+	}
+
+	public List<Appointment> getAppointments() {
+		return appointments;
+	}
+
+	/**
+	 * Travel times in ms between consecutive appointments, null if not routed yet.
+	 */
+	public List<Integer> getLegTimes() {
+		if (legTimes.length() == 0)
+			return Collections.emptyList();
+		List<Integer> times = Lists.newArrayListWithCapacity(legTimes.length());
+		for (int i = 0; i < legTimes.length(); i++)
+			times.add(legTimes.get(i) == UNKNOWN ? null : legTimes.get(i));
+		return times;
+	}
+
+	int getStopCount() {
+		return latitudes.length;
+	}
+
+	int getLegCount() {
+		return legTimes.length();
+	}
+
+	GeoPoint getStop(int index) {
+		return new GeoPoint(latitudes[index], longitudes[index]);
+	}
+
+	double getLatitude(int index) {
+		return latitudes[index];
+	}
+
+	double getLongitude(int index) {
+		return longitudes[index];
+	}
+
+	long getTimestamp(int index) {
+		return timestamps[index];
+	}
+
+	int getLegTime(int leg) {
+		return legTimes.get(leg);
+	}
+
+	long getRoutedAt(int leg) {
+		return routedAt.get(leg);
+	}
+
+	void setLegTime(int leg, int timeInMs, long now) {
+		legTimes.set(leg, timeInMs);
+		routedAt.set(leg, now);
+	}
+
+	/**
+	 * Marks the leg as queued for routing unless it is queued already or has
+	 * been routed since the given time.
+	 */
+	boolean markQueued(int leg, long routedBefore) {
+		while (true) {
+			long at = routedAt.get(leg);
+			if (at == QUEUED || at >= routedBefore)
+				return false;
+			if (routedAt.compareAndSet(leg, at, QUEUED))
+				return true;
+		}
+	}
+
+	/**
+	 * Leg could not be routed, it is tried again with the next refresh.
+	 */
+	void setFailed(int leg, long now) {
+		routedAt.set(leg, now);
+	}
+
+}
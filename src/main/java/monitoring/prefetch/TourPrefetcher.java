@@ -0,0 +1,239 @@
+package monitoring.prefetch;
+
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.google.common.util.concurrent.RateLimiter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import monitoring.beans.Appointment;
+import monitoring.beans.GeoPoint;
+import monitoring.beans.RouteResult;
+import monitoring.cache.TravelTimeMatrix;
+import monitoring.connector.RoutingConnector;
+import monitoring.exceptions.RoutingNotFoundException;
+import monitoring.exceptions.UpstreamUnavailableException;
+import monitoring.utility.DistanceCalculator;
+
+/**
+ * Routes the legs between the registered appointments of the day in the
+ * background, at a fixed rate against the routing service. Legs of earlier
+ * appointments come first, so the morning peak finds its travel times in the
+ * travel time matrix. Routed legs are routed again after the refresh time to
+ * follow the traffic.
+ */
+@Component
+public class TourPrefetcher {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(TourPrefetcher.class);
+
+	// distance within which an appointment is taken as a stop of the tour (m)
+	private static final double STOP_DISTANCE = 25;
+	// the device is taken as on the leg if the way over its position is at most this much longer
+	private static final double MAX_DETOUR = 1.5;
+
+	private final RoutingConnector routingConnector;
+	private final TravelTimeMatrix travelTimes;
+	private final RateLimiter rateLimiter;
+	private final long refreshMs;
+	private final ConcurrentHashMap<String, PlannedTour> tours = new ConcurrentHashMap<String, PlannedTour>();
+	private final PriorityBlockingQueue<Leg> pendingLegs = new PriorityBlockingQueue<Leg>();
+	private ScheduledExecutorService scheduler;
+
+	private final AtomicLong routedLegs = new AtomicLong();
+	private final AtomicLong failedLegs = new AtomicLong();
+
+	@Autowired
+	public TourPrefetcher(
+			RoutingConnector routingConnector,
+			TravelTimeMatrix travelTimes,
+			@Value("${monitoring.prefetch.rate:5}") double requestsPerSecond,
+			@Value("${monitoring.prefetch.refresh:600}") long refreshSeconds) {
+		this.routingConnector = routingConnector;
+		this.travelTimes = travelTimes;
+		this.rateLimiter = RateLimiter.create(requestsPerSecond);
+		this.refreshMs = TimeUnit.SECONDS.toMillis(refreshSeconds);
+	}
+
+	@PostConstruct
+	public void start() {
+		scheduler = Executors.newSingleThreadScheduledExecutor(
+				new ThreadFactoryBuilder().setNameFormat("prefetch-%d").setDaemon(true).build());
+		scheduler.scheduleWithFixedDelay(this::prefetchPending, 1000, 1000, TimeUnit.MILLISECONDS);
+		scheduler.scheduleWithFixedDelay(this::queueStaleLegs, refreshMs / 4, refreshMs / 4, TimeUnit.MILLISECONDS);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		if (scheduler != null)
+			scheduler.shutdownNow();
+	}
+
+	/**
+	 * Replaces the tour of the device. Legs known from the travel time matrix
+	 * are taken over, the others are queued for routing.
+	 */
+	public PlannedTour register(String deviceId, List<Appointment> appointments) {
+		PlannedTour tour = new PlannedTour(deviceId, appointments);
+		long now = System.currentTimeMillis();
+		for (int leg = 0; leg < tour.getLegCount(); leg++) {
+			Integer travelTime = travelTimes.getTravelTime(tour.getStop(leg), tour.getStop(leg + 1));
+			if (travelTime != null)
+				tour.setLegTime(leg, travelTime, now);
+		}
+		tours.put(deviceId, tour);
+		queueLegs(tour, now);
+		return tour;
+	}
+
+	public boolean unregister(String deviceId) {
+		// queued legs of the tour are dropped when they come up
+		return tours.remove(deviceId) != null;
+	}
+
+	public PlannedTour getTour(String deviceId) {
+		return tours.get(deviceId);
+	}
+
+	public Collection<PlannedTour> getTours() {
+		return tours.values();
+	}
+
+	/**
+	 * Routes the queued legs at the configured rate. Stops while the routing
+	 * service is unavailable, the leg is tried again with the next run.
+	 */
+	public int prefetchPending() {
+		int count = 0;
+		Leg leg;
+		while ((leg = pendingLegs.poll()) != null) {
+			PlannedTour tour = leg.tour;
+			if (tours.get(tour.getDeviceId()) != tour)
+				continue;
+
+			rateLimiter.acquire();
+			GeoPoint from = tour.getStop(leg.index);
+			GeoPoint to = tour.getStop(leg.index + 1);
+			try {
+				RouteResult route = routingConnector.getRouteResult(from, to);
+				tour.setLegTime(leg.index, route.getTimeInMs(), System.currentTimeMillis());
+				travelTimes.putTravelTime(from, to, route.getTimeInMs());
+				routedLegs.incrementAndGet();
+				count++;
+			} catch (RoutingNotFoundException | RuntimeException e) {
+				failedLegs.incrementAndGet();
+				if (isUpstreamUnavailable(e)) {
+					pendingLegs.add(leg);
+					break;
+				}
+				LOGGER.debug("Could not prefetch leg {} of {}: {}", leg.index, tour.getDeviceId(), e.getMessage());
+				tour.setFailed(leg.index, System.currentTimeMillis());
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Queues legs routed longer ago than the refresh time.
+	 */
+	public void queueStaleLegs() {
+		long now = System.currentTimeMillis();
+		for (PlannedTour tour : tours.values())
+			queueLegs(tour, now);
+	}
+
+	/**
+	 * Travel time from the position to the appointment along the prefetched
+	 * leg the device is on, in proportion to the remaining distance. Null if
+	 * the appointment is not a stop of the registered tour, the leg is not
+	 * known or the device is not on the leg.
+	 */
+	public Integer getInterpolatedTravelTime(String deviceId, GeoPoint position, GeoPoint appointment) {
+		PlannedTour tour = tours.get(deviceId);
+		if (tour == null)
+			return null;
+
+		for (int stop = 1; stop < tour.getStopCount(); stop++) {
+			if (DistanceCalculator.getDistance(tour.getLatitude(stop), tour.getLongitude(stop),
+					appointment.getLatitude(), appointment.getLongitude()) > STOP_DISTANCE)
+				continue;
+
+			int legTime = tour.getLegTime(stop - 1);
+			if (legTime == PlannedTour.UNKNOWN)
+				return null;
+			double legDistance = DistanceCalculator.getDistance(tour.getLatitude(stop - 1), tour.getLongitude(stop - 1),
+					tour.getLatitude(stop), tour.getLongitude(stop));
+			double covered = DistanceCalculator.getDistance(tour.getLatitude(stop - 1), tour.getLongitude(stop - 1),
+					position.getLatitude(), position.getLongitude());
+			double remaining = DistanceCalculator.getDistance(position.getLatitude(), position.getLongitude(),
+					tour.getLatitude(stop), tour.getLongitude(stop));
+			if (covered + remaining == 0 || covered + remaining > legDistance * MAX_DETOUR)
+				return null;
+			return (int) Math.round(legTime * remaining / (covered + remaining));
+		}
+		return null;
+	}
+
+	public int getPendingCount() {
+		return pendingLegs.size();
+	}
+
+	public long getRoutedCount() {
+		return routedLegs.get();
+	}
+
+	public long getFailedCount() {
+		return failedLegs.get();
+	}
+
+	private void queueLegs(PlannedTour tour, long now) {
+		for (int leg = 0; leg < tour.getLegCount(); leg++) {
+			if (tour.markQueued(leg, now - refreshMs))
+				pendingLegs.add(new Leg(tour, leg));
+		}
+	}
+
+	private static boolean isUpstreamUnavailable(Throwable ex) {
+		for (Throwable cause = ex; cause != null; cause = cause.getCause()) {
+			if (cause instanceof UpstreamUnavailableException)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Leg from the stop with the index to the next one, ordered by the time
+	 * of the appointment it starts from.
+	 */
+	private static final class Leg implements Comparable<Leg> {
+
+		private final PlannedTour tour;
+		private final int index;
+
+		private Leg(PlannedTour tour, int index) {
+			this.tour = tour;
+			this.index = index;
+		}
+
+		@Override
+		public int compareTo(Leg other) {
+			return Long.compare(tour.getTimestamp(index), other.tour.getTimestamp(other.index));
+		}
+	}
+
+}
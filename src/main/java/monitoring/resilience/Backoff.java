@@ -0,0 +1,40 @@
+package monitoring.resilience;
+
+import java.io.InterruptedIOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Exponential backoff with full jitter: before retry n the caller waits a
+ * random time between zero and base * 2^(n-1), capped at a maximum. Callers
+ * retrying at the same time spread out instead of hitting the upstream together.
+ */
+public class Backoff {
+	
+	public static final Backoff DEFAULT = new Backoff(100, 2000);
+	
+	private final long baseMs;
+	private final long maxMs;
+	
+	public Backoff(long baseMs, long maxMs) {
+		this.baseMs = baseMs;
+		this.maxMs = maxMs;
+	}
+	
+	public long getDelay(int retry) {
+		long ceiling = Math.min(maxMs, baseMs << Math.min(Math.max(retry - 1, 0), 20));
+		return ThreadLocalRandom.current().nextLong(ceiling + 1);
+	}
+	
+	/**
+	 * Waits before the given retry, starting with 1.
+	 */
+	public void pause(int retry) throws InterruptedIOException {
+		try {
+			Thread.sleep(getDelay(retry));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while waiting for retry");
+		}
+	}
+	
+}
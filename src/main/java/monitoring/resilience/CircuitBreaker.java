@@ -0,0 +1,88 @@
+package monitoring.resilience;
+
+/**
+ * Stops calls to an upstream after a number of consecutive failures. After
+ * the open time one trial call is let through, its outcome closes or opens
+ * the circuit again.
+ */
+public class CircuitBreaker {
+	
+	public enum State {
+		CLOSED,
+		OPEN,
+		HALF_OPEN
+	}
+	
+	private final int failureThreshold;
+	private final long openMs;
+	
+	private State state = State.CLOSED;
+	private int consecutiveFailures;
+	private long openedAt;
+	private boolean trialRunning;
+	private long openCount;
+	
+	public CircuitBreaker(int failureThreshold, long openMs) {
+		this.failureThreshold = failureThreshold;
+		this.openMs = openMs;
+	}
+	
+	/**
+	 * Whether a call may be made now. In half open state only one trial call is allowed.
+	 */
+	public synchronized boolean allowRequest() {
+		if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMs) {
+			state = State.HALF_OPEN;
+			trialRunning = false;
+		}
+		if (state == State.CLOSED)
+			return true;
+		if (state == State.HALF_OPEN && !trialRunning) {
+			trialRunning = true;
+			return true;
+		}
+		return false;
+	}
+	
+	public synchronized void recordSuccess() {
+		consecutiveFailures = 0;
+		trialRunning = false;
+		state = State.CLOSED;
+	}
+	
+	public synchronized void recordFailure() {
+		consecutiveFailures++;
+		trialRunning = false;
+		if (state == State.HALF_OPEN || consecutiveFailures >= failureThreshold) {
+			if (state != State.OPEN)
+				openCount++;
+			state = State.OPEN;
+			openedAt = System.currentTimeMillis();
+		}
+	}
+	
+	/**
+	 * Calls that neither succeeded nor failed, like a rejected request, end a trial without outcome.
+	 */
+	public synchronized void recordIgnored() {
+		trialRunning = false;
+	}
+	
+	public synchronized State getState() {
+		if (state == State.OPEN && System.currentTimeMillis() - openedAt >= openMs)
+			return State.HALF_OPEN;
+		return state;
+	}
+	
+	public synchronized boolean isOpen() {
+		return getState() == State.OPEN;
+	}
+	
+	/**
+	 * How often the circuit was opened since start.
+	 */
+	public synchronized long getOpenCount() {
+		return openCount;
+	}
+	
+}
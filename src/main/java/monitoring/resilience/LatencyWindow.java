@@ -0,0 +1,44 @@
+package monitoring.resilience;
+
+import java.util.Arrays;
+
+/**
+ * Latencies of the most recent calls, used to find the percentile after
+ * which a call is considered slow.
+ */
+public class LatencyWindow {
+	
+	private final long[] latencies;
+	private int next;
+	private int count;
+	
+	public LatencyWindow(int size) {
+		this.latencies = new long[size];
+	}
+	
+	public synchronized void record(long latencyMs) {
+		latencies[next] = latencyMs;
+		next = (next + 1) % latencies.length;
+		count = Math.min(count + 1, latencies.length);
+	}
+	
+	public synchronized int getCount() {
+		return count;
+	}
+	
+	/**
+	 * Latency below which the given fraction of recent calls completed, -1 without calls.
+	 */
+	public long getPercentile(double fraction) {
+		long[] recent;
+		synchronized (this) {
+			if (count == 0)
+				return -1;
+			recent = Arrays.copyOf(latencies, count);
+		}
+		Arrays.sort(recent);
+		int index = (int) Math.ceil(fraction * recent.length) - 1;
+		return recent[Math.max(0, Math.min(index, recent.length - 1))];
+	}
+	
+}
@@ -0,0 +1,231 @@
+package monitoring.resilience;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import monitoring.exceptions.HttpStatusException;
+import monitoring.exceptions.UpstreamUnavailableException;
+import monitoring.metrics.MetricsRegistry;
+import monitoring.metrics.Timer;
+
+/**
+ * Protects the callers of one upstream service. A bulkhead caps the number of
+ * concurrent calls, so a slow upstream can not take all request threads, and
+ * a circuit breaker rejects calls right away while the upstream is failing.
+ * Optionally a second, hedged call is started if the first one takes longer
+ * than the 95th percentile of recent calls, the faster answer wins.
+ */
+public class UpstreamGuard {
+	
+	private static final int MIN_HEDGE_SAMPLES = 20;
+	
+	private final String name;
+	private final int maxConcurrent;
+	private final Semaphore bulkhead;
+	private final long maxWaitMs;
+	private final CircuitBreaker circuitBreaker;
+	private final Executor hedgeExecutor;
+	private final LatencyWindow latencies = new LatencyWindow(512);
+	
+	private final AtomicLong rejected = new AtomicLong();
+	private final AtomicLong hedged = new AtomicLong();
+	private final Timer requests;
+	private final MetricsRegistry metrics;
+	
+	public UpstreamGuard(
+			String name,
+			int maxConcurrent,
+			long maxWaitMs,
+			int failureThreshold,
+			long openMs,
+			Executor hedgeExecutor) {
+		this(name, maxConcurrent, maxWaitMs, failureThreshold, openMs, hedgeExecutor, new MetricsRegistry());
+	}
+	
+	/**
+	 * Hedging is disabled without executor. Latency, errors and rejections are
+	 * registered with the endpoint tag set to the name.
+	 */
+	public UpstreamGuard(
+			String name,
+			int maxConcurrent,
+			long maxWaitMs,
+			int failureThreshold,
+			long openMs,
+			Executor hedgeExecutor,
+			MetricsRegistry metrics) {
+		this.name = name;
+		this.maxConcurrent = maxConcurrent;
+		this.bulkhead = new Semaphore(maxConcurrent);
+		this.maxWaitMs = maxWaitMs;
+		this.circuitBreaker = new CircuitBreaker(failureThreshold, openMs);
+		this.hedgeExecutor = hedgeExecutor;
+		this.metrics = metrics;
+		this.requests = metrics.timer("upstream_request_seconds", "endpoint", name);
+		metrics.counter("upstream_rejected_total", rejected::get, "endpoint", name);
+		metrics.counter("upstream_hedged_total", hedged::get, "endpoint", name);
+		metrics.counter("upstream_circuit_opened_total", circuitBreaker::getOpenCount, "endpoint", name);
+		metrics.gauge("upstream_circuit_open", () -> circuitBreaker.isOpen() ? 1 : 0, "endpoint", name);
+		metrics.gauge("upstream_bulkhead_used", this::getPendingCount, "endpoint", name);
+		metrics.gauge("upstream_bulkhead_max", () -> maxConcurrent, "endpoint", name);
+	}
+	
+	public <T> T call(Callable<T> call) throws Exception {
+		
+		if (!circuitBreaker.allowRequest()) {
+			rejected.incrementAndGet();
+			throw new UpstreamUnavailableException("Circuit of " + name + " service is open");
+		}
+		if (!acquire()) {
+			circuitBreaker.recordIgnored();
+			rejected.incrementAndGet();
+			throw new UpstreamUnavailableException("Too many pending calls to " + name + " service");
+		}
+		
+		long start = System.nanoTime();
+		boolean hedging = hedgeExecutor != null && latencies.getCount() >= MIN_HEDGE_SAMPLES;
+		try {
+			T result = hedging ? callHedged(call) : call.call();
+			latencies.record(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			circuitBreaker.recordSuccess();
+			return result;
+		} catch (Exception e) {
+			recordException(e);
+			recordError(e.getClass().getSimpleName());
+			throw e;
+		} finally {
+			requests.recordSince(start);
+			// hedged requests release their permits when they complete, also after the other one won
+			if (!hedging)
+				bulkhead.release();
+		}
+	}
+	
+	/**
+	 * Counts an error of the upstream found by the caller after the call, like
+	 * an empty response.
+	 */
+	public void recordError(String error) {
+		metrics.counter("upstream_errors_total", "endpoint", name, "error", error).increment();
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public CircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+	
+	public boolean isCircuitOpen() {
+		return circuitBreaker.isOpen();
+	}
+	
+	/**
+	 * Calls currently holding a permit of the bulkhead.
+	 */
+	public int getPendingCount() {
+		return maxConcurrent - bulkhead.availablePermits();
+	}
+	
+	/**
+	 * Calls rejected by circuit or bulkhead since start.
+	 */
+	public long getRejectedCount() {
+		return rejected.get();
+	}
+	
+	/**
+	 * Hedged second calls since start.
+	 */
+	public long getHedgedCount() {
+		return hedged.get();
+	}
+	
+	public LatencyWindow getLatencies() {
+		return latencies;
+	}
+	
+	private boolean acquire() throws InterruptedException {
+		return bulkhead.tryAcquire(maxWaitMs, TimeUnit.MILLISECONDS);
+	}
+	
+	private void recordException(Exception e) {
+		if (e instanceof MalformedURLException) {
+			// not the fault of the upstream
+			circuitBreaker.recordIgnored();
+		} else if (e instanceof JsonProcessingException
+				|| e instanceof HttpStatusException && !isServerError((HttpStatusException) e)) {
+			// the upstream is answering
+			circuitBreaker.recordSuccess();
+		} else if (e instanceof IOException) {
+			circuitBreaker.recordFailure();
+		} else {
+			circuitBreaker.recordIgnored();
+		}
+	}
+	
+	private static boolean isServerError(HttpStatusException e) {
+		return e.getStatusCode() >= 500 || e.getStatusCode() == 429;
+	}
+	
+	private <T> T callHedged(Callable<T> call) throws Exception {
+		
+		CompletableFuture<T> result = new CompletableFuture<T>();
+		AtomicInteger pending = new AtomicInteger(1);
+		submit(call, result, pending);
+		try {
+			return await(result, latencies.getPercentile(0.95));
+		} catch (TimeoutException e) {
+			// slower than usual, hedge only with a free permit so the bulkhead still holds
+			if (bulkhead.tryAcquire()) {
+				hedged.incrementAndGet();
+				pending.incrementAndGet();
+				submit(call, result, pending);
+			}
+		}
+		return await(result, -1);
+	}
+	
+	private <T> void submit(final Callable<T> call, final CompletableFuture<T> result, final AtomicInteger pending) {
+		try {
+			hedgeExecutor.execute(() -> {
+				try {
+					result.complete(call.call());
+				} catch (Exception e) {
+					// the call fails only if all of its requests failed
+					if (pending.decrementAndGet() == 0)
+						result.completeExceptionally(e);
+				} finally {
+					bulkhead.release();
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			bulkhead.release();
+			throw e;
+		}
+	}
+	
+	private static <T> T await(CompletableFuture<T> result, long timeoutMs) throws Exception {
+		try {
+			return timeoutMs < 0 ? result.get() : result.get(timeoutMs, TimeUnit.MILLISECONDS);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			throw e;
+		}
+	}
+	
+}
@@ -1,21 +1,74 @@
 package monitoring.utility;
 
 import monitoring.beans.GeoPoint;
+import monitoring.beans.RouteGeometry;
 
+/**
+ * Great-circle distances in meters with the haversine formula, which stays
+ * precise at the short distances of arrival checks. The batch methods work on
+ * primitive arrays, see {@link GeoPointBatch} for many distances to the same
+ * set of points.
+ */
 public class DistanceCalculator {
 	
-	public static synchronized double getDistance(GeoPoint pointA, GeoPoint pointB) {
-		double lonDelta = pointA.getLongitude() - pointB.getLongitude();
-		double posDistance = (
-				Math.acos(
-				Math.sin(pointA.getLatitude() * Math.PI / 180.0) * 
-				Math.sin(pointB.getLatitude() * Math.PI / 180.0) + 
-				Math.cos(pointA.getLatitude() * Math.PI / 180.0) * 
-				Math.cos(pointB.getLatitude() * Math.PI / 180.0) * 
-				Math.cos(lonDelta * Math.PI / 180.0)) * 180 / Math.PI) * 
-				60 * 1.1515 * 1609.344;
-		
-		return posDistance;
+	// mean earth radius
+	public static final double EARTH_RADIUS = 6371008.8;
+	// length of a degree of latitude, for grids and flat approximations
+	public static final double METERS_PER_DEGREE = 111320.0;
+	
+	private static final double TO_RADIANS = Math.PI / 180.0;
+	
+	public static double getDistance(GeoPoint pointA, GeoPoint pointB) {
+		return getDistance(pointA.getLatitude(), pointA.getLongitude(), pointB.getLatitude(), pointB.getLongitude());
 	}
-
+	
+	public static double getDistance(double latitudeA, double longitudeA, double latitudeB, double longitudeB) {
+		double phiA = latitudeA * TO_RADIANS;
+		double phiB = latitudeB * TO_RADIANS;
+		double sinHalfLat = Math.sin((phiB - phiA) * 0.5);
+		double sinHalfLon = Math.sin((longitudeB - longitudeA) * (TO_RADIANS * 0.5));
+		double h = sinHalfLat * sinHalfLat + Math.cos(phiA) * Math.cos(phiB) * sinHalfLon * sinHalfLon;
+		return 2 * EARTH_RADIUS * Math.asin(Math.sqrt(Math.min(1.0, h)));
+	}
+	
+	/**
+	 * Initial bearing from point A to point B in degrees clockwise from north.
+	 */
+	public static double getBearing(GeoPoint pointA, GeoPoint pointB) {
+		double phiA = pointA.getLatitude() * TO_RADIANS;
+		double phiB = pointB.getLatitude() * TO_RADIANS;
+		double deltaLon = (pointB.getLongitude() - pointA.getLongitude()) * TO_RADIANS;
+		double y = Math.sin(deltaLon) * Math.cos(phiB);
+		double x = Math.cos(phiA) * Math.sin(phiB) - Math.sin(phiA) * Math.cos(phiB) * Math.cos(deltaLon);
+		return (Math.toDegrees(Math.atan2(y, x)) + 360) % 360;
+	}
+	
+	/**
+	 * Distances from one point to all given points.
+	 */
+	public static void getDistances(double latitude, double longitude,
+			double[] latitudes, double[] longitudes, double[] distances) {
+		double phi = latitude * TO_RADIANS;
+		double cosPhi = Math.cos(phi);
+		for (int i = 0; i < distances.length; i++) {
+			double phiB = latitudes[i] * TO_RADIANS;
+			double sinHalfLat = Math.sin((phiB - phi) * 0.5);
+			double sinHalfLon = Math.sin((longitudes[i] - longitude) * (TO_RADIANS * 0.5));
+			double h = sinHalfLat * sinHalfLat + cosPhi * Math.cos(phiB) * sinHalfLon * sinHalfLon;
+			distances[i] = 2 * EARTH_RADIUS * Math.asin(Math.sqrt(Math.min(1.0, h)));
+		}
+	}
+	
+	/**
+	 * Distance along the route up to every point, starting with 0.
+	 */
+	public static double[] getCumulativeDistances(RouteGeometry route) {
+		double[] distances = new double[route.size()];
+		for (int i = 1; i < distances.length; i++) {
+			distances[i] = distances[i - 1] + getDistance(route.getLatitude(i - 1), route.getLongitude(i - 1),
+					route.getLatitude(i), route.getLongitude(i));
+		}
+		return distances;
+	}
+	
 }
@@ -0,0 +1,189 @@
+package monitoring.utility;
+
+import monitoring.beans.RouteGeometry;
+
+/**
+ * Fixed set of points stored as unit vectors in separate primitive arrays,
+ * converted once for many distance queries like geofence checks. The chord
+ * between two unit vectors only takes multiplications and additions, so the
+ * loops over all points contain no trigonometry and are vectorized by the JIT.
+ * Chords are turned into great-circle distances with a series that is exact
+ * to double precision up to about 600 km.
+ */
+public final class GeoPointBatch {
+	
+	// half chord up to which the series of asin is used
+	private static final double SERIES_LIMIT = 0.05;
+	private static final double SERIES_LIMIT_METERS = 2 * DistanceCalculator.EARTH_RADIUS * SERIES_LIMIT;
+	
+	private final double[] latitudes;
+	private final double[] longitudes;
+	private final double[] x;
+	private final double[] y;
+	private final double[] z;
+	
+	private GeoPointBatch(double[] latitudes, double[] longitudes) {
+		if (latitudes.length != longitudes.length)
+			throw new IllegalArgumentException("Latitudes and longitudes differ in length");
+		int size = latitudes.length;
+		this.latitudes = latitudes;
+		this.longitudes = longitudes;
+		this.x = new double[size];
+		this.y = new double[size];
+		this.z = new double[size];
+		for (int i = 0; i < size; i++) {
+			double phi = Math.toRadians(latitudes[i]);
+			double lambda = Math.toRadians(longitudes[i]);
+			double cosPhi = Math.cos(phi);
+			x[i] = cosPhi * Math.cos(lambda);
+			y[i] = cosPhi * Math.sin(lambda);
+			z[i] = Math.sin(phi);
+		}
+	}
+	
+	/**
+	 * The arrays are not copied and must not be changed afterwards.
+	 */
+	public static GeoPointBatch of(double[] latitudes, double[] longitudes) {
+		return new GeoPointBatch(latitudes, longitudes);
+	}
+	
+	public static GeoPointBatch of(RouteGeometry route) {
+		double[] latitudes = new double[route.size()];
+		double[] longitudes = new double[route.size()];
+		for (int i = 0; i < latitudes.length; i++) {
+			latitudes[i] = route.getLatitude(i);
+			longitudes[i] = route.getLongitude(i);
+		}
+		return new GeoPointBatch(latitudes, longitudes);
+	}
+	
+	public int size() {
+		return x.length;
+	}
+	
+	public double getLatitude(int index) {
+		return latitudes[index];
+	}
+	
+	public double getLongitude(int index) {
+		return longitudes[index];
+	}
+	
+	/**
+	 * Distances in meters from the given position to all points.
+	 */
+	public void getDistances(double latitude, double longitude, double[] distances) {
+		double phi = Math.toRadians(latitude);
+		double lambda = Math.toRadians(longitude);
+		double px = Math.cos(phi) * Math.cos(lambda);
+		double py = Math.cos(phi) * Math.sin(lambda);
+		double pz = Math.sin(phi);
+		
+		int size = x.length;
+		for (int i = 0; i < size; i++) {
+			double dx = x[i] - px;
+			double dy = y[i] - py;
+			double dz = z[i] - pz;
+			// distance = 2R asin(chord / 2), asin as series in the half chord s
+			double s = Math.sqrt(dx * dx + dy * dy + dz * dz) * 0.5;
+			double s2 = s * s;
+			distances[i] = 2 * DistanceCalculator.EARTH_RADIUS * s
+					* (1 + s2 * (1.0 / 6 + s2 * (3.0 / 40 + s2 * (5.0 / 112 + s2 * (35.0 / 1152)))));
+		}
+		
+		// far points are rare, they get the exact formula
+		for (int i = 0; i < size; i++) {
+			if (distances[i] > SERIES_LIMIT_METERS) {
+				double dx = x[i] - px;
+				double dy = y[i] - py;
+				double dz = z[i] - pz;
+				distances[i] = 2 * DistanceCalculator.EARTH_RADIUS
+						* Math.asin(Math.min(1.0, Math.sqrt(dx * dx + dy * dy + dz * dz) * 0.5));
+			}
+		}
+	}
+	
+	/**
+	 * Number of points within the radius in meters around the given position.
+	 */
+	public int countWithin(double latitude, double longitude, double radius) {
+		double phi = Math.toRadians(latitude);
+		double lambda = Math.toRadians(longitude);
+		double px = Math.cos(phi) * Math.cos(lambda);
+		double py = Math.cos(phi) * Math.sin(lambda);
+		double pz = Math.sin(phi);
+		double limit = chordSquared(radius);
+		
+		int count = 0;
+		int size = x.length;
+		for (int i = 0; i < size; i++) {
+			double dx = x[i] - px;
+			double dy = y[i] - py;
+			double dz = z[i] - pz;
+			count += dx * dx + dy * dy + dz * dz <= limit ? 1 : 0;
+		}
+		return count;
+	}
+	
+	/**
+	 * Writes the indexes of the points within the radius in meters around the
+	 * given position into indexes and returns their number.
+	 */
+	public int findWithin(double latitude, double longitude, double radius, int[] indexes) {
+		double phi = Math.toRadians(latitude);
+		double lambda = Math.toRadians(longitude);
+		double px = Math.cos(phi) * Math.cos(lambda);
+		double py = Math.cos(phi) * Math.sin(lambda);
+		double pz = Math.sin(phi);
+		double limit = chordSquared(radius);
+		
+		int count = 0;
+		int size = x.length;
+		for (int i = 0; i < size; i++) {
+			double dx = x[i] - px;
+			double dy = y[i] - py;
+			double dz = z[i] - pz;
+			if (dx * dx + dy * dy + dz * dz <= limit)
+				indexes[count++] = i;
+		}
+		return count;
+	}
+	
+	/**
+	 * Index of the point closest to the given position, -1 if there are no points.
+	 */
+	public int findNearest(double latitude, double longitude) {
+		double phi = Math.toRadians(latitude);
+		double lambda = Math.toRadians(longitude);
+		double px = Math.cos(phi) * Math.cos(lambda);
+		double py = Math.cos(phi) * Math.sin(lambda);
+		double pz = Math.sin(phi);
+		
+		int nearest = -1;
+		double nearestChord = Double.MAX_VALUE;
+		int size = x.length;
+		for (int i = 0; i < size; i++) {
+			double dx = x[i] - px;
+			double dy = y[i] - py;
+			double dz = z[i] - pz;
+			double chord = dx * dx + dy * dy + dz * dz;
+			if (chord < nearestChord) {
+				nearestChord = chord;
+				nearest = i;
+			}
+		}
+		return nearest;
+	}
+	
+	/**
+	 * Squared chord of unit vectors the given distance in meters apart.
+	 */
+	private static double chordSquared(double meters) {
+		if (meters >= Math.PI * DistanceCalculator.EARTH_RADIUS)
+			return 4;
+		double chord = 2 * Math.sin(meters / (2 * DistanceCalculator.EARTH_RADIUS));
+		return chord * chord;
+	}
+	
+}
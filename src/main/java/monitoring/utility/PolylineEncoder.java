@@ -0,0 +1,70 @@
+package monitoring.utility;
+
+import monitoring.beans.RouteGeometry;
+
+/**
+ * Google's encoded polyline algorithm. Each coordinate is stored as the
+ * difference to the point before, rounded to the given number of decimals
+ * and written in chunks of five bits as printable characters.
+ */
+public class PolylineEncoder {
+	
+	public static final int DEFAULT_PRECISION = 5;
+	
+	public static String encode(RouteGeometry route, int precision) {
+		
+		double factor = Math.pow(10, precision);
+		// most differences of neighboring points fit into three or four characters
+		StringBuilder polyline = new StringBuilder(route.size() * 8);
+		long lastLatitude = 0;
+		long lastLongitude = 0;
+		for (int index = 0; index < route.size(); index++) {
+			long latitude = Math.round(route.getLatitude(index) * factor);
+			long longitude = Math.round(route.getLongitude(index) * factor);
+			encodeValue(latitude - lastLatitude, polyline);
+			encodeValue(longitude - lastLongitude, polyline);
+			lastLatitude = latitude;
+			lastLongitude = longitude;
+		}
+		return polyline.toString();
+	}
+	
+	public static RouteGeometry decode(String polyline, int precision) {
+		
+		double factor = Math.pow(10, precision);
+		RouteGeometry.Builder route = new RouteGeometry.Builder(polyline.length() / 8 + 1);
+		int[] position = new int[1];
+		long latitude = 0;
+		long longitude = 0;
+		while (position[0] < polyline.length()) {
+			latitude += decodeValue(polyline, position);
+			longitude += decodeValue(polyline, position);
+			route.add(latitude / factor, longitude / factor);
+		}
+		return route.build();
+	}
+	
+	private static void encodeValue(long value, StringBuilder polyline) {
+		long bits = value < 0 ? ~(value << 1) : value << 1;
+		while (bits >= 0x20) {
+			polyline.append((char) ((0x20 | (bits & 0x1f)) + 63));
+			bits >>= 5;
+		}
+		polyline.append((char) (bits + 63));
+	}
+	
+	private static long decodeValue(String polyline, int[] position) {
+		long bits = 0;
+		int shift = 0;
+		int chunk;
+		do {
+			if (position[0] >= polyline.length())
+				throw new IllegalArgumentException("Polyline ends within a value");
+			chunk = polyline.charAt(position[0]++) - 63;
+			bits |= (long) (chunk & 0x1f) << shift;
+			shift += 5;
+		} while (chunk >= 0x20);
+		return (bits & 1) != 0 ? ~(bits >> 1) : bits >> 1;
+	}
+
+}
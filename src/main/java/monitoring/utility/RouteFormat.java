@@ -0,0 +1,68 @@
+package monitoring.utility;
+
+import monitoring.beans.RouteGeometry;
+
+/**
+ * Output format of routes in reports, either the list of points or an
+ * encoded polyline. Both may be simplified before.
+ */
+public final class RouteFormat {
+	
+	public static final RouteFormat POINTS = new RouteFormat(false, PolylineEncoder.DEFAULT_PRECISION, 0);
+	
+	private final boolean polyline;
+	private final int precision;
+	private final double simplifyMeters;
+	
+	private RouteFormat(boolean polyline, int precision, double simplifyMeters) {
+		this.polyline = polyline;
+		this.precision = precision;
+		this.simplifyMeters = simplifyMeters;
+	}
+	
+	public static RouteFormat points(double simplifyMeters) {
+		return new RouteFormat(false, PolylineEncoder.DEFAULT_PRECISION, simplifyMeters);
+	}
+	
+	public static RouteFormat polyline(int precision, double simplifyMeters) {
+		return new RouteFormat(true, precision, simplifyMeters);
+	}
+	
+	/**
+	 * The route as it is written to the report.
+	 */
+	public Object format(RouteGeometry route) {
+		RouteGeometry simplified = RouteSimplifier.simplify(route, simplifyMeters);
+		return polyline ? PolylineEncoder.encode(simplified, precision) : simplified;
+	}
+	
+	public boolean isPolyline() {
+		return polyline;
+	}
+	
+	public int getPrecision() {
+		return precision;
+	}
+	
+	public double getSimplifyMeters() {
+		return simplifyMeters;
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof RouteFormat))
+			return false;
+		RouteFormat other = (RouteFormat) obj;
+		return polyline == other.polyline && precision == other.precision
+				&& Double.compare(simplifyMeters, other.simplifyMeters) == 0;
+	}
+	
+	@Override
+	public int hashCode() {
+		long bits = Double.doubleToLongBits(simplifyMeters);
+		return 31 * (31 * (polyline ? 1 : 0) + precision) + (int) (bits ^ (bits >>> 32));
+	}
+
+}
@@ -0,0 +1,87 @@
+package monitoring.utility;
+
+import java.util.Arrays;
+
+import monitoring.beans.RouteGeometry;
+
+/**
+ * Douglas-Peucker simplification of routes. Points closer than the tolerance
+ * to the simplified line are dropped, start and end are always kept.
+ */
+public class RouteSimplifier {
+	
+	public static RouteGeometry simplify(RouteGeometry route, double toleranceMeters) {
+		
+		int size = route.size();
+		if (toleranceMeters <= 0 || size < 3)
+			return route;
+		
+		// project into meters around the start, precise enough for the extent of a route
+		double lonScale = Math.cos(Math.toRadians(route.getLatitude(0))) * DistanceCalculator.METERS_PER_DEGREE;
+		double[] x = new double[size];
+		double[] y = new double[size];
+		for (int index = 0; index < size; index++) {
+			x[index] = route.getLongitude(index) * lonScale;
+			y[index] = route.getLatitude(index) * DistanceCalculator.METERS_PER_DEGREE;
+		}
+		
+		boolean[] keep = new boolean[size];
+		keep[0] = true;
+		keep[size - 1] = true;
+		int kept = 2;
+		
+		// pending sections as pairs of first and last index, no recursion on long routes
+		int[] sections = new int[64];
+		int pending = 0;
+		sections[pending++] = 0;
+		sections[pending++] = size - 1;
+		double toleranceSquared = toleranceMeters * toleranceMeters;
+		while (pending > 0) {
+			int last = sections[--pending];
+			int first = sections[--pending];
+			
+			int farthest = -1;
+			double maxDistance = toleranceSquared;
+			for (int index = first + 1; index < last; index++) {
+				double distance = segmentDistanceSquared(x, y, index, first, last);
+				if (distance > maxDistance) {
+					maxDistance = distance;
+					farthest = index;
+				}
+			}
+			if (farthest < 0)
+				continue;
+			
+			keep[farthest] = true;
+			kept++;
+			if (pending + 4 > sections.length)
+				sections = Arrays.copyOf(sections, sections.length * 2);
+			sections[pending++] = first;
+			sections[pending++] = farthest;
+			sections[pending++] = farthest;
+			sections[pending++] = last;
+		}
+		
+		if (kept == size)
+			return route;
+		RouteGeometry.Builder simplified = new RouteGeometry.Builder(kept);
+		for (int index = 0; index < size; index++) {
+			if (keep[index])
+				simplified.add(route.getLatitude(index), route.getLongitude(index));
+		}
+		return simplified.build();
+	}
+	
+	private static double segmentDistanceSquared(double[] x, double[] y, int point, int first, int last) {
+		double dx = x[last] - x[first];
+		double dy = y[last] - y[first];
+		double lengthSquared = dx * dx + dy * dy;
+		double t = lengthSquared == 0 ? 0 :
+				((x[point] - x[first]) * dx + (y[point] - y[first]) * dy) / lengthSquared;
+		t = Math.max(0, Math.min(1, t));
+		double px = x[first] + t * dx - x[point];
+		double py = y[first] + t * dy - y[point];
+		return px * px + py * py;
+	}
+
+}
@@ -0,0 +1,73 @@
+package monitoring.utility;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs at most one call per key at a time. Callers arriving while a call for
+ * their key is in flight wait for it and share its result or exception.
+ * Nothing is kept once the call has finished.
+ */
+public class SingleFlight<K, V> {
+	
+	private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<K, CompletableFuture<V>>();
+	private final AtomicLong calls = new AtomicLong();
+	private final AtomicLong coalesced = new AtomicLong();
+	
+	public V execute(K key, Callable<V> call) throws Exception {
+		
+		CompletableFuture<V> future = new CompletableFuture<V>();
+		CompletableFuture<V> running = inFlight.putIfAbsent(key, future);
+		if (running != null) {
+			coalesced.incrementAndGet();
+			return await(running);
+		}
+		
+		calls.incrementAndGet();
+		try {
+			V result = call.call();
+			future.complete(result);
+			return result;
+		} catch (Exception | Error e) {
+			future.completeExceptionally(e);
+			throw e;
+		} finally {
+			inFlight.remove(key, future);
+		}
+	}
+	
+	/**
+	 * Calls that went upstream since start.
+	 */
+	public long getCallCount() {
+		return calls.get();
+	}
+	
+	/**
+	 * Callers that shared a call of another caller since start.
+	 */
+	public long getCoalescedCount() {
+		return coalesced.get();
+	}
+	
+	public int getInFlightCount() {
+		return inFlight.size();
+	}
+	
+	private V await(CompletableFuture<V> running) throws Exception {
+		try {
+			return running.get();
+		} catch (ExecutionException e) {
+			// hand out the exception of the shared call
+			if (e.getCause() instanceof Exception)
+				throw (Exception) e.getCause();
+			if (e.getCause() instanceof Error)
+				throw (Error) e.getCause();
+			throw e;
+		}
+	}
+	
+}
@@ -0,0 +1,138 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import monitoring.connector.AuthTokenProvider;
+import monitoring.connector.HttpConnector;
+
+public class TestAuthTokenProvider {
+
+	private HttpServer authLayer;
+	private AtomicInteger authRequests;
+	private String urlAuthLayer;
+	private ExecutorService callers;
+
+	@Before
+	public void initialize() throws IOException {
+		authRequests = new AtomicInteger();
+		callers = Executors.newFixedThreadPool(16);
+
+		// fake auth layer answering slowly with a new token for every login
+		authLayer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		authLayer.setExecutor(Executors.newCachedThreadPool());
+		authLayer.createContext("/tokenauth/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				int count = authRequests.incrementAndGet();
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				byte[] body = ("{\"token\":\"token-" + count + "\"}").getBytes(StandardCharsets.UTF_8);
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		authLayer.start();
+		urlAuthLayer = "http://localhost:" + authLayer.getAddress().getPort() + "/tokenauth/";
+	}
+
+	@After
+	public void shutdown() {
+		callers.shutdownNow();
+		authLayer.stop(0);
+	}
+
+	@Test
+	public void testTokenIsCached() throws IOException {
+
+		AuthTokenProvider provider = new AuthTokenProvider(new HttpConnector(), urlAuthLayer, "user", "pw", 3600, 60);
+		assertEquals("Token token-1", provider.getToken());
+		assertEquals("Token token-1", provider.getToken());
+		assertEquals(1, authRequests.get());
+		provider.shutdown();
+	}
+
+	@Test
+	public void testConcurrentCallersShareRefresh() throws Exception {
+
+		final AuthTokenProvider provider = new AuthTokenProvider(new HttpConnector(), urlAuthLayer, "user", "pw", 3600, 60);
+		for (String token : callConcurrently(provider, 16, null))
+			assertEquals("Token token-1", token);
+		assertEquals(1, authRequests.get());
+		provider.shutdown();
+	}
+
+	@Test
+	public void testRejectedTokenIsRenewedOnce() throws Exception {
+
+		final AuthTokenProvider provider = new AuthTokenProvider(new HttpConnector(), urlAuthLayer, "user", "pw", 3600, 60);
+		String rejected = provider.getToken();
+
+		// all callers got a 401 for the same token
+		for (String token : callConcurrently(provider, 16, rejected))
+			assertEquals("Token token-2", token);
+		assertEquals(2, authRequests.get());
+		provider.shutdown();
+	}
+
+	@Test
+	public void testTokenIsRefreshedAheadOfExpiry() throws Exception {
+
+		AuthTokenProvider provider = new AuthTokenProvider(new HttpConnector(), urlAuthLayer, "user", "pw", 2, 1);
+		String first = provider.getToken();
+
+		// background refresh is due one second before expiry
+		Thread.sleep(1500);
+		assertEquals(2, authRequests.get());
+		assertNotEquals(first, provider.getToken());
+		assertEquals(2, authRequests.get());
+		provider.shutdown();
+	}
+
+	private List<String> callConcurrently(final AuthTokenProvider provider, int callerCount,
+			final String rejectedToken) throws Exception {
+
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		for (int i = 0; i < callerCount; i++) {
+			results.add(callers.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					if (rejectedToken != null)
+						provider.invalidate(rejectedToken);
+					return provider.getToken();
+				}
+			}));
+		}
+
+		List<String> tokens = new ArrayList<String>();
+		for (Future<String> result : results)
+			tokens.add(result.get());
+		return tokens;
+	}
+
+}
@@ -0,0 +1,79 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.Date;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import monitoring.beans.GeoPoint;
+import monitoring.beans.RouteGeometry;
+import monitoring.beans.RouteResult;
+import monitoring.beans.WorkingStatus.LocationStatus;
+import monitoring.cache.DeviceSessionStore;
+
+public class TestDeviceSessionStore {
+	
+	private static final GeoPoint APPOINTMENT = new GeoPoint(51.0, 13.72);
+	
+	private DeviceSessionStore sessionStore;
+	
+	@Before
+	public void initialize() {
+		sessionStore = new DeviceSessionStore(50, 300, 3600);
+		// straight route of about 1400m to the east
+		RouteGeometry route = RouteGeometry.of(new double[] {51.0, 13.70, 51.0, 13.71, 51.0, 13.72});
+		sessionStore.setRoute("device", APPOINTMENT, new RouteResult(route, 120000, 1400));
+	}
+	
+	@Test
+	public void testRemainingRoute() {
+		
+		// three quarters of the route done, a few meters off the street
+		RouteResult remaining = sessionStore.getRemainingRoute("device", new GeoPoint(51.0001, 13.715), APPOINTMENT);
+		assertNotNull(remaining);
+		assertEquals(30000, remaining.getTimeInMs(), 100);
+		assertEquals(350, remaining.getDistance(), 1);
+		assertEquals(1, remaining.getPointList().size());
+		assertEquals(13.72, remaining.getPointList().getLongitude(0), 0.0);
+		assertEquals(1, sessionStore.getReusedRouteCount());
+	}
+	
+	@Test
+	public void testNewRouteOutsideCorridor() {
+		
+		// about 200m north of the route
+		assertNull(sessionStore.getRemainingRoute("device", new GeoPoint(51.0018, 13.715), APPOINTMENT));
+		// other appointment
+		assertNull(sessionStore.getRemainingRoute("device", new GeoPoint(51.0, 13.715), new GeoPoint(51.01, 13.72)));
+		// unknown device
+		assertNull(sessionStore.getRemainingRoute("other", new GeoPoint(51.0, 13.715), APPOINTMENT));
+		assertEquals(3, sessionStore.getRequestedRouteCount());
+	}
+	
+	@Test
+	public void testExpiredRoute() {
+		
+		DeviceSessionStore expiringStore = new DeviceSessionStore(50, 0, 3600);
+		expiringStore.setRoute("device", APPOINTMENT, new RouteResult(
+				RouteGeometry.of(new double[] {51.0, 13.70, 51.0, 13.72}), 120000, 1400));
+		assertNull(expiringStore.getRemainingRoute("device", new GeoPoint(51.0, 13.71), APPOINTMENT));
+	}
+	
+	@Test
+	public void testSinceOfLocationStatus() throws InterruptedException {
+		
+		Date onTheMove = sessionStore.updateLocationStatus("device", LocationStatus.ON_THE_MOVE);
+		Thread.sleep(5);
+		assertEquals(onTheMove, sessionStore.updateLocationStatus("device", LocationStatus.ON_THE_MOVE));
+		
+		Date atAppointment = sessionStore.updateLocationStatus("device", LocationStatus.AT_APPOINTMENT);
+		assertNotEquals(onTheMove, atAppointment);
+		assertEquals(atAppointment, sessionStore.updateLocationStatus("device", LocationStatus.AT_APPOINTMENT));
+	}
+	
+}
@@ -0,0 +1,70 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import monitoring.beans.GeoPoint;
+import monitoring.utility.DistanceCalculator;
+import monitoring.utility.GeoPointBatch;
+
+public class TestDistanceCalculator {
+	
+	@Test
+	public void testShortDistancesArePrecise() {
+		
+		// along a meridian the distance is the arc of the latitude difference
+		double oneMeter = Math.toDegrees(1 / DistanceCalculator.EARTH_RADIUS);
+		assertEquals(1.0, DistanceCalculator.getDistance(51.04, 13.73, 51.04 + oneMeter, 13.73), 1e-6);
+		assertEquals(100.0, DistanceCalculator.getDistance(51.04, 13.73, 51.04 + 100 * oneMeter, 13.73), 1e-6);
+		assertEquals(0.0, DistanceCalculator.getDistance(new GeoPoint(51.04, 13.73), new GeoPoint(51.04, 13.73)), 0);
+		
+		// half the circumference between antipodes
+		assertEquals(Math.PI * DistanceCalculator.EARTH_RADIUS, DistanceCalculator.getDistance(0, 0, 0, 180), 1e-3);
+	}
+	
+	@Test
+	public void testBatchMatchesSingleDistances() {
+		
+		Random random = new Random(7);
+		int size = 1000;
+		double[] latitudes = new double[size];
+		double[] longitudes = new double[size];
+		for (int i = 0; i < size; i++) {
+			// mostly close points, some far away to check the exact path of the batch
+			double spread = i % 10 == 0 ? 60 : 0.05;
+			latitudes[i] = 51.04 + (random.nextDouble() - 0.5) * spread;
+			longitudes[i] = 13.73 + (random.nextDouble() - 0.5) * spread;
+		}
+		
+		double[] haversine = new double[size];
+		double[] chord = new double[size];
+		DistanceCalculator.getDistances(51.04, 13.73, latitudes, longitudes, haversine);
+		GeoPointBatch.of(latitudes, longitudes).getDistances(51.04, 13.73, chord);
+		for (int i = 0; i < size; i++) {
+			double single = DistanceCalculator.getDistance(51.04, 13.73, latitudes[i], longitudes[i]);
+			assertEquals(single, haversine[i], 1e-9 * Math.max(1, single));
+			assertEquals(single, chord[i], 1e-6 * Math.max(1, single));
+		}
+	}
+	
+	@Test
+	public void testBatchQueries() {
+		
+		GeoPointBatch batch = GeoPointBatch.of(
+				new double[] {51.04, 51.041, 51.05, 52.52},
+				new double[] {13.73, 13.73, 13.73, 13.405});
+		
+		// 51.041 is 111 m north, 51.05 is 1.1 km north
+		assertEquals(2, batch.countWithin(51.04, 13.73, 200));
+		assertEquals(3, batch.countWithin(51.04, 13.73, 2000));
+		int[] indexes = new int[batch.size()];
+		assertEquals(1, batch.findWithin(51.05, 13.73, 100, indexes));
+		assertEquals(2, indexes[0]);
+		assertEquals(3, batch.findNearest(52.5, 13.4));
+		assertEquals(-1, GeoPointBatch.of(new double[0], new double[0]).findNearest(51.04, 13.73));
+	}
+	
+}
@@ -0,0 +1,83 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import monitoring.beans.GeoPoint;
+import monitoring.beans.Report;
+import monitoring.beans.RouteGeometry;
+import monitoring.beans.RouteResult;
+import monitoring.beans.TravelMode;
+import monitoring.cache.PositionStore;
+import monitoring.cache.RouteCache;
+import monitoring.component.MonitoringService;
+import monitoring.connector.HttpConnector;
+import monitoring.connector.RoutingConnector;
+import monitoring.connector.TrackingConnector;
+import monitoring.eta.StraightLineEtaEstimator;
+import monitoring.utility.DistanceCalculator;
+import monitoring.utility.RouteFormat;
+
+public class TestEtaEstimator {
+	
+	private static final GeoPoint DEMO_POSITION = new GeoPoint(51.04, 13.73);
+	
+	@Test
+	public void testStraightLineEstimatePerMode() {
+		
+		StraightLineEtaEstimator estimator = new StraightLineEtaEstimator(1.5, 36, 18, 3.6);
+		GeoPoint appointment = new GeoPoint(51.045, 13.73);
+		double distance = DistanceCalculator.getDistance(DEMO_POSITION, appointment) * 1.5;
+		
+		RouteResult car = estimator.estimate("device", DEMO_POSITION, appointment, TravelMode.CAR);
+		assertEquals(distance, car.getDistance(), 1e-6);
+		assertEquals(distance / 10 * 1000, car.getTimeInMs(), 1);
+		assertEquals(2 * car.getTimeInMs(), estimator.estimate("device", DEMO_POSITION, appointment, TravelMode.BIKE).getTimeInMs(), 1);
+		assertEquals(10 * car.getTimeInMs(), estimator.estimate("device", DEMO_POSITION, appointment, TravelMode.FOOT).getTimeInMs(), 10);
+		
+		// the route is the straight line
+		RouteGeometry route = car.getPointList();
+		assertEquals(2, route.size());
+		assertEquals(51.045, route.getLatitude(1), 0);
+		assertFalse(car.isDegraded());
+	}
+	
+	@Test
+	public void testShortDistanceSkipsRouting() throws Exception {
+		
+		final AtomicInteger routingCalls = new AtomicInteger();
+		HttpConnector countingConnector = new HttpConnector() {
+			@Override
+			public <T> T getConnectionStream(String urlStr, String token, StreamHandler<T> handler) throws IOException {
+				routingCalls.incrementAndGet();
+				throw new IOException("No routing in test");
+			}
+		};
+		MonitoringService monitoringService = new MonitoringService(
+				new RoutingConnector(countingConnector, new RouteCache(25, 120, 1000)),
+				new TrackingConnector(), new PositionStore(30, 600));
+		long appointment = new Date().getTime() + 30 * 60 * 1000;
+		
+		// about 330 m away, estimated locally
+		JSONObject report = monitoringService.getReportAsync("demo", appointment, 51.043, 13.73, 0,
+				RouteFormat.POINTS, TravelMode.FOOT).get();
+		assertEquals(0, routingCalls.get());
+		assertEquals(Report.TimeStatus.IN_TIME, report.get("timeStatus"));
+		assertEquals(2, ((RouteGeometry) report.get("routeNext")).size());
+		long eta = ((Date) report.get("expectedTimeOfArrival")).getTime();
+		assertTrue(eta > new Date().getTime() + 4 * 60 * 1000);
+		
+		// far away, routed
+		monitoringService.getReport("demo", appointment, 51.029, 13.736, 0);
+		assertEquals(1, routingCalls.get());
+	}
+	
+}
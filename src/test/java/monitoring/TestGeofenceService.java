@@ -0,0 +1,104 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import monitoring.beans.GeoPoint;
+import monitoring.beans.Geofence;
+import monitoring.beans.GeofenceEvent;
+import monitoring.beans.TrackedPosition;
+import monitoring.beans.WorkingStatus.LocationStatus;
+import monitoring.geofence.GeofenceIndex;
+import monitoring.geofence.GeofenceService;
+import monitoring.utility.DistanceCalculator;
+
+public class TestGeofenceService {
+	
+	@Test
+	public void testIndexMatchesAllGeofencesInRadius() {
+		
+		// radii larger and smaller than the cells, at the edges of cells
+		GeofenceIndex index = new GeofenceIndex(500);
+		Random random = new Random(3);
+		Geofence[] geofences = new Geofence[2000];
+		for (int i = 0; i < geofences.length; i++) {
+			geofences[i] = new Geofence("g" + i, null, 51.04 + (random.nextDouble() - 0.5) * 0.2,
+					13.73 + (random.nextDouble() - 0.5) * 0.3, 20 + random.nextDouble() * 1500);
+			index.put(geofences[i]);
+		}
+		
+		for (int i = 0; i < 500; i++) {
+			double latitude = 51.04 + (random.nextDouble() - 0.5) * 0.2;
+			double longitude = 13.73 + (random.nextDouble() - 0.5) * 0.3;
+			int expected = 0;
+			for (Geofence geofence : geofences) {
+				if (DistanceCalculator.getDistance(latitude, longitude, geofence.getLatitude(), geofence.getLongitude()) <= geofence.getRadius())
+					expected++;
+			}
+			assertEquals(expected, index.findContaining(latitude, longitude, "device").size());
+		}
+		
+		// removed geofences leave no cells behind
+		for (Geofence geofence : geofences)
+			index.remove(geofence.getId());
+		assertEquals(0, index.size());
+		assertEquals(0, index.getCellCount());
+	}
+	
+	@Test
+	public void testArrivalAndDepartureEvents() {
+		
+		GeofenceService service = new GeofenceService(500, 100, 5000, 4, 600);
+		service.register(new Geofence("appointment", "device", 51.04, 13.73, 0));
+		service.register(new Geofence("other", "other device", 51.04, 13.73, 500));
+		GeoPoint appointment = new GeoPoint(51.04, 13.73);
+		
+		assertEquals(0, service.update(new TrackedPosition("device", 51.05, 13.73, 1000)).size());
+		assertEquals(LocationStatus.ON_THE_MOVE, service.getLocationStatus("device", appointment));
+		assertEquals(LocationStatus.ON_THE_MOVE, service.getLocationStatus("other device", appointment));
+		assertNull(service.getLocationStatus("unknown device", appointment));
+		assertNull(service.getLocationStatus("device", new GeoPoint(51.06, 13.73)));
+		
+		// default radius of 100 m
+		List<GeofenceEvent> events = service.update(new TrackedPosition("device", 51.0405, 13.73, 2000));
+		assertEquals(1, events.size());
+		assertEquals("appointment", events.get(0).getGeofenceId());
+		assertEquals(LocationStatus.AT_APPOINTMENT, events.get(0).getLocationStatus());
+		assertEquals(LocationStatus.AT_APPOINTMENT, service.getLocationStatus("device", appointment));
+		
+		// staying inside or an older fix outside cause no events
+		assertEquals(0, service.update(new TrackedPosition("device", 51.0401, 13.73, 3000)).size());
+		assertEquals(0, service.update(new TrackedPosition("device", 51.05, 13.73, 2500)).size());
+		
+		events = service.update(new TrackedPosition("device", 51.05, 13.73, 4000));
+		assertEquals(1, events.size());
+		assertEquals(LocationStatus.ON_THE_MOVE, events.get(0).getLocationStatus());
+		
+		// feed continues after the last sequence read and drops the oldest events
+		assertEquals(2, service.getEvents(-1, 10).size());
+		assertEquals(1, service.getEvents(0, 10).get(0).getSequence());
+		for (int i = 0; i < 4; i++)
+			service.update(new TrackedPosition("device", i % 2 == 0 ? 51.04 : 51.05, 13.73, 5000 + i));
+		List<GeofenceEvent> feed = service.getEvents(-1, 10);
+		assertEquals(4, feed.size());
+		assertEquals(2, feed.get(0).getSequence());
+		assertEquals(5, service.getLastSequence());
+		
+		// a fix less accurate than the radius at the appointment still arrives
+		TrackedPosition indoor = new TrackedPosition("device", 51.04, 13.73, 6000);
+		indoor.setAccuracy(150);
+		events = service.update(indoor);
+		assertEquals(1, events.size());
+		assertEquals(LocationStatus.AT_APPOINTMENT, events.get(0).getLocationStatus());
+		
+		assertTrue(service.unregister("appointment"));
+		assertNull(service.getLocationStatus("device", appointment));
+	}
+	
+}
@@ -0,0 +1,121 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.util.concurrent.Callable;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import monitoring.beans.GeoPoint;
+import monitoring.beans.RouteGeometry;
+import monitoring.beans.RouteResult;
+import monitoring.beans.TrackedPosition;
+import monitoring.cache.MappedPositionFile;
+import monitoring.cache.MappedRouteFile;
+import monitoring.cache.PositionStore;
+import monitoring.cache.RouteCache;
+import monitoring.cache.RouteCache.RouteKey;
+
+public class TestMappedFiles {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void testRoutesSurviveRestart() throws Exception {
+
+		File file = folder.newFile("routes.dat");
+		RouteCache routeCache = new RouteCache(25, 120, 1000, MappedRouteFile.open(file, 1));
+		RouteKey key = routeCache.getKey(new GeoPoint(51.04, 13.73), new GeoPoint(51.05, 13.74));
+		final RouteResult route = new RouteResult(RouteGeometry.of(
+				new double[] { 51.0400001, 13.7300001, 51.045, 13.735, 51.05, 13.74 }), 600000, 1500.5);
+		routeCache.get(key, new Callable<RouteResult>() {
+			@Override
+			public RouteResult call() {
+				return route;
+			}
+		});
+		routeCache.flush();
+
+		// a new cache on the same file loads the route without routing
+		RouteCache restarted = new RouteCache(25, 120, 1000, MappedRouteFile.open(file, 1));
+		RouteResult loaded = restarted.get(key, new Callable<RouteResult>() {
+			@Override
+			public RouteResult call() {
+				throw new IllegalStateException("Route should come from the file");
+			}
+		});
+		assertEquals(600000, loaded.getTimeInMs());
+		assertEquals(1500.5, loaded.getDistance(), 0);
+		assertEquals(route.getPointList(), loaded.getPointList());
+		assertEquals(1, restarted.getFileLoadCount());
+
+		// routes older than the lifetime are not loaded
+		Thread.sleep(5);
+		assertNull(new RouteCache(25, 0, 1000, MappedRouteFile.open(file, 1)).getIfPresent(key));
+	}
+
+	@Test
+	public void testOverwrittenRoutesAreNotLoaded() throws Exception {
+
+		MappedRouteFile routeFile = MappedRouteFile.open(folder.newFile("routes.dat"), 1);
+		RouteCache routeCache = new RouteCache(25, 120, 1000);
+		double[] coordinates = new double[20000];
+		for (int i = 0; i < coordinates.length; i += 2) {
+			coordinates[i] = 51.0 + i * 1e-5;
+			coordinates[i + 1] = 13.7;
+		}
+		RouteResult route = new RouteResult(RouteGeometry.of(coordinates), 600000, 20000);
+
+		// records of 80 kB, the ring holds 12 of them
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 20; i++)
+			routeFile.put(routeCache.getKey(new GeoPoint(51.0, 13.7 + i * 0.01), new GeoPoint(51.1, 13.7)), route, now);
+		assertNull(routeFile.get(routeCache.getKey(new GeoPoint(51.0, 13.7), new GeoPoint(51.1, 13.7)), 0));
+		assertNull(routeFile.get(routeCache.getKey(new GeoPoint(51.0, 13.77), new GeoPoint(51.1, 13.7)), 0));
+		for (int i = 8; i < 20; i++)
+			assertEquals(10000, routeFile.get(routeCache.getKey(new GeoPoint(51.0, 13.7 + i * 0.01), new GeoPoint(51.1, 13.7)), 0)
+					.getPointList().size());
+	}
+
+	@Test
+	public void testPositionsSurviveRestart() throws Exception {
+
+		File file = folder.newFile("positions.dat");
+		PositionStore positionStore = new PositionStore(30, 600, MappedPositionFile.open(file, 4));
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 6; i++) {
+			TrackedPosition position = new TrackedPosition("device" + i, 51.04 + i * 0.001, 13.73, now - i);
+			position.setAccuracy(25 + i);
+			position.setSpeed(8.5);
+			position.setBearing(270);
+			positionStore.update(position);
+		}
+		positionStore.flush();
+
+		PositionStore restarted = new PositionStore(30, 600, MappedPositionFile.open(file, 4));
+		TrackedPosition position = restarted.getIfFresh("device5");
+		assertEquals(51.045, position.getLatitude(), 1e-7);
+		assertEquals(now - 5, position.getTimestamp());
+		assertEquals(30, position.getAccuracy(), 0);
+		assertEquals(8.5, position.getSpeed(), 0);
+		assertEquals(270, position.getBearing(), 0);
+		assertEquals(1, restarted.getFileLoadCount());
+		assertNull(restarted.getIfFresh("unknown"));
+
+		// four slots, two of the devices have been replaced
+		int stored = 0;
+		for (int i = 0; i < 6; i++)
+			stored += restarted.getIfFresh("device" + i) != null ? 1 : 0;
+		assertEquals(4, stored);
+
+		// positions older than the max age are not used
+		Thread.sleep(5);
+		assertNull(new PositionStore(0, 600, MappedPositionFile.open(file, 4)).getIfFresh("device5"));
+	}
+
+}
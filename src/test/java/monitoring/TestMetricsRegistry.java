@@ -0,0 +1,64 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import monitoring.metrics.MetricsRegistry;
+import monitoring.metrics.Timer;
+
+public class TestMetricsRegistry {
+	
+	@Test
+	public void testPercentilesWithinBucketError() {
+		
+		Timer timer = new Timer(60000);
+		for (int ms = 1; ms <= 1000; ms++)
+			timer.record(TimeUnit.MILLISECONDS.toNanos(ms));
+		
+		double[] percentiles = timer.getPercentiles(0.5, 0.95, 0.99, 0.999);
+		assertEquals(0.5, percentiles[0], 0.5 * 0.032);
+		assertEquals(0.95, percentiles[1], 0.95 * 0.032);
+		assertEquals(0.99, percentiles[2], 0.99 * 0.032);
+		assertEquals(0.999, percentiles[3], 0.999 * 0.032);
+		assertEquals(1000, timer.getCount());
+		assertEquals(500.5, timer.getTotalSeconds(), 1e-9);
+	}
+	
+	@Test
+	public void testPercentilesForgetOldSamples() throws InterruptedException {
+		
+		Timer timer = new Timer(200);
+		for (int i = 0; i < 100; i++)
+			timer.record(TimeUnit.SECONDS.toNanos(5));
+		assertEquals(5, timer.getPercentile(0.99), 5 * 0.032);
+		
+		// after the window only the new, fast calls count
+		Thread.sleep(300);
+		for (int i = 0; i < 100; i++)
+			timer.record(TimeUnit.MILLISECONDS.toNanos(10));
+		assertEquals(0.01, timer.getPercentile(0.99), 0.01 * 0.032);
+		assertEquals(200, timer.getCount());
+	}
+	
+	@Test
+	public void testScrapeFormat() {
+		
+		MetricsRegistry metrics = new MetricsRegistry();
+		metrics.timer("report_stage_seconds", "stage", "routing").record(TimeUnit.MILLISECONDS.toNanos(20));
+		metrics.counter("upstream_errors_total", "endpoint", "routing", "error", "ConnectException").increment();
+		metrics.gauge("cache_hit_ratio", () -> 0.75, "cache", "route");
+		
+		String scrape = metrics.scrape();
+		assertTrue(scrape.contains("# TYPE report_stage_seconds summary\n"));
+		assertTrue(scrape.contains("report_stage_seconds{stage=\"routing\",quantile=\"0.99\"} 0.020"));
+		assertTrue(scrape.contains("report_stage_seconds_count{stage=\"routing\"} 1\n"));
+		assertTrue(scrape.contains("# TYPE upstream_errors_total counter\n"
+				+ "upstream_errors_total{endpoint=\"routing\",error=\"ConnectException\"} 1\n"));
+		assertTrue(scrape.contains("cache_hit_ratio{cache=\"route\"} 0.75\n"));
+	}
+	
+}
@@ -2,16 +2,28 @@ package monitoring;
 
 import static org.junit.Assert.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.List;
 
 import org.json.simple.JSONObject;
 import org.junit.Before;
 import org.junit.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 
+import monitoring.beans.MonitoringRequest;
 import monitoring.beans.Report;
+import monitoring.beans.TrackedPosition;
 import monitoring.beans.WorkingStatus;
+import monitoring.cache.PositionStore;
+import monitoring.cache.RouteCache;
+import monitoring.connector.HttpConnector;
+import monitoring.connector.RoutingConnector;
+import monitoring.connector.TrackingConnector;
 import monitoring.exceptions.InputParameterErrorException;
 import monitoring.exceptions.InternalMonitoringErrorException;
 import monitoring.exceptions.RoutingNotFoundException;
@@ -28,7 +40,10 @@ public class TestMonitoringService {
 	
 	@Before
 	public void initialize() {
-		monitoringService = new MonitoringService();
+		// failed routing requests make the time status unknown, so routes take 5 minutes here
+		monitoringService = new MonitoringService(
+				new RoutingConnector(new RouteConnector(), new RouteCache(25, 120, 1000)),
+				new TrackingConnector(), new PositionStore(30, 600));
 		currentTime = new Date().getTime();
 	}
 	
@@ -65,4 +80,51 @@ public class TestMonitoringService {
 		assertTrue(monitoringReport.get("timeStatus").equals(Report.TimeStatus.IN_TIME));
 		
 	}
+	
+	@Test
+	public void testMonitoringAsync() throws Exception {
+		
+		monitoringReport = monitoringService.getReportAsync("demo", currentTime+10*60*1000, 51.029, 13.736, 20).get();
+		
+		JSONObject workingStatus = (JSONObject) monitoringReport.get("workingStatus");
+		assertTrue(workingStatus.get("locationStatus").equals(WorkingStatus.LocationStatus.ON_THE_MOVE));
+		assertTrue(monitoringReport.get("timeStatus").equals(Report.TimeStatus.DELAYED));
+	}
+	
+	@Test
+	public void testMonitoringBatch() throws Exception {
+		
+		List<JSONObject> reports = monitoringService.getBatchReport(Arrays.asList(
+				new MonitoringRequest("demo", currentTime+15*60*1000, 51.0399, 13.73, 0),
+				new MonitoringRequest("unknown", currentTime+15*60*1000, 51.029, 13.736, 0),
+				new MonitoringRequest("demo", currentTime+10*60*1000, 51.029, 13.736, 20),
+				new MonitoringRequest(null, currentTime+10*60*1000, 51.029, 13.736, 0))).get();
+		
+		assertTrue(reports.size() == 4);
+		JSONObject workingStatus = (JSONObject) ((JSONObject) reports.get(0).get("report")).get("workingStatus");
+		assertTrue(workingStatus.get("locationStatus").equals(WorkingStatus.LocationStatus.AT_APPOINTMENT));
+		assertTrue(reports.get(1).get("error") != null);
+		assertTrue(((JSONObject) reports.get(2).get("report")).get("timeStatus").equals(Report.TimeStatus.DELAYED));
+		assertTrue(reports.get(3).get("error").equals("Device id required"));
+	}
+	
+	@Test
+	public void testMonitoringPushedPosition() throws InternalMonitoringErrorException {
+		
+		// no tracking service available, report uses the pushed position
+		monitoringService.updatePositions(Arrays.asList(new TrackedPosition("truck1", 51.0399, 13.73, currentTime)));
+		monitoringReport = monitoringService.getReport("truck1", currentTime+15*60*1000, 51.0399, 13.73, 0);
+		
+		JSONObject workingStatus = (JSONObject) monitoringReport.get("workingStatus");
+		assertTrue(workingStatus.get("locationStatus").equals(WorkingStatus.LocationStatus.AT_APPOINTMENT));
+	}
+	
+	private static class RouteConnector extends HttpConnector {
+		
+		@Override
+		public <T> T getConnectionStream(String urlStr, String token, StreamHandler<T> handler) throws IOException {
+			String response = "{\"timeInMs\": 300000, \"distance\": 1500, \"pointList\": [[51.04,13.73],[51.029,13.736]]}";
+			return handler.handle(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+		}
+	}
 }
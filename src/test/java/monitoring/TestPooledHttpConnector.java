@@ -0,0 +1,150 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import monitoring.connector.HttpConnectorInterface;
+import monitoring.connector.PooledHttpConnector;
+import monitoring.exceptions.HttpStatusException;
+
+public class TestPooledHttpConnector {
+
+	private static final int LATENCY_MS = 50;
+	private static final int REQUESTS = 32;
+
+	private HttpServer stubServer;
+	private String urlStub;
+	private PooledHttpConnector connector;
+
+	@Before
+	public void initialize() throws IOException {
+		// stub upstream with a fixed latency per request
+		stubServer = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		stubServer.setExecutor(Executors.newCachedThreadPool());
+		stubServer.createContext("/route", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				try {
+					Thread.sleep(exchange.getRequestURI().getQuery() != null ? 1000 : LATENCY_MS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				byte[] body = "{\"timeInMs\":60000}".getBytes(StandardCharsets.UTF_8);
+				exchange.sendResponseHeaders(200, body.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		});
+		stubServer.createContext("/secured", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				exchange.sendResponseHeaders(401, -1);
+				exchange.close();
+			}
+		});
+		stubServer.start();
+		urlStub = "http://localhost:" + stubServer.getAddress().getPort();
+		connector = new PooledHttpConnector(1000, 500, 64, 32);
+	}
+
+	@After
+	public void shutdown() throws IOException {
+		connector.shutdown();
+		stubServer.stop(0);
+	}
+
+	@Test
+	public void testThroughputScalesWithThreads() throws Exception {
+
+		long sequential = runLoad(1);
+		long concurrent = runLoad(16);
+
+		// 16 request threads should be close to 16 times faster, expect at least 4 times
+		assertTrue("sequential " + sequential + "ms, concurrent " + concurrent + "ms",
+				concurrent * 4 < sequential);
+	}
+
+	@Test(expected = SocketTimeoutException.class)
+	public void testReadTimeout() throws IOException {
+
+		connector.getConnectionString(urlStub + "/route?slow=true");
+	}
+
+	@Test
+	public void testUnauthorizedIsNotRepeated() throws IOException {
+
+		try {
+			connector.getConnectionStringWithToken(urlStub + "/secured", "Token abc");
+		} catch (HttpStatusException e) {
+			assertTrue(e.isUnauthorized());
+			return;
+		}
+		fail("401 expected");
+	}
+
+	@Test
+	public void testStreamReleasesConnection() throws IOException {
+
+		// a single pooled connection, handlers only read the first byte
+		PooledHttpConnector singleConnection = new PooledHttpConnector(1000, 500, 1, 1);
+		try {
+			for (int i = 0; i < 3; i++) {
+				int first = singleConnection.getConnectionStream(urlStub + "/route", null,
+						new HttpConnectorInterface.StreamHandler<Integer>() {
+							@Override
+							public Integer handle(InputStream stream) throws IOException {
+								return stream.read();
+							}
+						});
+				assertEquals('{', first);
+			}
+		} finally {
+			singleConnection.shutdown();
+		}
+	}
+
+	private long runLoad(int threads) throws Exception {
+
+		ExecutorService requestThreads = Executors.newFixedThreadPool(threads);
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		long start = System.nanoTime();
+		for (int i = 0; i < REQUESTS; i++) {
+			results.add(requestThreads.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return connector.getConnectionString(urlStub + "/route",
+							null, HttpConnectorInterface.RestRequestType.GET);
+				}
+			}));
+		}
+		for (Future<String> result : results)
+			assertEquals("{\"timeInMs\":60000}", result.get());
+		requestThreads.shutdown();
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+	}
+
+}
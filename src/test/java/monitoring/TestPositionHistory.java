@@ -0,0 +1,143 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import com.google.common.base.Splitter;
+
+import monitoring.beans.TrackedPosition;
+import monitoring.beans.WorkingStatus;
+import monitoring.cache.PositionHistory;
+import monitoring.cache.PositionStore;
+import monitoring.cache.RouteCache;
+import monitoring.component.MonitoringService;
+import monitoring.connector.HttpConnector;
+import monitoring.connector.RoutingConnector;
+import monitoring.connector.TrackingConnector;
+import monitoring.utility.DistanceCalculator;
+
+public class TestPositionHistory {
+
+	private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+	private final AtomicInteger routingCalls = new AtomicInteger();
+
+	@Test
+	public void testSpeedAndHeadingFromFixes() {
+
+		PositionHistory history = new PositionHistory(8, 120, 600);
+		long now = System.currentTimeMillis();
+		assertNull(history.getMotion("van"));
+
+		// 10 m/s to the east, more fixes than the ring holds
+		double metersPerDegreeLon = DistanceCalculator.METERS_PER_DEGREE * Math.cos(Math.toRadians(51.0));
+		for (int i = 0; i < 20; i++)
+			history.add(position("van", 51.0, 13.7 + i * 50 / metersPerDegreeLon, now + i * 5000, 5));
+		// fixes older than the last one are ignored
+		history.add(position("van", 51.1, 13.7, now, 5));
+
+		PositionHistory.Motion motion = history.getMotion("van");
+		assertEquals(10, motion.getSpeed(), 0.1);
+		assertEquals(90, motion.getHeading(), 1);
+		assertEquals(5, history.getAccuracy("van"), 0);
+
+		// jitter within the accuracy of the fixes is no movement
+		for (int i = 0; i < 8; i++)
+			history.add(position("parked", 51.0 + (i % 2) * 15 / DistanceCalculator.METERS_PER_DEGREE, 13.7, now + i * 5000, 20));
+		assertEquals(0, history.getMotion("parked").getSpeed(), 0);
+		assertTrue(Double.isNaN(history.getMotion("parked").getHeading()));
+
+		// a single fix only has the speed measured by the device
+		TrackedPosition measured = position("bike", 51.0, 13.7, now, 10);
+		measured.setSpeed(4);
+		measured.setBearing(180);
+		history.add(measured);
+		assertEquals(4, history.getMotion("bike").getSpeed(), 0);
+		assertEquals(180, history.getMotion("bike").getHeading(), 0);
+	}
+
+	@Test
+	public void testEtaFollowsObservedSpeedAndIgnoresJitter() throws Exception {
+
+		MonitoringService monitoringService = new MonitoringService(
+				new RoutingConnector(new RouteConnector(), new RouteCache(25, 120, 1000)),
+				new TrackingConnector(), new PositionStore(30, 600));
+		long now = new Date().getTime();
+
+		// half the speed of the route towards the appointment in the north
+		for (int i = 0; i <= 6; i++)
+			monitoringService.updatePositions(Collections.singletonList(
+					position("van", 51.0 + i * 55.5 / DistanceCalculator.METERS_PER_DEGREE, 13.7, now - (6 - i) * 10000, 5)));
+		JSONObject report = monitoringService.getReport("van", now + 2 * 60 * MINUTE, 51.2, 13.7, 0);
+		assertEquals(now + 45 * MINUTE, ((Date) report.get("expectedTimeOfArrival")).getTime(), MINUTE);
+		assertEquals(1, routingCalls.get());
+
+		// an inaccurate fix off the route keeps the route
+		double metersPerDegreeLon = DistanceCalculator.METERS_PER_DEGREE * Math.cos(Math.toRadians(51.0));
+		monitoringService.updatePositions(Collections.singletonList(
+				position("van", 51.0 + 333 / DistanceCalculator.METERS_PER_DEGREE, 13.7 + 80 / metersPerDegreeLon, now + 1000, 60)));
+		monitoringService.getReport("van", now + 2 * 60 * MINUTE, 51.2, 13.7, 0);
+		assertEquals(1, routingCalls.get());
+	}
+
+	@Test
+	public void testInaccurateFixesKeepLocationStatus() throws Exception {
+
+		MonitoringService monitoringService = new MonitoringService(
+				new RoutingConnector(new RouteConnector(), new RouteCache(25, 120, 1000)),
+				new TrackingConnector(), new PositionStore(30, 600));
+		long now = new Date().getTime();
+
+		// meters south of the appointment and accuracy of the fixes, arrival within 100 m,
+		// fixes less accurate than the arrival distance still arrive
+		double[][] fixes = { { 50, 5 }, { 120, 40 }, { 300, 10 }, { 90, 30 }, { 20, 10 }, { 300, 10 }, { 10, 150 } };
+		WorkingStatus.LocationStatus[] statuses = {
+				WorkingStatus.LocationStatus.AT_APPOINTMENT, WorkingStatus.LocationStatus.AT_APPOINTMENT,
+				WorkingStatus.LocationStatus.ON_THE_MOVE, WorkingStatus.LocationStatus.ON_THE_MOVE,
+				WorkingStatus.LocationStatus.AT_APPOINTMENT, WorkingStatus.LocationStatus.ON_THE_MOVE,
+				WorkingStatus.LocationStatus.AT_APPOINTMENT };
+		for (int i = 0; i < fixes.length; i++) {
+			monitoringService.updatePositions(Collections.singletonList(
+					position("van", 51.1 - fixes[i][0] / DistanceCalculator.METERS_PER_DEGREE, 13.8, now - 100 + i, fixes[i][1])));
+			JSONObject report = monitoringService.getReport("van", now + 60 * MINUTE, 51.1, 13.8, 0);
+			assertEquals("fix " + i, statuses[i], ((JSONObject) report.get("workingStatus")).get("locationStatus"));
+		}
+	}
+
+	private static TrackedPosition position(String deviceId, double latitude, double longitude, long timestamp, double accuracy) {
+		TrackedPosition position = new TrackedPosition(deviceId, latitude, longitude, timestamp);
+		position.setAccuracy(accuracy);
+		return position;
+	}
+
+	/**
+	 * Routes with 30 minutes travel time for 20 km straight from start to end.
+	 */
+	private class RouteConnector extends HttpConnector {
+
+		@Override
+		public <T> T getConnectionStream(String urlStr, String token, StreamHandler<T> handler) throws IOException {
+			routingCalls.incrementAndGet();
+			Map<String, String> parameters = Splitter.on('&').withKeyValueSeparator('=')
+					.split(urlStr.substring(urlStr.indexOf('?') + 1));
+			String response = "{\"timeInMs\": 1800000, \"distance\": 20000, \"pointList\": [["
+					+ parameters.get("startLat") + "," + parameters.get("startLon") + "],["
+					+ parameters.get("endLat") + "," + parameters.get("endLon") + "]]}";
+			return handler.handle(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+		}
+	}
+
+}
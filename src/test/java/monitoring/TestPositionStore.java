@@ -0,0 +1,34 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import monitoring.beans.TrackedPosition;
+import monitoring.cache.PositionStore;
+
+public class TestPositionStore {
+	
+	@Test
+	public void testOldAndFutureFixesAreIgnored() {
+		
+		PositionStore positionStore = new PositionStore(30, 600);
+		long now = System.currentTimeMillis();
+		
+		// received just now, but measured yesterday
+		positionStore.update(new TrackedPosition("van", 51.04, 13.73, now - TimeUnit.HOURS.toMillis(13)));
+		assertNull(positionStore.getIfFresh("van"));
+		
+		// a fix from the future would hide all later ones
+		positionStore.update(new TrackedPosition("van", 51.04, 13.73, now - 1000));
+		positionStore.update(new TrackedPosition("van", 51.05, 13.73, now + TimeUnit.DAYS.toMillis(1)));
+		positionStore.update(new TrackedPosition("van", 51.06, 13.73, now));
+		TrackedPosition position = positionStore.getIfFresh("van");
+		assertEquals(51.06, position.getLatitude(), 0);
+		assertEquals(now, position.getTimestamp());
+	}
+	
+}
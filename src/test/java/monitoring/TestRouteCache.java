@@ -0,0 +1,83 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import monitoring.beans.GeoPoint;
+import monitoring.beans.RouteGeometry;
+import monitoring.beans.RouteResult;
+import monitoring.cache.RouteCache;
+import monitoring.exceptions.RoutingNotFoundException;
+
+public class TestRouteCache {
+	
+	private RouteCache routeCache;
+	private AtomicInteger routingRequests;
+	
+	@Before
+	public void initialize() {
+		routeCache = new RouteCache(25, 120, 1000);
+		routingRequests = new AtomicInteger();
+	}
+	
+	@Test
+	public void testNearbyPointsShareRoute() throws RoutingNotFoundException {
+		
+		GeoPoint appointment = new GeoPoint(51.029, 13.736);
+		RouteResult first = getRoute(new GeoPoint(51.04, 13.73), appointment, 10);
+		// about 5m away from the first position
+		RouteResult second = getRoute(new GeoPoint(51.04003, 13.73003), appointment, 10);
+		
+		assertSame(first, second);
+		assertEquals(1, routingRequests.get());
+		assertEquals(1, routeCache.getStats().hitCount());
+		assertEquals(1, routeCache.getStats().missCount());
+	}
+	
+	@Test
+	public void testDistantPointsAreRoutedSeparately() throws RoutingNotFoundException {
+		
+		GeoPoint appointment = new GeoPoint(51.029, 13.736);
+		getRoute(new GeoPoint(51.04, 13.73), appointment, 10);
+		// about 200m away from the first position
+		getRoute(new GeoPoint(51.0418, 13.73), appointment, 10);
+		
+		assertEquals(2, routingRequests.get());
+		assertNotEquals(routeCache.getKey(new GeoPoint(51.04, 13.73), appointment),
+				routeCache.getKey(new GeoPoint(51.0418, 13.73), appointment));
+	}
+	
+	@Test
+	public void testSizeIsBoundByRoutePoints() throws RoutingNotFoundException {
+		
+		GeoPoint appointment = new GeoPoint(51.029, 13.736);
+		for (int i = 0; i < 10; i++)
+			getRoute(new GeoPoint(51.04 + i * 0.01, 13.73), appointment, 99);
+		
+		// 100 points per route including the weight of the entry itself
+		assertTrue(routeCache.size() * 100 <= 1000);
+		assertEquals(10 - routeCache.size(), routeCache.getStats().evictionCount());
+	}
+	
+	private RouteResult getRoute(GeoPoint start, GeoPoint end, final int points) throws RoutingNotFoundException {
+		return routeCache.get(routeCache.getKey(start, end), new Callable<RouteResult>() {
+			@Override
+			public RouteResult call() {
+				routingRequests.incrementAndGet();
+				RouteGeometry.Builder pointList = new RouteGeometry.Builder(points);
+				for (int i = 0; i < points; i++)
+					pointList.add(51.0, 13.7);
+				return new RouteResult(pointList.build(), 60000, 1000);
+			}
+		});
+	}
+	
+}
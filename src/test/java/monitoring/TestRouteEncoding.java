@@ -0,0 +1,65 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import monitoring.beans.RouteGeometry;
+import monitoring.utility.PolylineEncoder;
+import monitoring.utility.RouteFormat;
+import monitoring.utility.RouteSimplifier;
+
+public class TestRouteEncoding {
+	
+	@Test
+	public void testEncodePolyline() {
+		
+		// example of the algorithm description
+		RouteGeometry route = RouteGeometry.of(new double[] {38.5, -120.2, 40.7, -120.95, 43.252, -126.453});
+		assertEquals("_p~iF~ps|U_ulLnnqC_mqNvxq`@", PolylineEncoder.encode(route, 5));
+		assertEquals(route, PolylineEncoder.decode("_p~iF~ps|U_ulLnnqC_mqNvxq`@", 5));
+	}
+	
+	@Test
+	public void testPolylinePrecision() {
+		
+		RouteGeometry route = RouteGeometry.of(new double[] {51.0412345, 13.7318765, 51.0398761, 13.7329871});
+		RouteGeometry decoded = PolylineEncoder.decode(PolylineEncoder.encode(route, 7), 7);
+		assertTrue(Arrays.equals(route.toArray(), decoded.toArray()));
+		
+		decoded = PolylineEncoder.decode(PolylineEncoder.encode(route, 5), 5);
+		assertEquals(51.04123, decoded.getLatitude(0), 1e-9);
+		assertEquals(13.73299, decoded.getLongitude(1), 1e-9);
+	}
+	
+	@Test
+	public void testSimplifyRoute() {
+		
+		// two straight streets meeting at a corner, one point is 1m off the street
+		RouteGeometry route = RouteGeometry.of(new double[] {
+				51.0, 13.700,
+				51.0, 13.701,
+				51.00001, 13.702,
+				51.0, 13.703,
+				51.001, 13.703,
+				51.002, 13.703});
+		
+		RouteGeometry simplified = RouteSimplifier.simplify(route, 5);
+		assertTrue(Arrays.equals(new double[] {51.0, 13.700, 51.0, 13.703, 51.002, 13.703}, simplified.toArray()));
+		assertEquals(2, RouteSimplifier.simplify(route, 1000).size());
+		assertEquals(route, RouteSimplifier.simplify(route, 0));
+	}
+	
+	@Test
+	public void testRouteFormat() {
+		
+		RouteGeometry route = RouteGeometry.of(new double[] {38.5, -120.2, 40.7, -120.95, 43.252, -126.453});
+		assertEquals(route, RouteFormat.POINTS.format(route));
+		assertEquals("_p~iF~ps|U_ulLnnqC_mqNvxq`@", RouteFormat.polyline(5, 0).format(route));
+		assertEquals("", RouteFormat.polyline(5, 10).format(RouteGeometry.empty()));
+	}
+	
+}
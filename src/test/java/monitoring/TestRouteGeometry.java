@@ -0,0 +1,57 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import monitoring.beans.GeoPoint;
+import monitoring.beans.RouteGeometry;
+import monitoring.cache.RouteCache;
+import monitoring.connector.HttpConnector;
+import monitoring.connector.RoutingConnector;
+
+public class TestRouteGeometry {
+	
+	@Test
+	public void testConcatSkipsSharedPoints() {
+		
+		RouteGeometry first = RouteGeometry.of(new double[] {51.0, 13.7, 51.1, 13.8});
+		RouteGeometry second = RouteGeometry.of(new double[] {51.1, 13.8, 51.2, 13.9, 51.3, 14.0});
+		RouteGeometry route = RouteGeometry.concat(Arrays.asList(first, second));
+		
+		assertEquals(4, route.size());
+		assertTrue(Arrays.equals(new double[] {51.0, 13.7, 51.1, 13.8, 51.2, 13.9, 51.3, 14.0}, route.toArray()));
+		assertEquals(RouteGeometry.of(new double[] {51.2, 13.9, 51.3, 14.0}), route.subRoute(2));
+		assertSame(RouteGeometry.empty(), RouteGeometry.concat(Arrays.<RouteGeometry>asList()));
+	}
+	
+	@Test
+	public void testSerializedAsPointPairs() throws JsonProcessingException {
+		
+		RouteGeometry.Builder builder = new RouteGeometry.Builder(1);
+		builder.add(51.04, 13.73).add(51.03, 13.74).add(51.029, 13.736);
+		Map<String, Object> report = new HashMap<String, Object>();
+		report.put("routeNext", builder.build().subRoute(1));
+		
+		assertEquals("{\"routeNext\":[[51.03,13.74],[51.029,13.736]]}", new ObjectMapper().writeValueAsString(report));
+	}
+	
+	@Test
+	public void testRouteWithMissingStage() {
+		
+		// routing service is not available outside of spring
+		RoutingConnector routingConnector = new RoutingConnector(new HttpConnector(), new RouteCache(25, 120, 1000));
+		assertNull(routingConnector.getRoute(new GeoPoint[] {new GeoPoint(51.04, 13.73), new GeoPoint(51.029, 13.736)}));
+	}
+	
+}
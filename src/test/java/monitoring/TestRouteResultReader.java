@@ -0,0 +1,58 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.fasterxml.jackson.core.JsonParseException;
+
+import monitoring.beans.RouteResult;
+import monitoring.connector.RouteResultReader;
+
+public class TestRouteResultReader {
+	
+	private final RouteResultReader routeReader = new RouteResultReader();
+	
+	@Test
+	public void testReadRoute() throws IOException {
+		
+		RouteResult route = read("{\"instructions\": [{\"text\": \"Go\", \"points\": [1, 2]}],"
+				+ " \"pointList\": [[51.04, 13.73, 112.5], [51.035, 13.733], [51.029, 13.736]],"
+				+ " \"timeInMs\": 1260000, \"distance\": 1874.5, \"weight\": null}");
+		
+		assertEquals(1260000, route.getTimeInMs());
+		assertEquals(1874.5, route.getDistance(), 0.0);
+		assertTrue(Arrays.equals(new double[] {51.04, 13.73, 51.035, 13.733, 51.029, 13.736},
+				route.getPointList().toArray()));
+	}
+	
+	@Test
+	public void testEmptyResponse() throws IOException {
+		
+		assertNull(read(""));
+	}
+	
+	@Test(expected = JsonParseException.class)
+	public void testIncompleteRoute() throws IOException {
+		
+		read("{\"pointList\": [[51.04, 13.73]], \"distance\": 10.0}");
+	}
+	
+	@Test(expected = JsonParseException.class)
+	public void testMalformedPoint() throws IOException {
+		
+		read("{\"pointList\": [[51.04, \"13.73\"]], \"timeInMs\": 0, \"distance\": 0}");
+	}
+	
+	private RouteResult read(String response) throws IOException {
+		return routeReader.handle(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+	}
+	
+}
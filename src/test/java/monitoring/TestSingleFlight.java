@@ -0,0 +1,121 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import monitoring.utility.SingleFlight;
+
+public class TestSingleFlight {
+	
+	private static final int CALLERS = 8;
+	
+	private SingleFlight<String, String> singleFlight;
+	private ExecutorService callers;
+	private AtomicInteger upstreamCalls;
+	
+	@Before
+	public void initialize() {
+		singleFlight = new SingleFlight<String, String>();
+		callers = Executors.newFixedThreadPool(CALLERS);
+		upstreamCalls = new AtomicInteger();
+	}
+	
+	@After
+	public void shutdown() {
+		callers.shutdownNow();
+	}
+	
+	@Test
+	public void testConcurrentCallersShareCall() throws Exception {
+		
+		List<Future<String>> results = callConcurrently("device", null);
+		for (Future<String> result : results)
+			assertEquals("position of device", result.get());
+		
+		assertEquals(1, upstreamCalls.get());
+		assertEquals(1, singleFlight.getCallCount());
+		assertEquals(CALLERS - 1, singleFlight.getCoalescedCount());
+		assertEquals(0, singleFlight.getInFlightCount());
+		
+		// finished calls are not cached
+		callConcurrently("device", null).get(0).get();
+		assertEquals(2, upstreamCalls.get());
+	}
+	
+	@Test
+	public void testExceptionIsShared() throws Exception {
+		
+		for (Future<String> result : callConcurrently("device", new IOException("tracking service down"))) {
+			try {
+				result.get();
+			} catch (ExecutionException e) {
+				assertTrue(e.getCause() instanceof IOException);
+				continue;
+			}
+			throw new AssertionError("IOException expected");
+		}
+		assertEquals(1, upstreamCalls.get());
+	}
+	
+	private List<Future<String>> callConcurrently(final String key, final Exception failure) throws InterruptedException {
+		
+		long coalescedBefore = singleFlight.getCoalescedCount();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		final Callable<String> upstream = new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				upstreamCalls.incrementAndGet();
+				started.countDown();
+				release.await(5, TimeUnit.SECONDS);
+				if (failure != null)
+					throw failure;
+				return "position of " + key;
+			}
+		};
+		
+		List<Future<String>> results = new ArrayList<Future<String>>();
+		results.add(callers.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return singleFlight.execute(key, upstream);
+			}
+		}));
+		// the others arrive while the first call is in flight
+		started.await(5, TimeUnit.SECONDS);
+		final CountDownLatch waiting = new CountDownLatch(CALLERS - 1);
+		for (int i = 1; i < CALLERS; i++) {
+			results.add(callers.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					waiting.countDown();
+					return singleFlight.execute(key, upstream);
+				}
+			}));
+		}
+		waiting.await(5, TimeUnit.SECONDS);
+		// release the call once all others have joined it
+		long deadline = System.currentTimeMillis() + 5000;
+		while (singleFlight.getCoalescedCount() < coalescedBefore + CALLERS - 1 && System.currentTimeMillis() < deadline)
+			Thread.sleep(1);
+		release.countDown();
+		return results;
+	}
+	
+}
@@ -0,0 +1,84 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import monitoring.beans.MonitoringRequest;
+import monitoring.component.MonitoringService;
+import monitoring.component.SubscriptionService;
+import monitoring.utility.RouteFormat;
+
+public class TestSubscriptionService {
+	
+	private SubscriptionService subscriptionService;
+	private MonitoringRequest request;
+	
+	@Before
+	public void initialize() {
+		subscriptionService = new SubscriptionService(new MonitoringService(), 20, 60000, 1);
+		request = new MonitoringRequest("demo", System.currentTimeMillis() + 3600000, 51.029, 13.736, 0);
+	}
+	
+	@After
+	public void shutdown() {
+		subscriptionService.shutdown();
+	}
+	
+	@Test
+	public void testSubscribersShareComputation() throws InterruptedException {
+		
+		CountingEmitter first = new CountingEmitter(false);
+		CountingEmitter second = new CountingEmitter(false);
+		subscriptionService.subscribe(request, RouteFormat.POINTS, first);
+		subscriptionService.subscribe(request, RouteFormat.POINTS, second);
+		Thread.sleep(300);
+		
+		assertEquals(1, subscriptionService.getTopicCount());
+		assertEquals(2, subscriptionService.getSubscriberCount());
+		// one report per interval for both subscribers, only changes are pushed
+		long computations = subscriptionService.getComputationCount();
+		assertTrue("computations " + computations, computations >= 3 && computations <= 16);
+		assertTrue(subscriptionService.getPushCount() >= 1 && subscriptionService.getPushCount() <= 2);
+		assertEquals(subscriptionService.getPushCount(), first.events.get());
+		assertEquals(subscriptionService.getPushCount(), second.events.get());
+	}
+	
+	@Test
+	public void testTopicClosedWithoutSubscribers() throws InterruptedException {
+		
+		subscriptionService.subscribe(request, RouteFormat.POINTS, new CountingEmitter(true));
+		Thread.sleep(200);
+		
+		// the only client is gone, so the topic stops computing
+		assertEquals(0, subscriptionService.getTopicCount());
+		long computations = subscriptionService.getComputationCount();
+		Thread.sleep(100);
+		assertEquals(computations, subscriptionService.getComputationCount());
+	}
+	
+	private static class CountingEmitter extends SseEmitter {
+		
+		private final boolean disconnected;
+		private final AtomicInteger events = new AtomicInteger();
+		
+		private CountingEmitter(boolean disconnected) {
+			this.disconnected = disconnected;
+		}
+		
+		@Override
+		public void send(SseEventBuilder builder) throws IOException {
+			if (disconnected)
+				throw new IOException("Broken pipe");
+			events.incrementAndGet();
+		}
+	}
+	
+}
@@ -0,0 +1,112 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+
+import monitoring.beans.Appointment;
+import monitoring.beans.GeoPoint;
+import monitoring.cache.RouteCache;
+import monitoring.cache.TravelTimeMatrix;
+import monitoring.connector.HttpConnector;
+import monitoring.connector.RoutingConnector;
+import monitoring.prefetch.PlannedTour;
+import monitoring.prefetch.TourPrefetcher;
+
+public class TestTourPrefetcher {
+
+	private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+	private final AtomicInteger routingCalls = new AtomicInteger();
+
+	@Test
+	public void testLegsArePrefetchedIntoTheMatrix() {
+
+		TravelTimeMatrix travelTimes = new TravelTimeMatrix(new RouteCache(25, 120, 1000), 900, 1000);
+		TourPrefetcher prefetcher = new TourPrefetcher(
+				new RoutingConnector(new LegConnector(), new RouteCache(25, 120, 1000)), travelTimes, 1000, 600);
+		long now = new Date().getTime();
+
+		List<Appointment> appointments = Lists.newArrayList();
+		for (int i = 0; i < 5; i++)
+			appointments.add(new Appointment(now + 60 * i * MINUTE, 51.0 + i * 0.12, 13.7));
+		PlannedTour tour = prefetcher.register("demo", appointments);
+		assertEquals(4, prefetcher.getPendingCount());
+		assertNull(tour.getLegTimes().get(0));
+
+		// the last leg ends north of 51.4 and fails
+		assertEquals(3, prefetcher.prefetchPending());
+		assertEquals(0, prefetcher.getPendingCount());
+		assertEquals(1, prefetcher.getFailedCount());
+		assertEquals(Integer.valueOf(1800000), travelTimes.getTravelTime(
+				appointments.get(1).toGeoPoint(), appointments.get(2).toGeoPoint()));
+
+		// registering the tour again takes the routed legs from the matrix
+		tour = prefetcher.register("demo", appointments);
+		assertEquals(1, prefetcher.getPendingCount());
+		assertEquals(Integer.valueOf(1800000), tour.getLegTimes().get(2));
+		assertNull(tour.getLegTimes().get(3));
+		assertEquals(4, routingCalls.get());
+
+		// legs of removed tours are not routed
+		prefetcher.unregister("demo");
+		assertEquals(0, prefetcher.prefetchPending());
+		assertEquals(4, routingCalls.get());
+	}
+
+	@Test
+	public void testTravelTimeIsInterpolatedOnTheLeg() {
+
+		TourPrefetcher prefetcher = new TourPrefetcher(
+				new RoutingConnector(new LegConnector(), new RouteCache(25, 120, 1000)),
+				new TravelTimeMatrix(new RouteCache(25, 120, 1000), 900, 1000), 1000, 600);
+		long now = new Date().getTime();
+
+		GeoPoint appointment = new GeoPoint(51.1, 13.7);
+		prefetcher.register("demo", Lists.newArrayList(
+				new Appointment(now, 51.0, 13.7), new Appointment(now + 60 * MINUTE, 51.1, 13.7)));
+		assertNull(prefetcher.getInterpolatedTravelTime("demo", new GeoPoint(51.05, 13.7), appointment));
+		prefetcher.prefetchPending();
+
+		assertEquals(900000, prefetcher.getInterpolatedTravelTime("demo", new GeoPoint(51.05, 13.7), appointment), 1000);
+		assertEquals(1800000, prefetcher.getInterpolatedTravelTime("demo", new GeoPoint(51.0, 13.7), appointment), 1000);
+		// off the leg, not a stop of the tour or another device
+		assertNull(prefetcher.getInterpolatedTravelTime("demo", new GeoPoint(51.05, 13.9), appointment));
+		assertNull(prefetcher.getInterpolatedTravelTime("demo", new GeoPoint(51.05, 13.7), new GeoPoint(51.2, 13.7)));
+		assertNull(prefetcher.getInterpolatedTravelTime("other", new GeoPoint(51.05, 13.7), appointment));
+	}
+
+	/**
+	 * Routes with 30 minutes travel time straight from start to end, legs
+	 * ending north of 51.4 fail.
+	 */
+	private class LegConnector extends HttpConnector {
+
+		@Override
+		public <T> T getConnectionStream(String urlStr, String token, StreamHandler<T> handler) throws IOException {
+			routingCalls.incrementAndGet();
+			Map<String, String> parameters = Splitter.on('&').withKeyValueSeparator('=')
+					.split(urlStr.substring(urlStr.indexOf('?') + 1));
+			if (Double.parseDouble(parameters.get("endLat")) > 51.4)
+				throw new IOException("No route in test");
+			String response = "{\"timeInMs\": 1800000, \"distance\": 20000, \"pointList\": [["
+					+ parameters.get("startLat") + "," + parameters.get("startLon") + "],["
+					+ parameters.get("endLat") + "," + parameters.get("endLon") + "]]}";
+			return handler.handle(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+		}
+	}
+
+}
@@ -0,0 +1,167 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONObject;
+import org.junit.Test;
+
+import com.google.common.base.Splitter;
+import com.google.common.collect.Lists;
+
+import monitoring.beans.Appointment;
+import monitoring.beans.GeoPoint;
+import monitoring.beans.Report;
+import monitoring.beans.RouteGeometry;
+import monitoring.beans.RouteResult;
+import monitoring.beans.TourRequest;
+import monitoring.cache.PositionStore;
+import monitoring.cache.RouteCache;
+import monitoring.component.MonitoringService;
+import monitoring.connector.HttpConnector;
+import monitoring.connector.RoutingConnector;
+import monitoring.connector.TrackingConnector;
+import monitoring.utility.RouteFormat;
+
+public class TestTourReport {
+	
+	private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+	
+	private final AtomicInteger routingCalls = new AtomicInteger();
+	private final AtomicInteger pendingCalls = new AtomicInteger();
+	private final AtomicInteger maxPendingCalls = new AtomicInteger();
+	
+	@Test
+	public void testStagesAreRoutedInBoundedParallel() throws Exception {
+		
+		RoutingConnector routingConnector = new RoutingConnector(new StageConnector(), new RouteCache(25, 120, 1000));
+		List<GeoPoint> points = Lists.newArrayList();
+		for (int i = 0; i < 9; i++)
+			points.add(new GeoPoint(51.0 + i * 0.01, 13.7));
+		
+		ExecutorService executor = Executors.newCachedThreadPool();
+		try {
+			List<CompletableFuture<RouteResult>> stages = routingConnector.getRouteResults(points, executor, 3);
+			assertEquals(8, stages.size());
+			for (int i = 0; i < stages.size(); i++) {
+				RouteGeometry stage = stages.get(i).get(5, TimeUnit.SECONDS).getPointList();
+				assertEquals(points.get(i).getLatitude(), stage.getLatitude(0), 0);
+				assertEquals(points.get(i + 1).getLatitude(), stage.getLatitude(1), 0);
+			}
+			assertEquals(8, routingCalls.get());
+			assertTrue(maxPendingCalls.get() <= 3);
+			
+			// the stages come from the route cache the second time
+			assertEquals(9, routingConnector.getRoute(points.toArray(new GeoPoint[points.size()])).size());
+			assertEquals(8, routingCalls.get());
+		} finally {
+			executor.shutdown();
+		}
+	}
+	
+	@Test
+	public void testDelayIsCarriedOverToFollowingAppointments() throws Exception {
+		
+		MonitoringService monitoringService = new MonitoringService(
+				new RoutingConnector(new StageConnector(), new RouteCache(25, 120, 1000)),
+				new TrackingConnector(), new PositionStore(30, 600));
+		long now = new Date().getTime();
+		
+		// next appointment next to the demo position, every stage after it takes 30 minutes
+		TourRequest request = new TourRequest("demo", Lists.newArrayList(
+				new Appointment(now + 60 * MINUTE, 51.0399, 13.73),
+				new Appointment(now + 70 * MINUTE, 51.10, 13.80),
+				new Appointment(now + 200 * MINUTE, 51.12, 13.82),
+				// not routable, only estimated
+				new Appointment(now + 400 * MINUTE, 51.50, 13.82)), 0);
+		JSONObject report = monitoringService.getTourReport(request, RouteFormat.POINTS).get(5, TimeUnit.SECONDS);
+		
+		assertEquals(Report.TimeStatus.IN_TIME, report.get("timeStatus"));
+		@SuppressWarnings("unchecked")
+		List<JSONObject> appointments = (List<JSONObject>) report.get("appointments");
+		assertEquals(4, appointments.size());
+		assertEquals(report.get("expectedTimeOfArrival"), appointments.get(0).get("expectedTimeOfArrival"));
+		
+		// waits for the start of the first appointment, arrives 20 minutes late at the second
+		assertEquals(now + 90 * MINUTE, ((Date) appointments.get(1).get("expectedTimeOfArrival")).getTime(), MINUTE);
+		assertEquals(Report.TimeStatus.DELAYED, appointments.get(1).get("timeStatus"));
+		assertEquals(Report.TimeStatus.IN_TIME, appointments.get(2).get("timeStatus"));
+		assertEquals(now + 120 * MINUTE, ((Date) appointments.get(2).get("expectedTimeOfArrival")).getTime(), MINUTE);
+		assertEquals(Report.TimeStatus.UNKNOWN, appointments.get(3).get("timeStatus"));
+		
+		// local estimate, two routed stages and the straight line of the estimated one
+		assertEquals(2 + 1 + 1 + 1, ((RouteGeometry) report.get("routeTotal")).size());
+	}
+	
+	@Test
+	public void testScheduleRoutesOnlyUnknownLegs() throws Exception {
+		
+		MonitoringService monitoringService = new MonitoringService(
+				new RoutingConnector(new StageConnector(), new RouteCache(25, 120, 1000)),
+				new TrackingConnector(), new PositionStore(30, 600));
+		long now = new Date().getTime();
+		
+		// 30 minutes at the first appointment, then 30 minutes to every next one of the tour
+		List<Appointment> appointments = Lists.newArrayList(new Appointment(now + 10 * MINUTE, 51.0399, 13.73, 30));
+		for (int i = 1; i < 31; i++)
+			appointments.add(new Appointment(now + (10 + 60 * i) * MINUTE, 51.05 + i * 0.01, 13.73, 30));
+		TourRequest request = new TourRequest("demo", appointments, 0);
+		
+		JSONObject schedule = monitoringService.getScheduleReport(request).get(5, TimeUnit.SECONDS);
+		assertEquals(30, routingCalls.get());
+		@SuppressWarnings("unchecked")
+		List<JSONObject> forecast = (List<JSONObject>) schedule.get("appointments");
+		assertEquals(31, forecast.size());
+		assertEquals(null, schedule.get("routeNext"));
+		assertEquals(now + 70 * MINUTE, ((Date) forecast.get(1).get("expectedTimeOfArrival")).getTime(), MINUTE);
+		assertEquals(Report.TimeStatus.IN_TIME, forecast.get(30).get("timeStatus"));
+		
+		// refreshes take the legs from the matrix, only later appointments are left
+		monitoringService.getScheduleReport(request).get(5, TimeUnit.SECONDS);
+		request.setAppointments(appointments.subList(10, 31));
+		monitoringService.getScheduleReport(request).get(5, TimeUnit.SECONDS);
+		assertEquals(30 + 1, routingCalls.get());
+	}
+	
+	/**
+	 * Routes with 30 minutes travel time straight from start to end, stages
+	 * ending north of 51.4 fail.
+	 */
+	private class StageConnector extends HttpConnector {
+		
+		@Override
+		public <T> T getConnectionStream(String urlStr, String token, StreamHandler<T> handler) throws IOException {
+			int pending = pendingCalls.incrementAndGet();
+			maxPendingCalls.accumulateAndGet(pending, Math::max);
+			routingCalls.incrementAndGet();
+			try {
+				Thread.sleep(20);
+				Map<String, String> parameters = Splitter.on('&').withKeyValueSeparator('=')
+						.split(urlStr.substring(urlStr.indexOf('?') + 1));
+				if (Double.parseDouble(parameters.get("endLat")) > 51.4)
+					throw new IOException("No route in test");
+				String response = "{\"timeInMs\": 1800000, \"distance\": 20000, \"pointList\": [["
+						+ parameters.get("startLat") + "," + parameters.get("startLon") + "],["
+						+ parameters.get("endLat") + "," + parameters.get("endLon") + "]]}";
+				return handler.handle(new ByteArrayInputStream(response.getBytes(StandardCharsets.UTF_8)));
+			} catch (InterruptedException e) {
+				throw new IOException(e);
+			} finally {
+				pendingCalls.decrementAndGet();
+			}
+		}
+	}
+	
+}
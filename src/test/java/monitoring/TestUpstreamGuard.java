@@ -0,0 +1,223 @@
+package monitoring;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.ConnectException;
+import java.util.Date;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.json.simple.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import monitoring.beans.Report;
+import monitoring.cache.PositionStore;
+import monitoring.cache.RouteCache;
+import monitoring.component.MonitoringService;
+import monitoring.connector.HttpConnector;
+import monitoring.connector.RoutingConnector;
+import monitoring.connector.TrackingConnector;
+import monitoring.exceptions.HttpStatusException;
+import monitoring.exceptions.UpstreamUnavailableException;
+import monitoring.metrics.MetricsRegistry;
+import monitoring.resilience.Backoff;
+import monitoring.resilience.CircuitBreaker;
+import monitoring.resilience.UpstreamGuard;
+
+public class TestUpstreamGuard {
+	
+	private ExecutorService executor;
+	
+	@Before
+	public void initialize() {
+		executor = Executors.newCachedThreadPool();
+	}
+	
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+	
+	@Test
+	public void testCircuitOpensAndRecovers() throws Exception {
+		
+		MetricsRegistry metrics = new MetricsRegistry();
+		UpstreamGuard guard = new UpstreamGuard("test", 4, 100, 3, 200, null, metrics);
+		for (int i = 0; i < 3; i++)
+			callFailing(guard, new ConnectException("Connection refused"));
+		assertEquals(CircuitBreaker.State.OPEN, guard.getCircuitBreaker().getState());
+		guard.recordError("EmptyResponse");
+		assertTrue(metrics.scrape().contains("upstream_errors_total{endpoint=\"test\",error=\"ConnectException\"} 3\n"));
+		assertTrue(metrics.scrape().contains("upstream_errors_total{endpoint=\"test\",error=\"EmptyResponse\"} 1\n"));
+		
+		// rejected without calling the upstream
+		final AtomicInteger calls = new AtomicInteger();
+		try {
+			guard.call(count(calls));
+			fail("Open circuit expected");
+		} catch (UpstreamUnavailableException e) {
+			assertEquals(0, calls.get());
+		}
+		
+		// one trial call after the open time closes the circuit again
+		Thread.sleep(250);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, guard.getCircuitBreaker().getState());
+		assertEquals("ok", guard.call(count(calls)));
+		assertEquals(CircuitBreaker.State.CLOSED, guard.getCircuitBreaker().getState());
+		assertEquals(1, guard.getRejectedCount());
+	}
+	
+	@Test
+	public void testClientErrorsKeepCircuitClosed() throws Exception {
+		
+		UpstreamGuard guard = new UpstreamGuard("test", 4, 100, 2, 60000, null);
+		for (int i = 0; i < 5; i++)
+			callFailing(guard, new HttpStatusException(404, "Not Found"));
+		assertEquals(CircuitBreaker.State.CLOSED, guard.getCircuitBreaker().getState());
+		
+		callFailing(guard, new HttpStatusException(503, "Service Unavailable"));
+		callFailing(guard, new HttpStatusException(503, "Service Unavailable"));
+		assertTrue(guard.isCircuitOpen());
+	}
+	
+	@Test
+	public void testBulkheadRejectsWhenFull() throws Exception {
+		
+		final UpstreamGuard guard = new UpstreamGuard("test", 2, 50, 5, 60000, null);
+		final CountDownLatch started = new CountDownLatch(2);
+		final CountDownLatch release = new CountDownLatch(1);
+		for (int i = 0; i < 2; i++) {
+			executor.submit(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					return guard.call(new Callable<String>() {
+						@Override
+						public String call() throws Exception {
+							started.countDown();
+							release.await();
+							return "ok";
+						}
+					});
+				}
+			});
+		}
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		assertEquals(2, guard.getPendingCount());
+		
+		try {
+			guard.call(count(new AtomicInteger()));
+			fail("Full bulkhead expected");
+		} catch (UpstreamUnavailableException e) {
+			// a full bulkhead is no failure of the upstream
+			assertEquals(CircuitBreaker.State.CLOSED, guard.getCircuitBreaker().getState());
+		}
+		release.countDown();
+	}
+	
+	@Test
+	public void testSlowCallIsHedged() throws Exception {
+		
+		UpstreamGuard guard = new UpstreamGuard("test", 4, 100, 5, 60000, executor);
+		final AtomicInteger calls = new AtomicInteger();
+		for (int i = 0; i < 20; i++)
+			guard.call(count(calls));
+		
+		// the first call hangs, the hedged second one answers
+		final AtomicInteger hedgedCalls = new AtomicInteger();
+		Future<String> result = executor.submit(new Callable<String>() {
+			@Override
+			public String call() throws Exception {
+				return guard.call(new Callable<String>() {
+					@Override
+					public String call() throws Exception {
+						if (hedgedCalls.incrementAndGet() == 1)
+							Thread.sleep(10000);
+						return "hedged";
+					}
+				});
+			}
+		});
+		assertEquals("hedged", result.get(5, TimeUnit.SECONDS));
+		assertEquals(1, guard.getHedgedCount());
+		assertEquals(2, hedgedCalls.get());
+		
+		// the first call keeps its permit until it completes
+		for (int i = 0; i < 100 && guard.getPendingCount() > 1; i++)
+			Thread.sleep(10);
+		assertEquals(1, guard.getPendingCount());
+	}
+	
+	@Test
+	public void testBackoffBounds() {
+		
+		Backoff backoff = new Backoff(100, 1000);
+		for (int i = 0; i < 100; i++) {
+			assertTrue(backoff.getDelay(1) <= 100);
+			assertTrue(backoff.getDelay(3) <= 400);
+			long delay = backoff.getDelay(30);
+			assertTrue(delay >= 0 && delay <= 1000);
+		}
+	}
+	
+	@Test
+	public void testReportDegradesWhileRoutingIsUnavailable() throws Exception {
+		
+		final AtomicInteger routingCalls = new AtomicInteger();
+		HttpConnector refusingConnector = new HttpConnector() {
+			@Override
+			public <T> T getConnectionStream(String urlStr, String token, StreamHandler<T> handler) throws IOException {
+				routingCalls.incrementAndGet();
+				throw new ConnectException("Connection refused");
+			}
+		};
+		MonitoringService monitoringService = new MonitoringService(
+				new RoutingConnector(refusingConnector, new RouteCache(25, 120, 1000)),
+				new TrackingConnector(), new PositionStore(30, 600));
+		
+		// failed routing requests are estimated along the straight line, no travel time of 0
+		long appointment = new Date().getTime() + 60 * 60 * 1000;
+		for (int i = 0; i < 6; i++) {
+			JSONObject report = monitoringService.getReport("demo", appointment, 51.029, 13.736, 0);
+			assertEquals(Report.TimeStatus.UNKNOWN, report.get("timeStatus"));
+			assertTrue(((Date) report.get("expectedTimeOfArrival")).getTime() > new Date().getTime() + 2 * 60 * 1000);
+		}
+		
+		// the open circuit spares the routing service
+		assertEquals(5, routingCalls.get());
+	}
+	
+	private static void callFailing(UpstreamGuard guard, final IOException failure) throws Exception {
+		try {
+			guard.call(new Callable<String>() {
+				@Override
+				public String call() throws Exception {
+					throw failure;
+				}
+			});
+			fail("Failure expected");
+		} catch (IOException e) {
+			assertEquals(failure, e);
+		}
+	}
+	
+	private static Callable<String> count(final AtomicInteger calls) {
+		return new Callable<String>() {
+			@Override
+			public String call() {
+				calls.incrementAndGet();
+				return "ok";
+			}
+		};
+	}
+	
+}